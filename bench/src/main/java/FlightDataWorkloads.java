@@ -0,0 +1,253 @@
+import bench.Workloads;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+/**
+ * The <code>Workloads</code> implementation, which lives in the default package so it can use the
+ * application's classes directly. Every database it touches is a temporary copy.
+ */
+public class FlightDataWorkloads implements Workloads {
+    private static final String[] cities = { "Cancun", "Las Vegas", "Denver", "Rome", "Milan", "Paris", "Madrid", "Amsterdam", "Singapore" };
+    private static final LocalDate firstDate = LocalDate.of(2025, 5, 1);
+    private static final String SEARCH_FLIGHTS = "SELECT price, nonstop FROM flights WHERE from_city_id = ? AND to_city_id = ? AND from_date = ? AND to_date = ?";
+
+    private Path databaseCopy;
+    private SQLiteDatabase database;
+    private long[][] searches;
+    private long insertedPrices = 0;
+
+    private final CheapestFares cheapestFares = new CheapestFares();
+    private final List<Flight> flights = new ArrayList<>();
+    private FareStore fareStore;
+    private final List<String> apiResponses = new ArrayList<>();
+    private Map<String, Object> resultCards;
+    private final FetchMetrics fetchMetrics = new FetchMetrics();
+    private final MetricsRegistry metrics = new MetricsRegistry();
+
+    @Override
+    public void open(Path database, Path fixtures) throws Exception {
+        databaseCopy = Files.createTempFile("flight_data_bench", ".sqlite");
+        Files.copy(database, databaseCopy, StandardCopyOption.REPLACE_EXISTING);
+
+        this.database = new SQLiteDatabase(databaseCopy.toString(), e -> {
+            throw new IllegalStateException(e);
+        });
+        if (!FlightSchema.migrate(this.database)) {
+            throw new IllegalStateException("Could not migrate " + databaseCopy);
+        }
+
+        List<long[]> keys = new ArrayList<>();
+        try (ResultSet resultSet = this.database.query("SELECT from_city_id, to_city_id, from_date, to_date FROM flights GROUP BY 1, 2, 3, 4")) {
+            while (resultSet.next()) {
+                keys.add(new long[] { resultSet.getLong(1), resultSet.getLong(2), resultSet.getLong(3), resultSet.getLong(4) });
+            }
+            resultSet.getStatement().close();
+        }
+        searches = keys.toArray(long[][]::new);
+
+        cheapestFares.load(this.database);
+        fareStore = FareStore.load(this.database);
+        for (int row = 0; row < fareStore.size(); row++) {
+            flights.add(fareStore.toFlight(row));
+        }
+
+        try (Stream<Path> files = Files.list(fixtures)) {
+            for (Path file : files.filter(f -> f.toString().endsWith(".json")).sorted().toList()) {
+                apiResponses.add(Files.readString(file));
+            }
+        }
+
+        // A full page of cards, in the shapes the price and stop texts take on the site
+        List<List<String>> cards = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            cards.add(List.of(i % 3 == 0 ? "US$1,%03d.%02d".formatted(i, i) : "$%d.%02d\nTotal price".formatted(200 + i * 7, i), i % 2 == 0 ? "Direct" : "1 stop", i % 4 == 0 ? "2 stops" : "Direct"));
+        }
+        resultCards = Map.of("noDirectFlights", false, "cards", cards);
+
+        fetchMetrics.register(metrics);
+    }
+
+    @Override
+    public void close() throws Exception {
+        database.close();
+        for (String suffix : new String[] { "", "-wal", "-shm" }) {
+            Files.deleteIfExists(Path.of(databaseCopy + suffix));
+        }
+    }
+
+    @Override
+    public int insertSingleRows(int rows) {
+        int inserted = 0;
+        for (int i = 0; i < rows; i++) {
+            inserted += database.updatePrepared(FlightSchema.INSERT_FLIGHT, nextFlight());
+        }
+        return inserted;
+    }
+
+    @Override
+    public int insertBatched(int rows) {
+        try (SQLiteDatabase.Batch batch = database.batch(FlightSchema.INSERT_FLIGHT, rows, 60_000)) {
+            for (int i = 0; i < rows; i++) {
+                batch.add(nextFlight());
+            }
+        }
+        return rows;
+    }
+
+    // Every inserted flight has a new price, so none of them is skipped as a duplicate
+    private Object[] nextFlight() {
+        long n = insertedPrices++;
+        LocalDate fromDate = LocalDate.of(2025, 5, 1).plusDays(n % 100);
+        return new Object[] { "Atlanta", cities[(int) (n % cities.length)], fromDate.toEpochDay(), fromDate.plusWeeks(1).toEpochDay(), 100_000 + n / 100.0, n % 2 == 0 };
+    }
+
+    @Override
+    public int lookupSearch(int index) throws SQLException {
+        long[] search = searches[Math.floorMod(index, searches.length)];
+        int found = 0;
+        try (ResultSet resultSet = database.queryPrepared(SEARCH_FLIGHTS, search[0], search[1], search[2], search[3])) {
+            while (resultSet.next()) {
+                found++;
+            }
+        }
+        return found;
+    }
+
+    @Override
+    public double cheapestBySqlAggregation() throws SQLException {
+        String query = "SELECT tc.name AS to_city, MIN(f.price) AS price, fc.name AS from_city, f.from_date, f.to_date, f.nonstop " +
+                "FROM flights f JOIN cities fc ON fc.id = f.from_city_id JOIN cities tc ON tc.id = f.to_city_id " +
+                "GROUP BY f.to_city_id, f.nonstop";
+        List<Flight> cheapestFlights = new ArrayList<>();
+
+        try (ResultSet resultSet = database.query(query)) {
+            while (resultSet.next()) {
+                cheapestFlights.add(new Flight(
+                        resultSet.getString("from_city"), resultSet.getString("to_city"),
+                        LocalDate.ofEpochDay(resultSet.getLong("from_date")), LocalDate.ofEpochDay(resultSet.getLong("to_date")),
+                        resultSet.getDouble("price"), resultSet.getBoolean("nonstop")
+                ));
+            }
+            resultSet.getStatement().close();
+        }
+
+        double total = 0;
+        for (String city : cities) {
+            List<Flight> cheapestCityFlights = cheapestFlights.stream().filter(f -> f.getToCity().equals(city)).toList();
+            if (!cheapestCityFlights.isEmpty()) {
+                total += cheapestCityFlights.stream().filter(Flight::isNonstop).findAny().orElseGet(cheapestCityFlights::getFirst).getPrice();
+            }
+        }
+        return total;
+    }
+
+    @Override
+    public double cheapestFromCheapestFares() {
+        double total = 0;
+        for (String city : cities) {
+            Flight cheapest = cheapestFares.getCheapestPreferringNonstop(city);
+            total += cheapest == null ? 0 : cheapest.getPrice();
+        }
+        return total;
+    }
+
+    @Override
+    public double cheapestByFlightListScan() {
+        double total = 0;
+        for (String city : cities) {
+            total += flights.stream()
+                    .filter(f -> f.getToCity().equals(city))
+                    .min(Comparator.comparingDouble(Flight::getPrice))
+                    .map(Flight::getPrice)
+                    .orElse(0.0);
+        }
+        return total;
+    }
+
+    @Override
+    public double cheapestByFareStoreScan() {
+        double total = 0;
+        for (String city : cities) {
+            int row = fareStore.indexOfCheapest(fareStore.getCityCode(city), false, FareStore.ANY_DATE_FROM, FareStore.ANY_DATE_TO);
+            total += row == -1 ? 0 : fareStore.getPriceCents(row) / 100.0;
+        }
+        return total;
+    }
+
+    @Override
+    public long medianFromFareStore() {
+        return fareStore.getPercentileCents(FareStore.ANY_CITY, false, FareStore.ANY_DATE_FROM, FareStore.ANY_DATE_TO, 50);
+    }
+
+    @Override
+    public double medianFromFlightList() {
+        double[] prices = flights.stream().mapToDouble(Flight::getPrice).toArray();
+        Arrays.sort(prices);
+        return prices[(prices.length - 1) / 2];
+    }
+
+    @Override
+    public int parseApiResponses() {
+        int cards = 0;
+        for (String body : apiResponses) {
+            cards += HttpBackend.parse(body, false).cards().size();
+        }
+        return cards;
+    }
+
+    @Override
+    public int parseResultCards() {
+        return ResultCardParser.parse(resultCards, false).cards().size();
+    }
+
+    // Both builders hold the same fares, spread over a year of departures like FareStoreTests
+    @Override
+    public Object buildFlightList(int fares) {
+        List<Flight> list = new ArrayList<>(fares);
+        for (int i = 0; i < fares; i++) {
+            LocalDate fromDate = firstDate.plusDays(i % 365);
+            list.add(new Flight("Atlanta", cities[i % cities.length], fromDate, fromDate.plusWeeks(1), 300 + i % 1000, i % 3 == 0));
+        }
+        return list;
+    }
+
+    @Override
+    public Object buildFareStore(int fares) {
+        FareStore store = new FareStore(fares);
+        int atlanta = store.getOrAddCity("Atlanta");
+        int[] toCities = Arrays.stream(cities).mapToInt(store::getOrAddCity).toArray();
+        int firstDay = (int) firstDate.toEpochDay();
+        for (int i = 0; i < fares; i++) {
+            int fromDay = firstDay + i % 365;
+            store.add(atlanta, toCities[i % toCities.length], fromDay, fromDay + 7, (300 + i % 1000) * 100L, i % 3 == 0);
+        }
+        return store;
+    }
+
+    @Override
+    public long recordFetchMetrics(long nanos) {
+        fetchMetrics.record(FetchMetrics.Phase.NAVIGATE, nanos);
+        fetchMetrics.record(FetchMetrics.Phase.WAIT, nanos);
+        fetchMetrics.record(FetchMetrics.Phase.PARSE, nanos);
+        fetchMetrics.record(FetchMetrics.Phase.TOTAL, nanos);
+        fetchMetrics.record(FetchMetrics.Outcome.RESULTS);
+        fetchMetrics.recordCards(50);
+        return nanos;
+    }
+
+    @Override
+    public int dumpMetrics() {
+        return metrics.toPrometheus().length();
+    }
+}
@@ -0,0 +1,21 @@
+package bench;
+
+import java.nio.file.Path;
+
+/**
+ * Where the benchmarks find their data. By default they expect to be run from the repository root; set
+ * <code>-Dbench.database</code> and <code>-Dbench.fixtures</code> to run them from elsewhere.
+ */
+final class Fixtures {
+    static final Path DATABASE = Path.of(System.getProperty("bench.database", "flight_data.sqlite"));
+    static final Path API_RESPONSES = Path.of(System.getProperty("bench.fixtures", "test/fixtures"));
+
+    private Fixtures() {
+    }
+
+    static Workloads open() throws Exception {
+        Workloads workloads = Workloads.create();
+        workloads.open(DATABASE, API_RESPONSES);
+        return workloads;
+    }
+}
@@ -0,0 +1,58 @@
+package bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The heap taken by the same fares held as a <code>List&lt;Flight&gt;</code> versus a <code>FareStore</code>.
+ * Both are sized up front and everything they allocate is kept, so the bytes allocated per build are
+ * their footprint. Run with the GC profiler and compare <code>gc.alloc.rate.norm</code>:
+ * <pre>
+ *     java -jar bench/target/benchmarks.jar Footprint -prof gc
+ * </pre>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class FootprintBenchmark {
+    @Param({ "500000" })
+    public int fares;
+
+    private Workloads workloads;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        workloads = Fixtures.open();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        workloads.close();
+    }
+
+    @Benchmark
+    public Object buildFlightList() {
+        return workloads.buildFlightList(fares);
+    }
+
+    @Benchmark
+    public Object buildFareStore() {
+        return workloads.buildFareStore(fares);
+    }
+}
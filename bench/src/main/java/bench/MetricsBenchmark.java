@@ -0,0 +1,53 @@
+package bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The cost of instrumentation: recording one page fetch's metrics, which happens on every fetch, against
+ * formatting every metric, which only happens when they are dumped.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MetricsBenchmark {
+    private Workloads workloads;
+    private long nanos = 0;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        workloads = Fixtures.open();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        workloads.close();
+    }
+
+    @Benchmark
+    public long recordFetchMetrics() {
+        // Vary the durations so that they spread across buckets like real ones
+        nanos = (nanos + 7_919_993) & ((1L << 34) - 1);
+        return workloads.recordFetchMetrics(nanos);
+    }
+
+    @Benchmark
+    public int dumpMetrics() {
+        return workloads.dumpMetrics();
+    }
+}
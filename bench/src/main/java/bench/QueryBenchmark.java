@@ -0,0 +1,79 @@
+package bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reads against a migrated copy of <code>flight_data.sqlite</code>: prepared lookups of one search's
+ * flights, and the cheapest flight per city computed by the original SQL aggregation, from
+ * <code>CheapestFares</code>, and by scanning a <code>List&lt;Flight&gt;</code> versus a <code>FareStore</code>.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class QueryBenchmark {
+    private Workloads workloads;
+    private int search = 0;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        workloads = Fixtures.open();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        workloads.close();
+    }
+
+    @Benchmark
+    public int queryPreparedLookup() throws Exception {
+        // Step through the saved searches by a large prime so consecutive lookups hit different pages
+        search += 7919;
+        return workloads.lookupSearch(search);
+    }
+
+    @Benchmark
+    public double cheapestBySqlAggregation() throws Exception {
+        return workloads.cheapestBySqlAggregation();
+    }
+
+    @Benchmark
+    public double cheapestFromCheapestFares() {
+        return workloads.cheapestFromCheapestFares();
+    }
+
+    @Benchmark
+    public double cheapestByFlightListScan() {
+        return workloads.cheapestByFlightListScan();
+    }
+
+    @Benchmark
+    public double cheapestByFareStoreScan() {
+        return workloads.cheapestByFareStoreScan();
+    }
+
+    @Benchmark
+    public double medianFromFlightList() {
+        return workloads.medianFromFlightList();
+    }
+
+    @Benchmark
+    public long medianFromFareStore() {
+        return workloads.medianFromFareStore();
+    }
+}
@@ -0,0 +1,81 @@
+package bench;
+
+import java.nio.file.Path;
+
+/**
+ * The operations measured by the benchmarks. The application's classes are in the default package, which
+ * code in a named package (as JMH requires benchmarks to be) cannot refer to, so the benchmarks call them
+ * through this interface, implemented by <code>FlightDataWorkloads</code> in the default package.
+ * Each benchmark has a single implementation, so the calls are monomorphic and inlined by the JIT.
+ */
+public interface Workloads {
+    /**
+     * Creates the implementation. Java has no way to import a class from the default package, so this is
+     * the one place reflection is needed: the class is looked up by name once per trial, outside any
+     * measurement. Moving the application into a named package would remove it, but every source and test
+     * file would have to move with it.
+     * @return A new <code>FlightDataWorkloads</code>.
+     */
+    static Workloads create() {
+        try {
+            return (Workloads) Class.forName("FlightDataWorkloads").getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("FlightDataWorkloads is missing from the classpath", e);
+        }
+    }
+
+    /**
+     * Opens a private copy of the given database, migrated to the current schema, and loads the fixtures
+     * and in-memory structures the read benchmarks use.
+     * @param database The database to copy, normally <code>flight_data.sqlite</code>.
+     * @param fixtures The directory of synthetic search API responses.
+     */
+    void open(Path database, Path fixtures) throws Exception;
+
+    void close() throws Exception;
+
+    /** Inserts the given number of new flights with one autocommitted <code>updatePrepared</code> each. */
+    int insertSingleRows(int rows);
+
+    /** Inserts the given number of new flights through one <code>SQLiteDatabase.Batch</code>. */
+    int insertBatched(int rows);
+
+    /** Looks up the flights of one saved search with <code>queryPrepared</code>. */
+    int lookupSearch(int index) throws Exception;
+
+    /** Runs the original aggregation: a <code>GROUP BY</code> query, then a stream filter per city. */
+    double cheapestBySqlAggregation() throws Exception;
+
+    /** Reads the cheapest flight per city from <code>CheapestFares</code>. */
+    double cheapestFromCheapestFares();
+
+    /** Finds the cheapest flight per city by streaming over every flight as a <code>Flight</code>. */
+    double cheapestByFlightListScan();
+
+    /** Finds the cheapest flight per city by scanning the columns of a <code>FareStore</code>. */
+    double cheapestByFareStoreScan();
+
+    /** The median price across every fare in the <code>FareStore</code>. */
+    long medianFromFareStore();
+
+    /** The median price across every fare, sorting a copy of the <code>Flight</code> prices. */
+    double medianFromFlightList();
+
+    /** Parses every synthetic search API response in the fixtures directory. */
+    int parseApiResponses();
+
+    /** Parses a page of result cards as extracted from the browser. */
+    int parseResultCards();
+
+    /** Builds a <code>List&lt;Flight&gt;</code> of the given number of fares and returns it. */
+    Object buildFlightList(int fares);
+
+    /** Builds a <code>FareStore</code> of the same fares as <code>buildFlightList</code> and returns it. */
+    Object buildFareStore(int fares);
+
+    /** Records what one page fetch records in <code>FetchMetrics</code>: four phase timings, an outcome and a card count. */
+    long recordFetchMetrics(long nanos);
+
+    /** Formats a <code>MetricsRegistry</code> holding the fetch metrics in the Prometheus text format. */
+    int dumpMetrics();
+}
@@ -0,0 +1,83 @@
+import java.time.LocalDate;
+import java.util.List;
+import java.util.function.Supplier;
+
+/**
+ * A <code>FlightSearcher</code> that answers searches from a <code>ScrapeCache</code> when it can and
+ * only falls back to a real searcher for missing or stale results. The real searcher is created
+ * on the first miss, so a run that is entirely cached never starts a browser.
+ */
+public class CachingFlightSearcher implements FlightSearcher {
+    // Appended to the unfiltered page's URL to key combined searches, whose flights may come from both pages
+    static final String COMBINED_SEARCH_KEY = "#combined";
+
+    private final Supplier<? extends FlightSearcher> searcherFactory;
+    private final ScrapeCache cache;
+    private FlightSearcher searcher = null;
+
+    /**
+     * Constructs a <code>CachingFlightSearcher</code>.
+     * @param searcherFactory Creates the real searcher on the first cache miss.
+     * @param cache The cache to read from and write to.
+     */
+    public CachingFlightSearcher(Supplier<? extends FlightSearcher> searcherFactory, ScrapeCache cache) {
+        this.searcherFactory = searcherFactory;
+        this.cache = cache;
+    }
+
+    @Override
+    public List<Flight> getRoundTripNonstopEconomyFlights(String fromCity, String toCity, LocalDate fromDate, LocalDate toDate) {
+        String url = FlightDataAPI.buildUrl(fromCity, toCity, fromDate, toDate, FlightDataAPI.NONSTOP_FILTER);
+        List<Flight> flights = cache.get(url, fromCity, toCity, fromDate, toDate);
+
+        if (flights == null) {
+            flights = getSearcher().getRoundTripNonstopEconomyFlights(fromCity, toCity, fromDate, toDate);
+            cache.put(url, flights);
+        }
+
+        return flights;
+    }
+
+    @Override
+    public List<Flight> getRoundTripEconomyFlights(String fromCity, String toCity, LocalDate fromDate, LocalDate toDate) {
+        String url = FlightDataAPI.buildUrl(fromCity, toCity, fromDate, toDate, "");
+        List<Flight> flights = cache.get(url, fromCity, toCity, fromDate, toDate);
+
+        if (flights == null) {
+            flights = getSearcher().getRoundTripEconomyFlights(fromCity, toCity, fromDate, toDate);
+            cache.put(url, flights);
+        }
+
+        return flights;
+    }
+
+    @Override
+    public FlightSearchResult searchRoundTripEconomyFlights(String fromCity, String toCity, LocalDate fromDate, LocalDate toDate) {
+        // Cached apart from the unfiltered page, since the result may also hold flights from the nonstop page
+        String url = FlightDataAPI.buildUrl(fromCity, toCity, fromDate, toDate, "") + COMBINED_SEARCH_KEY;
+        List<Flight> flights = cache.get(url, fromCity, toCity, fromDate, toDate);
+
+        if (flights == null) {
+            FlightSearchResult result = getSearcher().searchRoundTripEconomyFlights(fromCity, toCity, fromDate, toDate);
+            cache.put(url, result.allFlights());
+            return result;
+        }
+
+        return FlightSearchResult.fromCache(flights);
+    }
+
+    @Override
+    public void close() {
+        if (searcher != null) {
+            searcher.close();
+            searcher = null;
+        }
+    }
+
+    private FlightSearcher getSearcher() {
+        if (searcher == null) {
+            searcher = searcherFactory.get();
+        }
+        return searcher;
+    }
+}
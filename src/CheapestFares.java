@@ -0,0 +1,92 @@
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.time.temporal.TemporalAdjusters;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Stream;
+
+/**
+ * Keeps the cheapest flight seen so far per (destination, nonstop) and per (destination, departure week),
+ * updated as each flight is recorded, so reading the cheapest fare for a route never touches the
+ * database or the rest of the history. Safe to record into and read from on different threads.
+ */
+public class CheapestFares {
+    private record RouteKey(String toCity, boolean nonstop) { }
+
+    private record WeekKey(String toCity, LocalDate weekStart) { }
+
+    private final Map<RouteKey, Flight> cheapestByRoute = new ConcurrentHashMap<>();
+    private final Map<WeekKey, Flight> cheapestByWeek = new ConcurrentHashMap<>();
+
+    /**
+     * Records a flight, replacing the current cheapest flight for its route and departure week if it is cheaper.
+     * @param flight The flight to record.
+     */
+    public void record(Flight flight) {
+        cheapestByRoute.merge(new RouteKey(flight.getToCity(), flight.isNonstop()), flight, CheapestFares::cheaper);
+        cheapestByWeek.merge(new WeekKey(flight.getToCity(), weekStart(flight.getFromDate())), flight, CheapestFares::cheaper);
+    }
+
+    /**
+     * Returns the cheapest flight to the given city, either nonstop or with stops.
+     * @param toCity The destination city.
+     * @param nonstop Whether to look at nonstop flights or flights with stops.
+     * @return The cheapest flight, or <code>null</code> if none has been recorded.
+     */
+    public Flight getCheapest(String toCity, boolean nonstop) {
+        return cheapestByRoute.get(new RouteKey(toCity, nonstop));
+    }
+
+    /**
+     * Returns the cheapest nonstop flight to the given city if there is one,
+     * otherwise the cheapest flight with stops.
+     * @param toCity The destination city.
+     * @return The cheapest flight, or <code>null</code> if none has been recorded.
+     */
+    public Flight getCheapestPreferringNonstop(String toCity) {
+        Flight nonstop = getCheapest(toCity, true);
+        return nonstop != null ? nonstop : getCheapest(toCity, false);
+    }
+
+    /**
+     * Returns the cheapest flight to the given city departing in the Monday-to-Sunday week containing the given date.
+     * @param toCity The destination city.
+     * @param date Any date in the departure week.
+     * @return The cheapest flight, or <code>null</code> if none has been recorded.
+     */
+    public Flight getCheapestInWeek(String toCity, LocalDate date) {
+        return cheapestByWeek.get(new WeekKey(toCity, weekStart(date)));
+    }
+
+    /**
+     * Forgets every recorded flight.
+     */
+    public void clear() {
+        cheapestByRoute.clear();
+        cheapestByWeek.clear();
+    }
+
+    /**
+     * Records the cheapest flight per destination, nonstop flag and departure date already stored
+     * in the database, which is enough to rebuild both aggregates after a restart.
+     * @param database The database to read from.
+     */
+    public void load(SQLiteDatabase database) {
+        String query = "SELECT tc.name AS to_city, MIN(f.price) AS price, fc.name AS from_city, f.from_date, f.to_date, f.nonstop " +
+                "FROM flights f JOIN cities fc ON fc.id = f.from_city_id JOIN cities tc ON tc.id = f.to_city_id " +
+                "GROUP BY f.to_city_id, f.nonstop, f.from_date";
+
+        // Errors go to the database's error handler, which ends the stream
+        try (Stream<Flight> flights = database.stream(query, FlightSchema.flightMapper())) {
+            flights.forEach(this::record);
+        }
+    }
+
+    private static LocalDate weekStart(LocalDate date) {
+        return date.with(TemporalAdjusters.previousOrSame(DayOfWeek.MONDAY));
+    }
+
+    private static Flight cheaper(Flight current, Flight candidate) {
+        return candidate.getPrice() < current.getPrice() ? candidate : current;
+    }
+}
@@ -0,0 +1,228 @@
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.time.temporal.TemporalAdjusters;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.TreeMap;
+
+/**
+ * Answers date-window questions over a <code>FareStore</code>, such as the cheapest departures to a city
+ * for a given trip length within a range of dates, or the cheapest weekend trip in each month.
+ * <p>
+ * Fares are grouped once by (destination, trip length, nonstop) into a series holding the cheapest fare
+ * per departure day, and each series is indexed by a min segment tree over its days. Finding the cheapest
+ * departure in a window is then O(log d) in the number of days, and the cheapest N departures are
+ * O(N log N log d), instead of a scan of every stored fare. The calendar is a snapshot; build a new one
+ * to see fares added to the store afterwards.
+ */
+public class FareCalendar {
+    private record SeriesKey(int toCity, int tripLength, boolean nonstop) { }
+
+    /**
+     * The cheapest fare per departure day for one destination, trip length and nonstop flag, with a
+     * segment tree whose nodes hold the day of the cheapest fare below them.
+     */
+    private static final class Series {
+        private final int firstDay;
+        private int[] rows = new int[0];
+        private int[] tree;
+        private int leaves;
+
+        Series(int firstDay) {
+            this.firstDay = firstDay;
+        }
+
+        void offer(FareStore store, int row) {
+            int day = store.getFromDate(row) - firstDay;
+            if (day >= rows.length) {
+                int length = rows.length;
+                rows = Arrays.copyOf(rows, Math.max(day + 1, length * 2));
+                Arrays.fill(rows, length, rows.length, -1);
+            }
+
+            if (rows[day] == -1 || store.getPriceCents(row) < store.getPriceCents(rows[day])) {
+                rows[day] = row;
+            }
+        }
+
+        void index(FareStore store) {
+            leaves = Integer.highestOneBit(Math.max(rows.length, 1) * 2 - 1);
+            tree = new int[leaves * 2];
+            Arrays.fill(tree, -1);
+            for (int day = 0; day < rows.length; day++) {
+                tree[leaves + day] = rows[day] == -1 ? -1 : day;
+            }
+            for (int node = leaves - 1; node > 0; node--) {
+                tree[node] = cheaperDay(store, tree[node * 2], tree[node * 2 + 1]);
+            }
+        }
+
+        /**
+         * @return The day (relative to <code>firstDay</code>) of the cheapest fare in [from, to], or -1.
+         */
+        int cheapestDay(FareStore store, int from, int to) {
+            from = Math.max(from, 0);
+            to = Math.min(to, rows.length - 1);
+            int cheapest = -1;
+
+            for (int left = from + leaves, right = to + leaves + 1; left < right; left >>= 1, right >>= 1) {
+                if ((left & 1) == 1) {
+                    cheapest = cheaperDay(store, cheapest, tree[left++]);
+                }
+                if ((right & 1) == 1) {
+                    cheapest = cheaperDay(store, cheapest, tree[--right]);
+                }
+            }
+
+            return cheapest;
+        }
+
+        int rowOn(int day) {
+            return day >= 0 && day < rows.length ? rows[day] : -1;
+        }
+
+        // The earlier day wins a tie, so results are deterministic
+        private int cheaperDay(FareStore store, int a, int b) {
+            if (a == -1) return b;
+            if (b == -1) return a;
+            long priceA = store.getPriceCents(rows[a]), priceB = store.getPriceCents(rows[b]);
+            return priceB < priceA || (priceB == priceA && b < a) ? b : a;
+        }
+    }
+
+    /** A window of days still to be searched, and the cheapest day in it. */
+    private record Window(int from, int to, int cheapestDay, long price) { }
+
+    private final FareStore store;
+    private final Map<SeriesKey, Series> series = new HashMap<>();
+
+    /**
+     * Builds a calendar over every fare in the store with one pass over it.
+     * @param store The fares.
+     */
+    public FareCalendar(FareStore store) {
+        this.store = store;
+
+        int firstDay = Integer.MAX_VALUE;
+        for (int row = 0; row < store.size(); row++) {
+            firstDay = Math.min(firstDay, store.getFromDate(row));
+        }
+
+        for (int row = 0; row < store.size(); row++) {
+            int tripLength = store.getToDate(row) - store.getFromDate(row);
+            int start = firstDay;
+            // Nonstop fares go in both series, since "any" includes them
+            series.computeIfAbsent(new SeriesKey(store.getToCity(row), tripLength, false), key -> new Series(start)).offer(store, row);
+            if (store.isNonstop(row)) {
+                series.computeIfAbsent(new SeriesKey(store.getToCity(row), tripLength, true), key -> new Series(start)).offer(store, row);
+            }
+        }
+
+        series.values().forEach(s -> s.index(store));
+    }
+
+    /**
+     * Returns the cheapest departures to a city for a trip length, at most one per departure date.
+     * @param toCity The destination city.
+     * @param tripLength The number of days between departure and return.
+     * @param start The earliest departure date.
+     * @param end The latest departure date.
+     * @param count The maximum number of departures to return.
+     * @param nonstopOnly Whether to only consider nonstop flights.
+     * @return The cheapest flight on each of the cheapest departure dates, cheapest first.
+     */
+    public List<Flight> getCheapestDepartures(String toCity, int tripLength, LocalDate start, LocalDate end, int count, boolean nonstopOnly) {
+        Series days = getSeries(toCity, tripLength, nonstopOnly);
+        List<Flight> flights = new ArrayList<>();
+        if (days == null || count <= 0) {
+            return flights;
+        }
+
+        // Take the cheapest day in a window, then search the windows on either side of it
+        PriorityQueue<Window> windows = new PriorityQueue<>((a, b) -> a.price() != b.price() ? Long.compare(a.price(), b.price()) : Integer.compare(a.cheapestDay(), b.cheapestDay()));
+        offerWindow(windows, days, (int) start.toEpochDay() - days.firstDay, (int) end.toEpochDay() - days.firstDay);
+
+        while (!windows.isEmpty() && flights.size() < count) {
+            Window window = windows.poll();
+            flights.add(store.toFlight(days.rowOn(window.cheapestDay())));
+            offerWindow(windows, days, window.from(), window.cheapestDay() - 1);
+            offerWindow(windows, days, window.cheapestDay() + 1, window.to());
+        }
+
+        return flights;
+    }
+
+    /**
+     * Returns the cheapest departures to a city for each of several trip lengths.
+     * @param tripLengths The trip lengths, in days. Other parameters are as for the single trip length version.
+     * @return The cheapest departures for each trip length, in the order given.
+     */
+    public Map<Integer, List<Flight>> getCheapestDepartures(String toCity, int[] tripLengths, LocalDate start, LocalDate end, int count, boolean nonstopOnly) {
+        Map<Integer, List<Flight>> departures = new LinkedHashMap<>();
+        for (int tripLength : tripLengths) {
+            departures.put(tripLength, getCheapestDepartures(toCity, tripLength, start, end, count, nonstopOnly));
+        }
+        return departures;
+    }
+
+    /**
+     * Returns the cheapest weekend trip to a city in each month between two dates. A weekend trip leaves
+     * on a Friday or Saturday and returns on the following Sunday or Monday, so only trips of one to three
+     * days count; a sweep that only scrapes week-long trips has none. The dates are stepped a week at a
+     * time with four lookups per week, so this is O(w) in the number of weeks.
+     * @param toCity The destination city.
+     * @param start The earliest departure date.
+     * @param end The latest departure date.
+     * @param nonstopOnly Whether to only consider nonstop flights.
+     * @return The cheapest weekend trip in each month that has one, in month order.
+     */
+    public Map<YearMonth, Flight> getCheapestWeekendPerMonth(String toCity, LocalDate start, LocalDate end, boolean nonstopOnly) {
+        Map<YearMonth, Flight> cheapest = new TreeMap<>();
+        int[][] tripLengthsByDeparture = { { 2, 3 }, { 1, 2 } }; // Friday, Saturday
+
+        for (LocalDate friday = start.with(TemporalAdjusters.previousOrSame(DayOfWeek.FRIDAY)); !friday.isAfter(end); friday = friday.plusWeeks(1)) {
+            for (int weekday = 0; weekday < tripLengthsByDeparture.length; weekday++) {
+                LocalDate date = friday.plusDays(weekday);
+                if (date.isBefore(start) || date.isAfter(end)) {
+                    continue;
+                }
+
+                for (int tripLength : tripLengthsByDeparture[weekday]) {
+                    Series days = getSeries(toCity, tripLength, nonstopOnly);
+                    int row = days == null ? -1 : days.rowOn((int) date.toEpochDay() - days.firstDay);
+                    if (row == -1) {
+                        continue;
+                    }
+
+                    Flight current = cheapest.get(YearMonth.from(date));
+                    if (current == null || store.getPriceCents(row) < Math.round(current.getPrice() * 100)) {
+                        cheapest.put(YearMonth.from(date), store.toFlight(row));
+                    }
+                }
+            }
+        }
+
+        return cheapest;
+    }
+
+    private Series getSeries(String toCity, int tripLength, boolean nonstopOnly) {
+        return series.get(new SeriesKey(store.getCityCode(toCity), tripLength, nonstopOnly));
+    }
+
+    private void offerWindow(PriorityQueue<Window> windows, Series days, int from, int to) {
+        if (from > to) {
+            return;
+        }
+
+        int day = days.cheapestDay(store, from, to);
+        if (day != -1) {
+            windows.add(new Window(from, to, day, store.getPriceCents(days.rowOn(day))));
+        }
+    }
+}
@@ -0,0 +1,8 @@
+/**
+ * One result card on a search results page: the round-trip price and the number of stops on each leg.
+ */
+public record FareCard(double price, int outboundStops, int returnStops) {
+    public boolean isNonstop() {
+        return outboundStops == 0 && returnStops == 0;
+    }
+}
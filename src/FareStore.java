@@ -0,0 +1,340 @@
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * An in-memory, column-oriented store of fares for analysing large amounts of history. Each fare is a
+ * row across primitive columns: cities are int codes into a dictionary, dates are epoch days, prices
+ * are whole cents and the nonstop flags are a bitset, so a fare costs about 24 bytes instead of a
+ * <code>Flight</code> with its strings and dates.
+ * <p>
+ * Scans such as <code>indexOfCheapest</code>, <code>count</code>, <code>select</code> and
+ * <code>getPercentileCents</code> walk the columns directly and do not allocate. Not thread-safe;
+ * share it between threads only after it has been fully loaded, and not for percentile scans, which
+ * reuse a scratch array.
+ */
+public class FareStore {
+    /** Matches every city in a scan. */
+    public static final int ANY_CITY = -1;
+    /** Matches every departure date in a scan. */
+    public static final int ANY_DATE_FROM = Integer.MIN_VALUE, ANY_DATE_TO = Integer.MAX_VALUE;
+
+    private final Map<String, Integer> cityCodes = new HashMap<>();
+    private String[] cityNames = new String[16];
+    private int cityCount = 0;
+
+    private int[] fromCities, toCities, fromDates, toDates;
+    private long[] prices;
+    private final BitSet nonstop = new BitSet();
+    private int size = 0;
+    private long[] scratch = new long[0];
+
+    /**
+     * Constructs an empty <code>FareStore</code>.
+     * @param initialCapacity The number of fares to allocate room for up front.
+     */
+    public FareStore(int initialCapacity) {
+        int capacity = Math.max(initialCapacity, 16);
+        fromCities = new int[capacity];
+        toCities = new int[capacity];
+        fromDates = new int[capacity];
+        toDates = new int[capacity];
+        prices = new long[capacity];
+    }
+
+    /**
+     * Loads every flight in the database into a new store, reading the ids and epoch days straight from
+     * the <code>flights</code> table without building any <code>Flight</code>s.
+     * @param database The database to read from, which must be at the current schema version.
+     * @return The store, which is empty if the database reported an error.
+     */
+    public static FareStore load(SQLiteDatabase database) throws SQLException {
+        // City ids are dense in practice, so map them to dictionary codes with an array
+        int[] codeById = new int[0];
+        FareStore store = new FareStore(countFlights(database));
+
+        try (ResultSet resultSet = database.query("SELECT id, name FROM cities ORDER BY id")) {
+            if (resultSet == null) {
+                return store; // The database's error handler has already been told why
+            }
+
+            while (resultSet.next()) {
+                int id = resultSet.getInt(1);
+                if (id >= codeById.length) {
+                    codeById = Arrays.copyOf(codeById, Math.max(id + 1, codeById.length * 2));
+                }
+                codeById[id] = store.getOrAddCity(resultSet.getString(2));
+            }
+            resultSet.getStatement().close();
+        }
+
+        try (ResultSet resultSet = database.query("SELECT from_city_id, to_city_id, from_date, to_date, price, nonstop FROM flights")) {
+            if (resultSet == null) {
+                return store;
+            }
+
+            resultSet.setFetchSize(4096);
+            while (resultSet.next()) {
+                store.add(codeById[resultSet.getInt(1)], codeById[resultSet.getInt(2)], resultSet.getInt(3), resultSet.getInt(4),
+                        toCents(resultSet.getDouble(5)), resultSet.getBoolean(6));
+            }
+            resultSet.getStatement().close();
+        }
+
+        return store;
+    }
+
+    private static int countFlights(SQLiteDatabase database) throws SQLException {
+        try (ResultSet resultSet = database.query("SELECT COUNT(*) FROM flights")) {
+            if (resultSet == null || !resultSet.next()) {
+                return 0;
+            }
+            int count = resultSet.getInt(1);
+            resultSet.getStatement().close();
+            return count;
+        }
+    }
+
+    /**
+     * Adds a flight.
+     * @param flight The flight to add.
+     * @return The row the flight was stored at.
+     */
+    public int add(Flight flight) {
+        return add(getOrAddCity(flight.getFromCity()), getOrAddCity(flight.getToCity()),
+                (int) flight.getFromDate().toEpochDay(), (int) flight.getToDate().toEpochDay(),
+                toCents(flight.getPrice()), flight.isNonstop());
+    }
+
+    /**
+     * Adds a fare by its column values.
+     * @param fromCity The departure city's code.
+     * @param toCity The destination city's code.
+     * @param fromDate The departure date as an epoch day.
+     * @param toDate The return date as an epoch day.
+     * @param priceCents The price in cents.
+     * @param isNonstop Whether the flight is nonstop.
+     * @return The row the fare was stored at.
+     */
+    public int add(int fromCity, int toCity, int fromDate, int toDate, long priceCents, boolean isNonstop) {
+        if (size == prices.length) {
+            grow();
+        }
+
+        fromCities[size] = fromCity;
+        toCities[size] = toCity;
+        fromDates[size] = fromDate;
+        toDates[size] = toDate;
+        prices[size] = priceCents;
+        nonstop.set(size, isNonstop);
+        return size++;
+    }
+
+    /**
+     * Returns the code of the given city, adding it to the dictionary if it is new.
+     * @param name The city name.
+     * @return The city's code.
+     */
+    public int getOrAddCity(String name) {
+        Integer code = cityCodes.get(name);
+        if (code != null) {
+            return code;
+        }
+
+        if (cityCount == cityNames.length) {
+            cityNames = Arrays.copyOf(cityNames, cityCount * 2);
+        }
+        cityNames[cityCount] = name;
+        cityCodes.put(name, cityCount);
+        return cityCount++;
+    }
+
+    /**
+     * @param name The city name.
+     * @return The city's code, or <code>ANY_CITY</code>'s value of -1 if the city is not in the store.
+     */
+    public int getCityCode(String name) {
+        return cityCodes.getOrDefault(name, ANY_CITY);
+    }
+
+    public String getCityName(int code) {
+        return cityNames[code];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int getFromCity(int row) {
+        return fromCities[row];
+    }
+
+    public int getToCity(int row) {
+        return toCities[row];
+    }
+
+    public int getFromDate(int row) {
+        return fromDates[row];
+    }
+
+    public int getToDate(int row) {
+        return toDates[row];
+    }
+
+    public long getPriceCents(int row) {
+        return prices[row];
+    }
+
+    public boolean isNonstop(int row) {
+        return nonstop.get(row);
+    }
+
+    /**
+     * Builds a <code>Flight</code> for one row, for handing a scan's result to code that expects one.
+     * @param row The row.
+     * @return The flight.
+     */
+    public Flight toFlight(int row) {
+        return new Flight(cityNames[fromCities[row]], cityNames[toCities[row]],
+                LocalDate.ofEpochDay(fromDates[row]), LocalDate.ofEpochDay(toDates[row]),
+                prices[row] / 100.0, nonstop.get(row));
+    }
+
+    /**
+     * Finds the cheapest fare matching a filter. The earliest row wins a tie.
+     * @param toCity The destination city's code, or <code>ANY_CITY</code>.
+     * @param nonstopOnly Whether to only match nonstop fares.
+     * @param fromDateMin The earliest departure epoch day, or <code>ANY_DATE_FROM</code>.
+     * @param fromDateMax The latest departure epoch day, or <code>ANY_DATE_TO</code>.
+     * @return The row of the cheapest matching fare, or -1 if none match.
+     */
+    public int indexOfCheapest(int toCity, boolean nonstopOnly, int fromDateMin, int fromDateMax) {
+        int cheapest = -1;
+        long cheapestPrice = Long.MAX_VALUE;
+
+        for (int row = 0; row < size; row++) {
+            if (prices[row] < cheapestPrice && matches(row, toCity, nonstopOnly, fromDateMin, fromDateMax)) {
+                cheapest = row;
+                cheapestPrice = prices[row];
+            }
+        }
+
+        return cheapest;
+    }
+
+    /**
+     * Counts the fares matching a filter. Parameters are as for <code>indexOfCheapest</code>.
+     * @return The number of matching fares.
+     */
+    public int count(int toCity, boolean nonstopOnly, int fromDateMin, int fromDateMax) {
+        int count = 0;
+        for (int row = 0; row < size; row++) {
+            if (matches(row, toCity, nonstopOnly, fromDateMin, fromDateMax)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Writes the rows of the fares matching a filter into the given array, in row order, stopping when it
+     * is full. Other parameters are as for <code>indexOfCheapest</code>.
+     * @param rows The array to write the matching rows into.
+     * @return The number of rows written.
+     */
+    public int select(int toCity, boolean nonstopOnly, int fromDateMin, int fromDateMax, int[] rows) {
+        int count = 0;
+        for (int row = 0; row < size && count < rows.length; row++) {
+            if (matches(row, toCity, nonstopOnly, fromDateMin, fromDateMax)) {
+                rows[count++] = row;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Returns a percentile of the prices of the fares matching a filter, using the nearest-rank method.
+     * Other parameters are as for <code>indexOfCheapest</code>.
+     * @param percentile The percentile, from 0 to 100.
+     * @return The price in cents, or -1 if no fares match.
+     */
+    public long getPercentileCents(int toCity, boolean nonstopOnly, int fromDateMin, int fromDateMax, double percentile) {
+        if (scratch.length < size) {
+            scratch = new long[prices.length];
+        }
+
+        int count = 0;
+        for (int row = 0; row < size; row++) {
+            if (matches(row, toCity, nonstopOnly, fromDateMin, fromDateMax)) {
+                scratch[count++] = prices[row];
+            }
+        }
+
+        if (count == 0) {
+            return -1;
+        }
+
+        int rank = (int) Math.max(1, Math.ceil(percentile / 100 * count));
+        return select(scratch, count, rank - 1);
+    }
+
+    /**
+     * @return The approximate number of bytes the columns take on the heap, not counting the city dictionary.
+     */
+    public long getColumnBytes() {
+        return (long) prices.length * (4 * Integer.BYTES + Long.BYTES) + nonstop.size() / 8 + (long) scratch.length * Long.BYTES;
+    }
+
+    private boolean matches(int row, int toCity, boolean nonstopOnly, int fromDateMin, int fromDateMax) {
+        return (toCity == ANY_CITY || toCities[row] == toCity)
+                && fromDates[row] >= fromDateMin && fromDates[row] <= fromDateMax
+                && (!nonstopOnly || nonstop.get(row));
+    }
+
+    private void grow() {
+        int capacity = prices.length * 2;
+        fromCities = Arrays.copyOf(fromCities, capacity);
+        toCities = Arrays.copyOf(toCities, capacity);
+        fromDates = Arrays.copyOf(fromDates, capacity);
+        toDates = Arrays.copyOf(toDates, capacity);
+        prices = Arrays.copyOf(prices, capacity);
+    }
+
+    // Quickselect: returns the k-th smallest of the first n values, reordering them in place
+    private static long select(long[] values, int n, int k) {
+        int left = 0, right = n - 1;
+
+        while (left < right) {
+            long pivot = values[(left + right) >>> 1];
+            int i = left, j = right;
+
+            while (i <= j) {
+                while (values[i] < pivot) i++;
+                while (values[j] > pivot) j--;
+                if (i <= j) {
+                    long swap = values[i];
+                    values[i++] = values[j];
+                    values[j--] = swap;
+                }
+            }
+
+            if (k <= j) {
+                right = j;
+            } else if (k >= i) {
+                left = i;
+            } else {
+                return values[k];
+            }
+        }
+
+        return values[k];
+    }
+
+    private static long toCents(double price) {
+        return Math.round(price * 100);
+    }
+}
@@ -0,0 +1,104 @@
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Timings and outcomes of search page fetches, shared by every backend that is given the same instance.
+ * Each fetch is split into navigating to the page, waiting for it to be ready and parsing it, and the
+ * number of result cards on each parsed page is kept too.
+ */
+public class FetchMetrics {
+    public enum Phase { NAVIGATE, WAIT, PARSE, TOTAL }
+
+    public enum Outcome {
+        /** The page showed result cards. */
+        RESULTS,
+        /** The page said there were no results. */
+        NO_RESULTS,
+        /** The page showed an error. */
+        ERROR_PAGE,
+        /** The page was not ready within its time budget. */
+        TIMEOUT,
+        /** The fetch failed in any other way. */
+        FAILED
+    }
+
+    private final Map<Phase, LatencyHistogram> histograms = new EnumMap<>(Phase.class);
+    private final Map<Outcome, AtomicLong> outcomes = new EnumMap<>(Outcome.class);
+    private final Histogram cardsPerPage = new Histogram();
+
+    public FetchMetrics() {
+        for (Phase phase : Phase.values()) {
+            histograms.put(phase, new LatencyHistogram());
+        }
+        for (Outcome outcome : Outcome.values()) {
+            outcomes.put(outcome, new AtomicLong());
+        }
+    }
+
+    public void record(Phase phase, long nanos) {
+        histograms.get(phase).record(nanos);
+    }
+
+    public void record(Outcome outcome) {
+        outcomes.get(outcome).incrementAndGet();
+    }
+
+    /**
+     * Records the number of result cards on a parsed page.
+     * @param cards The number of cards.
+     */
+    public void recordCards(int cards) {
+        cardsPerPage.record(cards);
+    }
+
+    public LatencyHistogram getHistogram(Phase phase) {
+        return histograms.get(phase);
+    }
+
+    public long getCount(Outcome outcome) {
+        return outcomes.get(outcome).get();
+    }
+
+    /**
+     * Returns the histogram of result cards per parsed page.
+     * @return The histogram.
+     */
+    public Histogram getCardsPerPage() {
+        return cardsPerPage;
+    }
+
+    /**
+     * Exposes these metrics through a registry, as <code>scrape_page_seconds</code> by phase,
+     * <code>scrape_page_outcomes_total</code> by outcome and <code>scrape_page_cards</code>.
+     * @param registry The registry.
+     */
+    public void register(MetricsRegistry registry) {
+        for (Phase phase : Phase.values()) {
+            registry.registerTimer("scrape_page_seconds", "Time spent loading search pages, by phase.", histograms.get(phase),
+                    "phase", phase.name().toLowerCase());
+        }
+        for (Outcome outcome : Outcome.values()) {
+            registry.registerCounter("scrape_page_outcomes_total", "Search page fetches, by outcome.", outcomes.get(outcome)::get,
+                    "outcome", outcome.name().toLowerCase());
+        }
+        registry.registerHistogram("scrape_page_cards", "Result cards per parsed search page.", cardsPerPage);
+    }
+
+    /**
+     * Returns one line per phase and one line of outcome counts, for printing at the end of a sweep.
+     * @return The summary.
+     */
+    public String summary() {
+        StringBuilder builder = new StringBuilder();
+        for (Phase phase : Phase.values()) {
+            builder.append(String.format("%-8s %s%n", phase.name().toLowerCase(), histograms.get(phase)));
+        }
+        builder.append(String.format("%-8s %s%n", "cards", cardsPerPage));
+        builder.append("outcomes");
+        for (Outcome outcome : Outcome.values()) {
+            builder.append(' ').append(outcome.name().toLowerCase()).append('=').append(outcomes.get(outcome).get());
+        }
+        return builder.toString();
+    }
+}
@@ -1,88 +1,143 @@
-import org.openqa.selenium.By;
-import org.openqa.selenium.JavascriptExecutor;
-import org.openqa.selenium.WebDriver;
-import org.openqa.selenium.WebElement;
-import org.openqa.selenium.chrome.ChromeDriver;
-import org.openqa.selenium.chrome.ChromeOptions;
-
-import java.time.Duration;
 import java.time.LocalDate;
 import java.time.format.DateTimeFormatter;
-import java.util.Collections;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Stream;
 
-public class FlightDataAPI implements AutoCloseable {
-    private final ChromeDriver driver;
-    private final DateTimeFormatter urlDateFormatter = DateTimeFormatter.ofPattern("yyyy-MM-dd");
+public class FlightDataAPI implements FlightSearcher {
+    static final String NONSTOP_FILTER = "&stops=0";
+    private static final DateTimeFormatter urlDateFormatter = DateTimeFormatter.ofPattern("yyyy-MM-dd");
+    private final FlightFetchBackend backend;
+
+    /** What the nonstop page of a route showed when its cheapest page had no nonstop cards. */
+    private enum DirectFlights { NONE, DEARER }
+
+    // By "from-to" route, learned by combined searches so that later dates of the route take one page load
+    private final Map<String, DirectFlights> directFlights = new ConcurrentHashMap<>();
 
     FlightDataAPI() {
-        ChromeOptions options = new ChromeOptions();
-        options.setExperimentalOption("excludeSwitches", Collections.singletonList("enable-automation"));
-        options.setExperimentalOption("useAutomationExtension", false);
-        options.addArguments("--disable-blink-features",
-                "--disable-blink-features=AutomationControlled",
-                "user-agent=Mozilla/5.0 (Windows NT 10.0; Win64; x64) AppleWebKit/537.36 (KHTML, like Gecko) Chrome/131.0.0.0 Safari/537.36");
-        driver = new ChromeDriver(options);
-        Map<String, Object> params = new HashMap<>();
-        params.put("source", """
-    Object.defineProperty(Navigator.prototype, 'webdriver', {
-        set: undefined,
-        enumerable: true,
-        configurable: true,
-        get: new Proxy(
-            Object.getOwnPropertyDescriptor(Navigator.prototype, 'webdriver').get,
-            { apply: (target, thisArg, args) => {
-                Reflect.apply(target, thisArg, args);
-                return false;
-            }}
-        )
-    });
-""");
-        driver.executeCdpCommand("Page.addScriptToEvaluateOnNewDocument", params);
-        driver.manage().timeouts().implicitlyWait(Duration.ofSeconds(20));
+        this(new SeleniumBackend());
+    }
+
+    FlightDataAPI(FlightFetchBackend backend) {
+        this.backend = backend;
     }
 
+    @Override
     public List<Flight> getRoundTripNonstopEconomyFlights(String fromCity, String toCity, LocalDate fromDate, LocalDate toDate) {
-        driver.get(buildUrl(fromCity, toCity, fromDate, toDate, "&stops=0"));
+        SearchPage page = backend.fetch(buildUrl(fromCity, toCity, fromDate, toDate, NONSTOP_FILTER));
+        return toNonstopFlights(page, fromCity, toCity, fromDate, toDate);
+    }
 
-        List<Flight> flights = findFlightsOnPage(driver, fromCity, toCity, fromDate, toDate);
+    @Override
+    public List<Flight> getRoundTripEconomyFlights(String fromCity, String toCity, LocalDate fromDate, LocalDate toDate) {
+        SearchPage page = backend.fetch(buildUrl(fromCity, toCity, fromDate, toDate, ""));
+        return toFlights(page, fromCity, toCity, fromDate, toDate);
+    }
 
-        if (!driver.findElements(By.cssSelector("[data-testid=\"no_direct_flights_banner\"]")).isEmpty())
-        {
-            return List.of();
+    /**
+     * Searches a route and date with one page load where possible, splitting the flights found into nonstop
+     * flights and every flight. Usually only the unfiltered page is loaded, which is sorted cheapest first, so
+     * its cheapest nonstop flight is on it if any of its cards are nonstop. If none are, the first search of
+     * the route also loads its nonstop page and remembers what it showed:
+     * <ul>
+     *     <li>no direct flights, so later dates of the route only load the unfiltered page;</li>
+     *     <li>direct flights dearer than every card on the unfiltered page, so later dates load the nonstop page
+     *     first and only load the unfiltered page if it has no nonstop flights.</li>
+     * </ul>
+     * Nonstop flights dearer than the last card of the unfiltered page are not found when that page has a
+     * nonstop card, and a route's direct flights are not looked for again once it is known to have none.
+     */
+    @Override
+    public FlightSearchResult searchRoundTripEconomyFlights(String fromCity, String toCity, LocalDate fromDate, LocalDate toDate) {
+        String route = fromCity + "-" + toCity;
+        if (directFlights.get(route) == DirectFlights.DEARER) {
+            List<Flight> nonstopFlights = getRoundTripNonstopEconomyFlights(fromCity, toCity, fromDate, toDate);
+            if (!nonstopFlights.isEmpty()) {
+                return FlightSearchResult.of(nonstopFlights);
+            }
         }
 
-        return flights;
+        List<Flight> flights = getRoundTripEconomyFlights(fromCity, toCity, fromDate, toDate);
+        if (flights.stream().anyMatch(Flight::isNonstop)) {
+            directFlights.remove(route);
+            return FlightSearchResult.of(flights);
+        }
+        if (directFlights.containsKey(route)) {
+            return FlightSearchResult.of(flights);
+        }
+        return learnDirectFlights(route, flights, getRoundTripNonstopEconomyFlights(fromCity, toCity, fromDate, toDate));
     }
 
-    public List<Flight> getRoundTripEconomyFlights(String fromCity, String toCity, LocalDate fromDate, LocalDate toDate) {
-        driver.get(buildUrl(fromCity, toCity, fromDate, toDate, ""));
-        return findFlightsOnPage(driver, fromCity, toCity, fromDate, toDate);
+    public CompletableFuture<List<Flight>> getRoundTripNonstopEconomyFlightsAsync(String fromCity, String toCity, LocalDate fromDate, LocalDate toDate) {
+        return backend.fetchAsync(buildUrl(fromCity, toCity, fromDate, toDate, NONSTOP_FILTER))
+                .thenApply(page -> toNonstopFlights(page, fromCity, toCity, fromDate, toDate));
+    }
+
+    public CompletableFuture<List<Flight>> getRoundTripEconomyFlightsAsync(String fromCity, String toCity, LocalDate fromDate, LocalDate toDate) {
+        return backend.fetchAsync(buildUrl(fromCity, toCity, fromDate, toDate, ""))
+                .thenApply(page -> toFlights(page, fromCity, toCity, fromDate, toDate));
+    }
+
+    /**
+     * Does what <code>searchRoundTripEconomyFlights</code> does without blocking the caller.
+     */
+    public CompletableFuture<FlightSearchResult> searchRoundTripEconomyFlightsAsync(String fromCity, String toCity, LocalDate fromDate, LocalDate toDate) {
+        String route = fromCity + "-" + toCity;
+        if (directFlights.get(route) == DirectFlights.DEARER) {
+            return getRoundTripNonstopEconomyFlightsAsync(fromCity, toCity, fromDate, toDate).thenCompose(nonstopFlights -> nonstopFlights.isEmpty()
+                    ? searchUnfilteredFirstAsync(route, fromCity, toCity, fromDate, toDate)
+                    : CompletableFuture.completedFuture(FlightSearchResult.of(nonstopFlights)));
+        }
+        return searchUnfilteredFirstAsync(route, fromCity, toCity, fromDate, toDate);
+    }
+
+    private CompletableFuture<FlightSearchResult> searchUnfilteredFirstAsync(String route, String fromCity, String toCity, LocalDate fromDate, LocalDate toDate) {
+        return getRoundTripEconomyFlightsAsync(fromCity, toCity, fromDate, toDate).thenCompose(flights -> {
+            if (flights.stream().anyMatch(Flight::isNonstop)) {
+                directFlights.remove(route);
+                return CompletableFuture.completedFuture(FlightSearchResult.of(flights));
+            }
+            if (directFlights.containsKey(route)) {
+                return CompletableFuture.completedFuture(FlightSearchResult.of(flights));
+            }
+            return getRoundTripNonstopEconomyFlightsAsync(fromCity, toCity, fromDate, toDate)
+                    .thenApply(nonstopFlights -> learnDirectFlights(route, flights, nonstopFlights));
+        });
+    }
+
+    private FlightSearchResult learnDirectFlights(String route, List<Flight> flights, List<Flight> nonstopFlights) {
+        if (nonstopFlights.isEmpty()) {
+            directFlights.put(route, DirectFlights.NONE);
+            return FlightSearchResult.of(flights);
+        }
+        directFlights.put(route, DirectFlights.DEARER);
+        return FlightSearchResult.of(Stream.concat(nonstopFlights.stream(), flights.stream()).toList());
+    }
+
+    private static List<Flight> toNonstopFlights(SearchPage page, String fromCity, String toCity, LocalDate fromDate, LocalDate toDate) {
+        if (page.noDirectFlights()) {
+            return List.of();
+        }
+
+        return toFlights(page, fromCity, toCity, fromDate, toDate);
     }
 
-    private List<Flight> findFlightsOnPage(WebDriver driver, String fromCity, String toCity, LocalDate fromDate, LocalDate toDate) {
-        return driver.findElements(By.cssSelector("[data-testid=\"searchresults_card\"]"))
+    private static List<Flight> toFlights(SearchPage page, String fromCity, String toCity, LocalDate fromDate, LocalDate toDate) {
+        return page.cards()
                 .stream()
-                .map(p -> {
-                    WebElement priceElement = p.findElement(By.cssSelector("[class*=FlightCardPrice-module__priceContainer]"));
-                    double price = Double.parseDouble(priceElement.getText().replaceAll("[$,]", ""));
-                    WebElement fromStopsElement = p.findElement(By.cssSelector("[data-testid=flight_card_segment_stops_0]"));
-                    WebElement toStopsElement = p.findElement(By.cssSelector("[data-testid=flight_card_segment_stops_1]"));
-                    int fromStops = fromStopsElement.getText().equals("Direct") ? 0 : Integer.parseInt(fromStopsElement.getText().split(" ")[0]);
-                    int toStops = toStopsElement.getText().equals("Direct") ? 0 : Integer.parseInt(toStopsElement.getText().split(" ")[0]);
-                    return new Flight(fromCity, toCity, fromDate, toDate, price, fromStops == 0 && toStops == 0);
-                })
+                .map(card -> new Flight(fromCity, toCity, fromDate, toDate, card.price(), card.isNonstop()))
                 .toList();
     }
 
-    String buildUrl(String fromCity, String toCity, LocalDate fromDate, LocalDate toDate, String filters) {
+    static String buildUrl(String fromCity, String toCity, LocalDate fromDate, LocalDate toDate, String filters) {
         return "https://flights.booking.com/flights/"+fromCity+".CITY-"+toCity+".CITY/?type=ROUNDTRIP&adults=1&cabinClass=ECONOMY&children=&from="+fromCity+".CITY&to="+toCity+".CITY&depart="+fromDate.format(urlDateFormatter)+"&return="+toDate.format(urlDateFormatter)+"&sort=CHEAPEST&travelPurpose=leisure" + filters;
     }
 
     @Override
     public void close() {
-        driver.quit();
+        backend.close();
     }
 }
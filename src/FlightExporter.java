@@ -0,0 +1,370 @@
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Exports the flights table to a compact, compressed, column-oriented file for offline analysis, and
+ * reads such files back.
+ * <p>
+ * A file is an 8 byte header (<code>MAGIC</code> and <code>FORMAT_VERSION</code>) followed by row groups
+ * of up to <code>rowGroupSize</code> flights in id order. A row group is its length, row count, first and
+ * last flight id, then seven deflated blocks, each prefixed by its raw and compressed lengths:
+ * <ol>
+ *     <li>the cities used in the group, as (city id, UTF-8 name) pairs;</li>
+ *     <li>from city ids;</li>
+ *     <li>to city ids;</li>
+ *     <li>departure dates as deltas between consecutive epoch days;</li>
+ *     <li>trip lengths in days;</li>
+ *     <li>prices in cents as deltas between consecutive prices;</li>
+ *     <li>nonstop flags as a packed bitset.</li>
+ * </ol>
+ * Every number except the bitset is a zigzag varint (see <code>Varints</code>), and every block can be
+ * skipped without decoding it. Exports are incremental: the last flight id in the file is read from the
+ * row group headers, and only newer flights are appended. Flight ids are never reused, so this also
+ * works across runs that clear the flights table. Row groups are written through memory-mapped buffers.
+ * <p>
+ * An export file is an append-only archive of every flight ever saved, not a mirror of the flights table.
+ * Flights that a rescrape replaced or a cleared run deleted stay in the file, followed by the flights that
+ * replaced them, since a rescrape saves its flights under new ids, and nothing marks which rows are
+ * current. Read the flights table rather than an export for the current fares.
+ */
+public class FlightExporter {
+    static final int MAGIC = 0x464C5458; // "FLTX"
+    static final int FORMAT_VERSION = 1;
+    public static final int DEFAULT_ROW_GROUP_SIZE = 65_536;
+
+    private static final int FILE_HEADER_BYTES = 8;
+    private static final int GROUP_HEADER_BYTES = Integer.BYTES * 2 + Long.BYTES * 2;
+    private static final int FETCH_SIZE = 4096;
+    private static final String SELECT_NEW_FLIGHTS = "SELECT id, from_city_id, to_city_id, from_date, to_date, price, nonstop " +
+            "FROM flights WHERE id > ? ORDER BY id";
+
+    private final SQLiteDatabase database;
+    private final int rowGroupSize;
+    private final long[] ids, prices;
+    private final int[] fromCities, toCities, fromDates, toDates;
+    private final byte[] nonstop;
+    private final Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION);
+    private byte[] deflateBuffer = new byte[64 * 1024];
+
+    /**
+     * Constructs a <code>FlightExporter</code>.
+     * @param database The database to export from, at the current <code>FlightSchema</code> version.
+     * @param rowGroupSize The maximum number of flights per row group, which bounds the memory an export uses.
+     */
+    public FlightExporter(SQLiteDatabase database, int rowGroupSize) {
+        if (rowGroupSize < 1) {
+            throw new IllegalArgumentException("rowGroupSize must be positive");
+        }
+
+        this.database = database;
+        this.rowGroupSize = rowGroupSize;
+        this.ids = new long[rowGroupSize];
+        this.prices = new long[rowGroupSize];
+        this.fromCities = new int[rowGroupSize];
+        this.toCities = new int[rowGroupSize];
+        this.fromDates = new int[rowGroupSize];
+        this.toDates = new int[rowGroupSize];
+        this.nonstop = new byte[(rowGroupSize + 7) / 8];
+    }
+
+    /**
+     * Appends every flight newer than the last one in the file, creating the file if it does not exist.
+     * Flights already in the file are kept even if they have since been replaced or deleted.
+     * A row group left incomplete by an interrupted export is discarded and written again.
+     * @param file The file to export to.
+     * @return The number of flights appended.
+     * @throws IOException If the file cannot be written or is not an export file.
+     */
+    public long export(Path file) throws IOException, SQLException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            long lastId = prepare(channel);
+            Map<Integer, byte[]> cityNames = loadCityNames();
+            long exported = 0;
+            int count = 0;
+
+            try (ResultSet resultSet = database.queryPrepared(SELECT_NEW_FLIGHTS, lastId)) {
+                if (resultSet == null) {
+                    return 0; // The database's error handler has already been told why
+                }
+
+                resultSet.setFetchSize(FETCH_SIZE);
+                while (resultSet.next()) {
+                    ids[count] = resultSet.getLong(1);
+                    fromCities[count] = resultSet.getInt(2);
+                    toCities[count] = resultSet.getInt(3);
+                    fromDates[count] = resultSet.getInt(4);
+                    toDates[count] = resultSet.getInt(5);
+                    prices[count] = Math.round(resultSet.getDouble(6) * 100);
+                    setNonstop(count, resultSet.getBoolean(7));
+
+                    if (++count == rowGroupSize) {
+                        writeRowGroup(channel, count, cityNames);
+                        exported += count;
+                        count = 0;
+                    }
+                }
+            }
+
+            if (count > 0) {
+                writeRowGroup(channel, count, cityNames);
+                exported += count;
+            }
+
+            return exported;
+        }
+    }
+
+    /**
+     * Reads every flight in an export file, in id order.
+     * @param file The file to read.
+     * @param consumer Called with each flight.
+     * @return The number of flights read.
+     * @throws IOException If the file cannot be read, is not an export file or is truncated.
+     */
+    public static long read(Path file, Consumer<Flight> consumer) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            readFileHeader(channel);
+            long position = FILE_HEADER_BYTES, rows = 0;
+            Inflater inflater = new Inflater();
+
+            while (position < channel.size()) {
+                int length = readGroupLength(channel, position);
+                if (length < 0) {
+                    throw new IOException("Truncated row group at byte " + position + " of " + file);
+                }
+
+                MappedByteBuffer group = channel.map(FileChannel.MapMode.READ_ONLY, position + Integer.BYTES, length);
+                rows += readRowGroup(group, inflater, consumer);
+                position += Integer.BYTES + length;
+            }
+
+            inflater.end();
+            return rows;
+        }
+    }
+
+    // Writes the header of a new file, or checks an existing one and returns its last flight id
+    private static long prepare(FileChannel channel) throws IOException {
+        if (channel.size() == 0) {
+            ByteBuffer header = ByteBuffer.allocate(FILE_HEADER_BYTES).putInt(MAGIC).putInt(FORMAT_VERSION).flip();
+            channel.write(header, 0);
+            return 0;
+        }
+
+        readFileHeader(channel);
+        long position = FILE_HEADER_BYTES, lastId = 0;
+
+        while (position < channel.size()) {
+            int length = readGroupLength(channel, position);
+            if (length < 0) {
+                break;
+            }
+
+            ByteBuffer ids = ByteBuffer.allocate(Long.BYTES * 2);
+            channel.read(ids, position + Integer.BYTES * 2);
+            lastId = ids.getLong(Long.BYTES);
+            position += Integer.BYTES + length;
+        }
+
+        channel.truncate(position);
+        return lastId;
+    }
+
+    private static void readFileHeader(FileChannel channel) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(FILE_HEADER_BYTES);
+        if (channel.read(header, 0) != FILE_HEADER_BYTES || header.getInt(0) != MAGIC) {
+            throw new IOException("Not a flight export file");
+        }
+        if (header.getInt(Integer.BYTES) != FORMAT_VERSION) {
+            throw new IOException("Unsupported flight export format version " + header.getInt(Integer.BYTES));
+        }
+    }
+
+    // Returns the length of the row group at the given position, or -1 if it is incomplete
+    private static int readGroupLength(FileChannel channel, long position) throws IOException {
+        ByteBuffer length = ByteBuffer.allocate(Integer.BYTES);
+        if (channel.read(length, position) != Integer.BYTES) {
+            return -1;
+        }
+
+        int groupLength = length.getInt(0);
+        return groupLength >= GROUP_HEADER_BYTES - Integer.BYTES && position + Integer.BYTES + groupLength <= channel.size() ? groupLength : -1;
+    }
+
+    private Map<Integer, byte[]> loadCityNames() throws SQLException {
+        Map<Integer, byte[]> names = new HashMap<>();
+        try (ResultSet resultSet = database.query("SELECT id, name FROM cities")) {
+            if (resultSet == null) {
+                return names;
+            }
+            while (resultSet.next()) {
+                names.put(resultSet.getInt(1), resultSet.getString(2).getBytes(StandardCharsets.UTF_8));
+            }
+            resultSet.getStatement().close();
+        }
+        return names;
+    }
+
+    private void setNonstop(int row, boolean value) {
+        if (value) {
+            nonstop[row >> 3] |= (byte) (1 << (row & 7));
+        } else {
+            nonstop[row >> 3] &= (byte) ~(1 << (row & 7));
+        }
+    }
+
+    private void writeRowGroup(FileChannel channel, int count, Map<Integer, byte[]> cityNames) throws IOException {
+        ByteArrayOutputStream payload = new ByteArrayOutputStream();
+        ByteArrayOutputStream column = new ByteArrayOutputStream(count * 2);
+
+        // Dictionary of the cities this group uses
+        int[] cityIds = new int[0];
+        for (int i = 0; i < count; i++) {
+            cityIds = addCity(cityIds, fromCities[i]);
+            cityIds = addCity(cityIds, toCities[i]);
+        }
+        Varints.writeZigzag(column, cityIds.length);
+        for (int cityId : cityIds) {
+            byte[] name = cityNames.getOrDefault(cityId, new byte[0]);
+            Varints.writeZigzag(column, cityId);
+            Varints.writeZigzag(column, name.length);
+            column.writeBytes(name);
+        }
+        writeBlock(payload, column);
+
+        for (int i = 0; i < count; i++) {
+            Varints.writeZigzag(column, fromCities[i]);
+        }
+        writeBlock(payload, column);
+
+        for (int i = 0; i < count; i++) {
+            Varints.writeZigzag(column, toCities[i]);
+        }
+        writeBlock(payload, column);
+
+        for (int i = 0, previous = 0; i < count; i++) {
+            Varints.writeZigzag(column, fromDates[i] - previous);
+            previous = fromDates[i];
+        }
+        writeBlock(payload, column);
+
+        for (int i = 0; i < count; i++) {
+            Varints.writeZigzag(column, toDates[i] - fromDates[i]);
+        }
+        writeBlock(payload, column);
+
+        long previousPrice = 0;
+        for (int i = 0; i < count; i++) {
+            Varints.writeZigzag(column, prices[i] - previousPrice);
+            previousPrice = prices[i];
+        }
+        writeBlock(payload, column);
+
+        column.write(nonstop, 0, (count + 7) / 8);
+        writeBlock(payload, column);
+
+        int length = GROUP_HEADER_BYTES - Integer.BYTES + payload.size();
+        long position = channel.size();
+        MappedByteBuffer group = channel.map(FileChannel.MapMode.READ_WRITE, position, Integer.BYTES + length);
+        group.putInt(length).putInt(count).putLong(ids[0]).putLong(ids[count - 1]).put(payload.toByteArray());
+        group.force();
+    }
+
+    private static int[] addCity(int[] cityIds, int cityId) {
+        for (int id : cityIds) {
+            if (id == cityId) {
+                return cityIds;
+            }
+        }
+        int[] added = Arrays.copyOf(cityIds, cityIds.length + 1);
+        added[cityIds.length] = cityId;
+        return added;
+    }
+
+    // Deflates the column into the payload, prefixed by its raw and compressed lengths, and empties it
+    private void writeBlock(ByteArrayOutputStream payload, ByteArrayOutputStream column) {
+        byte[] raw = column.toByteArray();
+        deflater.reset();
+        deflater.setInput(raw);
+        deflater.finish();
+
+        int compressed = 0;
+        while (true) {
+            compressed += deflater.deflate(deflateBuffer, compressed, deflateBuffer.length - compressed);
+            if (deflater.finished()) {
+                break;
+            }
+            deflateBuffer = Arrays.copyOf(deflateBuffer, deflateBuffer.length * 2);
+        }
+
+        payload.writeBytes(ByteBuffer.allocate(Integer.BYTES * 2).putInt(raw.length).putInt(compressed).array());
+        payload.write(deflateBuffer, 0, compressed);
+        column.reset();
+    }
+
+    private static int readRowGroup(ByteBuffer group, Inflater inflater, Consumer<Flight> consumer) throws IOException {
+        int count = group.getInt();
+        group.getLong(); // First and last id, only needed when appending
+        group.getLong();
+
+        byte[] dictionary = readBlock(group, inflater);
+        Map<Integer, String> cityNames = new HashMap<>();
+        int[] position = { 0 };
+        for (long i = Varints.readZigzag(dictionary, position); i > 0; i--) {
+            int cityId = (int) Varints.readZigzag(dictionary, position);
+            int length = (int) Varints.readZigzag(dictionary, position);
+            cityNames.put(cityId, new String(dictionary, position[0], length, StandardCharsets.UTF_8));
+            position[0] += length;
+        }
+
+        byte[] fromCities = readBlock(group, inflater), toCities = readBlock(group, inflater), fromDates = readBlock(group, inflater);
+        byte[] tripLengths = readBlock(group, inflater), prices = readBlock(group, inflater), nonstop = readBlock(group, inflater);
+        int[] fromCity = { 0 }, toCity = { 0 }, fromDate = { 0 }, tripLength = { 0 }, price = { 0 };
+        long day = 0, cents = 0;
+
+        for (int row = 0; row < count; row++) {
+            day += Varints.readZigzag(fromDates, fromDate);
+            cents += Varints.readZigzag(prices, price);
+            consumer.accept(new Flight(
+                    cityNames.get((int) Varints.readZigzag(fromCities, fromCity)), cityNames.get((int) Varints.readZigzag(toCities, toCity)),
+                    LocalDate.ofEpochDay(day), LocalDate.ofEpochDay(day + Varints.readZigzag(tripLengths, tripLength)),
+                    cents / 100.0, (nonstop[row >> 3] & (1 << (row & 7))) != 0
+            ));
+        }
+
+        return count;
+    }
+
+    private static byte[] readBlock(ByteBuffer group, Inflater inflater) throws IOException {
+        int rawLength = group.getInt(), compressedLength = group.getInt();
+        byte[] compressed = new byte[compressedLength], raw = new byte[rawLength];
+        group.get(compressed);
+
+        inflater.reset();
+        inflater.setInput(compressed);
+        try {
+            if (inflater.inflate(raw) != rawLength) {
+                throw new IOException("Corrupt block in flight export");
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("Corrupt block in flight export", e);
+        }
+        return raw;
+    }
+}
@@ -0,0 +1,26 @@
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Loads a search results page for <code>FlightDataAPI</code> and turns it into <code>FareCard</code>s.
+ */
+public interface FlightFetchBackend extends AutoCloseable {
+    /**
+     * Loads and parses the search results page at the given URL, blocking until it is done.
+     * @param url The page URL, as built by <code>FlightDataAPI.buildUrl</code>.
+     * @return The parsed page.
+     */
+    SearchPage fetch(String url);
+
+    /**
+     * Loads and parses the search results page at the given URL without blocking the caller.
+     * Backends that cannot run requests concurrently simply run the request on a virtual thread of its own.
+     * @param url The page URL, as built by <code>FlightDataAPI.buildUrl</code>.
+     * @return A future completed with the parsed page.
+     */
+    default CompletableFuture<SearchPage> fetchAsync(String url) {
+        return CompletableFuture.supplyAsync(() -> fetch(url), Thread::startVirtualThread);
+    }
+
+    @Override
+    void close();
+}
@@ -0,0 +1,275 @@
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.stream.Stream;
+
+/**
+ * Creates and migrates the flights schema, tracking the current version in <code>PRAGMA user_version</code>.
+ * <p>
+ * Version 1 stores cities once in a <code>cities</code> table and refers to them by integer id, stores
+ * dates as epoch days, and indexes flights so that cheapest-per-route and date-range queries are index
+ * seeks. The <code>flight_details</code> view exposes the same columns as the original text-only table.
+ * <p>
+ * Version 2 removes duplicate flights, makes every column but the id a unique natural key, and adds the
+ * <code>scrape_checkpoints</code> table recording which searches have been saved.
+ * <p>
+ * Version 3 adds the append-only <code>price_history</code> table used by <code>PriceHistory</code>,
+ * which is never cleared between runs.
+ * <p>
+ * Version 4 adds the <code>scrape_queue</code> and <code>scrape_dead_letters</code> tables used by
+ * <code>ScrapeQueue</code>.
+ * <p>
+ * Version 5 adds the <code>scrape_cache</code> table used by <code>ScrapeCache</code>, keeping the
+ * rows of a table created before it was part of the schema.
+ */
+public final class FlightSchema {
+    public static final int VERSION = 5;
+
+    /**
+     * Inserts a flight unless an identical one is already stored. Parameters are the from city name,
+     * to city name, from epoch day, to epoch day, price and nonstop flag. Both cities must already have
+     * been added with <code>addCities</code>.
+     */
+    public static final String INSERT_FLIGHT = "INSERT INTO flights (from_city_id, to_city_id, from_date, to_date, price, nonstop) " +
+            "VALUES ((SELECT id FROM cities WHERE name = ?), (SELECT id FROM cities WHERE name = ?), ?, ?, ?, ?) " +
+            "ON CONFLICT (from_city_id, to_city_id, from_date, to_date, nonstop, price) DO NOTHING";
+
+    /**
+     * Deletes every flight found by one search. Parameters are the from city name, to city name,
+     * from epoch day and to epoch day.
+     */
+    public static final String DELETE_SEARCH_FLIGHTS = "DELETE FROM flights " +
+            "WHERE from_city_id = (SELECT id FROM cities WHERE name = ?) AND to_city_id = (SELECT id FROM cities WHERE name = ?) " +
+            "AND from_date = ? AND to_date = ?";
+
+    /**
+     * Records that a search has been saved. Parameters are the from city name, to city name,
+     * from epoch day, to epoch day and the completion time in epoch milliseconds.
+     */
+    public static final String INSERT_CHECKPOINT = "INSERT OR REPLACE INTO scrape_checkpoints (from_city_id, to_city_id, from_date, to_date, completed_at) " +
+            "VALUES ((SELECT id FROM cities WHERE name = ?), (SELECT id FROM cities WHERE name = ?), ?, ?, ?)";
+
+    /**
+     * Selects every flight with the columns <code>flightMapper</code> reads, ordered by id.
+     */
+    public static final String SELECT_FLIGHTS = "SELECT fc.name AS from_city, tc.name AS to_city, f.from_date, f.to_date, f.price, f.nonstop " +
+            "FROM flights f JOIN cities fc ON fc.id = f.from_city_id JOIN cities tc ON tc.id = f.to_city_id ORDER BY f.id";
+
+    private static final String CREATE_CITIES = "CREATE TABLE cities (id INTEGER PRIMARY KEY, name TEXT NOT NULL UNIQUE)";
+
+    private static final String CREATE_FLIGHTS = "CREATE TABLE %s (id INTEGER PRIMARY KEY AUTOINCREMENT, " +
+            "from_city_id INTEGER NOT NULL REFERENCES cities (id), to_city_id INTEGER NOT NULL REFERENCES cities (id), " +
+            "from_date INTEGER NOT NULL, to_date INTEGER NOT NULL, " +
+            "nonstop INTEGER NOT NULL, " +
+            "price REAL NOT NULL)";
+
+    private static final String[] CREATE_INDEXES_AND_VIEWS = {
+            // Covers the cheapest-per-route query: MIN(price) per (to_city_id, nonstop) plus the bare columns it returns
+            "CREATE INDEX flights_route_price ON flights (to_city_id, nonstop, price, from_city_id, from_date, to_date)",
+            "CREATE INDEX flights_route_date ON flights (to_city_id, from_date, to_date, price)",
+            "CREATE VIEW flight_details AS SELECT f.id, fc.name AS from_city, tc.name AS to_city, " +
+                    "date(f.from_date * 86400, 'unixepoch') AS from_date, date(f.to_date * 86400, 'unixepoch') AS to_date, " +
+                    "f.nonstop, f.price " +
+                    "FROM flights f JOIN cities fc ON fc.id = f.from_city_id JOIN cities tc ON tc.id = f.to_city_id",
+            "PRAGMA user_version = 1"
+    };
+
+    private static final String[] ADD_NATURAL_KEY_AND_CHECKPOINTS = {
+            // Keep the first of every set of identical flights
+            "DELETE FROM flights WHERE id NOT IN " +
+                    "(SELECT MIN(id) FROM flights GROUP BY from_city_id, to_city_id, from_date, to_date, nonstop, price)",
+            "CREATE UNIQUE INDEX flights_natural_key ON flights (from_city_id, to_city_id, from_date, to_date, nonstop, price)",
+            "CREATE TABLE scrape_checkpoints (from_city_id INTEGER NOT NULL REFERENCES cities (id), " +
+                    "to_city_id INTEGER NOT NULL REFERENCES cities (id), " +
+                    "from_date INTEGER NOT NULL, to_date INTEGER NOT NULL, completed_at INTEGER NOT NULL, " +
+                    "PRIMARY KEY (from_city_id, to_city_id, from_date, to_date)) WITHOUT ROWID",
+            "PRAGMA user_version = 2"
+    };
+
+    private static final String[] ADD_PRICE_HISTORY = {
+            // One row per chunk of observations of one itinerary, see PriceHistory for the data format
+            "CREATE TABLE price_history (from_city_id INTEGER NOT NULL REFERENCES cities (id), " +
+                    "to_city_id INTEGER NOT NULL REFERENCES cities (id), " +
+                    "from_date INTEGER NOT NULL, to_date INTEGER NOT NULL, nonstop INTEGER NOT NULL, " +
+                    "first_observed INTEGER NOT NULL, last_observed INTEGER NOT NULL, last_price INTEGER NOT NULL, " +
+                    "observations INTEGER NOT NULL, data BLOB NOT NULL, " +
+                    "PRIMARY KEY (from_city_id, to_city_id, from_date, to_date, nonstop, first_observed)) WITHOUT ROWID",
+            "PRAGMA user_version = 3"
+    };
+
+    private static final String[] ADD_SCRAPE_QUEUE = {
+            // Lower priorities are scraped first, and a task that failed waits until not_before (epoch milliseconds)
+            "CREATE TABLE scrape_queue (from_city_id INTEGER NOT NULL REFERENCES cities (id), " +
+                    "to_city_id INTEGER NOT NULL REFERENCES cities (id), " +
+                    "from_date INTEGER NOT NULL, to_date INTEGER NOT NULL, priority INTEGER NOT NULL, " +
+                    "attempts INTEGER NOT NULL DEFAULT 0, not_before INTEGER NOT NULL DEFAULT 0, last_error TEXT, " +
+                    "PRIMARY KEY (from_city_id, to_city_id, from_date, to_date)) WITHOUT ROWID",
+            "CREATE INDEX scrape_queue_ready ON scrape_queue (priority, not_before)",
+            "CREATE TABLE scrape_dead_letters (from_city_id INTEGER NOT NULL REFERENCES cities (id), " +
+                    "to_city_id INTEGER NOT NULL REFERENCES cities (id), " +
+                    "from_date INTEGER NOT NULL, to_date INTEGER NOT NULL, attempts INTEGER NOT NULL, " +
+                    "last_error TEXT NOT NULL, failed_at INTEGER NOT NULL, " +
+                    "PRIMARY KEY (from_city_id, to_city_id, from_date, to_date)) WITHOUT ROWID",
+            "PRAGMA user_version = 4"
+    };
+
+    private static final String[] ADD_SCRAPE_CACHE = {
+            // Keyed by search URL, with fetched_at in epoch milliseconds, see ScrapeCache for the results format.
+            // ScrapeCache used to create the table itself, so a version 4 database may already have it
+            "CREATE TABLE IF NOT EXISTS scrape_cache (url TEXT PRIMARY KEY, fetched_at INTEGER NOT NULL, results TEXT NOT NULL)",
+            "CREATE INDEX IF NOT EXISTS scrape_cache_fetched_at ON scrape_cache (fetched_at)",
+            "PRAGMA user_version = 5"
+    };
+
+    private FlightSchema() {
+    }
+
+    /**
+     * Brings the given database up to the current schema version. A database with no flights table
+     * gets a fresh schema, and a database with the original text-only flights table is migrated in
+     * place, keeping the first of every set of identical rows along with its id. Each version step runs
+     * in its own transaction.
+     * @param database The database to migrate, which must be writable.
+     * @return Whether the database is now at the current schema version.
+     */
+    public static boolean migrate(SQLiteDatabase database) {
+        int version = getVersion(database);
+
+        if (version == 0) {
+            boolean migrated = hasTable(database, "flights") ? migrateFromText(database) : create(database);
+            if (!migrated) {
+                return false;
+            }
+            version = 1;
+        }
+
+        if (version == 1) {
+            if (!database.updateInTransaction(ADD_NATURAL_KEY_AND_CHECKPOINTS)) {
+                return false;
+            }
+            version = 2;
+        }
+
+        if (version == 2) {
+            if (!database.updateInTransaction(ADD_PRICE_HISTORY)) {
+                return false;
+            }
+            version = 3;
+        }
+
+        if (version == 3) {
+            if (!database.updateInTransaction(ADD_SCRAPE_QUEUE)) {
+                return false;
+            }
+            version = 4;
+        }
+
+        if (version == 4) {
+            if (!database.updateInTransaction(ADD_SCRAPE_CACHE)) {
+                return false;
+            }
+            version = 5;
+        }
+
+        return version == VERSION;
+    }
+
+    /**
+     * Adds the given cities to the <code>cities</code> table, ignoring any that already exist.
+     * @param database The database to add the cities to.
+     * @param names The city names.
+     */
+    public static void addCities(SQLiteDatabase database, String... names) {
+        try (SQLiteDatabase.Batch batch = database.batch("INSERT OR IGNORE INTO cities (name) VALUES (?)", names.length + 1, 60_000)) {
+            for (String name : names) {
+                batch.add(name);
+            }
+        }
+    }
+
+    /**
+     * Streams every stored flight in constant memory. See <code>SQLiteDatabase.stream</code> for when
+     * the underlying statement is closed.
+     * @param database The database to read from.
+     * @return The flights, in the order they were saved.
+     */
+    public static Stream<Flight> streamFlights(SQLiteDatabase database) {
+        return database.stream(SELECT_FLIGHTS, flightMapper());
+    }
+
+    /**
+     * Returns a mapper from rows with <code>from_city</code>, <code>to_city</code>, <code>from_date</code>,
+     * <code>to_date</code> (as epoch days), <code>price</code> and <code>nonstop</code> columns to flights.
+     * The mapper looks the columns up on its first row, so use a new one for each query.
+     * @return The mapper.
+     */
+    public static SQLiteDatabase.RowMapper<Flight> flightMapper() {
+        return new SQLiteDatabase.RowMapper<>() {
+            private int fromCity = 0, toCity, fromDate, toDate, price, nonstop;
+
+            @Override
+            public Flight map(ResultSet resultSet) throws SQLException {
+                if (fromCity == 0) {
+                    fromCity = resultSet.findColumn("from_city");
+                    toCity = resultSet.findColumn("to_city");
+                    fromDate = resultSet.findColumn("from_date");
+                    toDate = resultSet.findColumn("to_date");
+                    price = resultSet.findColumn("price");
+                    nonstop = resultSet.findColumn("nonstop");
+                }
+
+                return new Flight(resultSet.getString(fromCity), resultSet.getString(toCity),
+                        LocalDate.ofEpochDay(resultSet.getLong(fromDate)), LocalDate.ofEpochDay(resultSet.getLong(toDate)),
+                        resultSet.getDouble(price), resultSet.getBoolean(nonstop));
+            }
+        };
+    }
+
+    static int getVersion(SQLiteDatabase database) {
+        ResultSet resultSet = database.query("PRAGMA user_version");
+        if (resultSet == null) {
+            return -1;
+        }
+
+        try (resultSet) {
+            int version = resultSet.next() ? resultSet.getInt(1) : 0;
+            resultSet.getStatement().close();
+            return version;
+        } catch (SQLException e) {
+            return -1;
+        }
+    }
+
+    private static boolean hasTable(SQLiteDatabase database, String name) {
+        try (ResultSet resultSet = database.queryPrepared("SELECT name FROM sqlite_master WHERE type='table' AND name=?", name)) {
+            return resultSet.next();
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+    private static boolean create(SQLiteDatabase database) {
+        String[] statements = new String[2 + CREATE_INDEXES_AND_VIEWS.length];
+        statements[0] = CREATE_CITIES;
+        statements[1] = CREATE_FLIGHTS.formatted("flights");
+        System.arraycopy(CREATE_INDEXES_AND_VIEWS, 0, statements, 2, CREATE_INDEXES_AND_VIEWS.length);
+        return database.updateInTransaction(statements);
+    }
+
+    private static boolean migrateFromText(SQLiteDatabase database) {
+        String[] statements = new String[6 + CREATE_INDEXES_AND_VIEWS.length];
+        statements[0] = CREATE_CITIES;
+        statements[1] = "INSERT INTO cities (name) SELECT from_city FROM flights UNION SELECT to_city FROM flights";
+        statements[2] = CREATE_FLIGHTS.formatted("flights_v1");
+        // julianday() of a plain date is always at midnight, so this converts to an exact epoch day
+        statements[3] = "INSERT INTO flights_v1 (id, from_city_id, to_city_id, from_date, to_date, nonstop, price) " +
+                "SELECT f.id, fc.id, tc.id, " +
+                "CAST(julianday(f.from_date) - 2440587.5 AS INTEGER), CAST(julianday(f.to_date) - 2440587.5 AS INTEGER), " +
+                "f.nonstop, f.price " +
+                "FROM flights f JOIN cities fc ON fc.name = f.from_city JOIN cities tc ON tc.name = f.to_city";
+        statements[4] = "DROP TABLE flights";
+        statements[5] = "ALTER TABLE flights_v1 RENAME TO flights";
+        System.arraycopy(CREATE_INDEXES_AND_VIEWS, 0, statements, 6, CREATE_INDEXES_AND_VIEWS.length);
+        return database.updateInTransaction(statements);
+    }
+}
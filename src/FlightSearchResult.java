@@ -0,0 +1,49 @@
+import java.util.List;
+
+/**
+ * The flights found by one combined search: every flight on the unfiltered results page, the nonstop page,
+ * or both, depending on which of them the search loaded, along with the nonstop subset of them.
+ * @param nonstopFlights The nonstop flights, which may be empty.
+ * @param allFlights Every flight found, with or without stops.
+ * @param cached Whether the flights were read from a cache rather than loaded from the site just now.
+ */
+public record FlightSearchResult(List<Flight> nonstopFlights, List<Flight> allFlights, boolean cached) {
+    /**
+     * Constructs a result for flights that were just loaded from the site.
+     */
+    public FlightSearchResult(List<Flight> nonstopFlights, List<Flight> allFlights) {
+        this(nonstopFlights, allFlights, false);
+    }
+
+    /**
+     * Splits the given flights, which were just loaded from the site, into a result.
+     * @param flights Every flight found by a search.
+     * @return The result containing the flights and their nonstop subset.
+     */
+    public static FlightSearchResult of(List<Flight> flights) {
+        return new FlightSearchResult(flights.stream().filter(Flight::isNonstop).toList(), flights, false);
+    }
+
+    /**
+     * Splits the given flights, which were read from a cache, into a result.
+     * @param flights Every flight found by the cached search.
+     * @return The result containing the flights and their nonstop subset.
+     */
+    public static FlightSearchResult fromCache(List<Flight> flights) {
+        return new FlightSearchResult(flights.stream().filter(Flight::isNonstop).toList(), flights, true);
+    }
+
+    /**
+     * @return Whether any nonstop flights were found, in which case they are the flights that apply.
+     */
+    public boolean hasNonstopFlights() {
+        return !nonstopFlights.isEmpty();
+    }
+
+    /**
+     * @return The nonstop flights if there are any, otherwise every flight with stops.
+     */
+    public List<Flight> getPreferredFlights() {
+        return hasNonstopFlights() ? nonstopFlights : allFlights;
+    }
+}
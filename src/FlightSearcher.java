@@ -0,0 +1,25 @@
+import java.time.LocalDate;
+import java.util.List;
+
+public interface FlightSearcher extends AutoCloseable {
+    List<Flight> getRoundTripNonstopEconomyFlights(String fromCity, String toCity, LocalDate fromDate, LocalDate toDate);
+
+    List<Flight> getRoundTripEconomyFlights(String fromCity, String toCity, LocalDate fromDate, LocalDate toDate);
+
+    /**
+     * Searches for both nonstop flights and flights with stops. Searchers that can split one unfiltered
+     * results page should override this to load it once; by default the nonstop search runs first and
+     * the search with stops only runs when it finds nothing.
+     * @return The flights found, with their nonstop subset.
+     */
+    default FlightSearchResult searchRoundTripEconomyFlights(String fromCity, String toCity, LocalDate fromDate, LocalDate toDate) {
+        List<Flight> nonstopFlights = getRoundTripNonstopEconomyFlights(fromCity, toCity, fromDate, toDate);
+        if (!nonstopFlights.isEmpty()) {
+            return new FlightSearchResult(nonstopFlights, nonstopFlights);
+        }
+        return new FlightSearchResult(List.of(), getRoundTripEconomyFlights(fromCity, toCity, fromDate, toDate));
+    }
+
+    @Override
+    void close();
+}
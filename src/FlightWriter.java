@@ -0,0 +1,242 @@
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.Clock;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Saves the results of scrape tasks together with a checkpoint for each task. Results are buffered and
+ * written once enough rows are pending or the oldest pending result is old enough. The age is checked by
+ * <code>add</code> and <code>flushIfDue</code>, so callers whose results may stop arriving should call
+ * <code>flushIfDue</code> periodically. Each write is one
+ * transaction that replaces the flights of every buffered task and records its checkpoint, so after a
+ * crash a task is either fully saved and checkpointed or not saved at all. The same transaction appends
+ * each freshly fetched task's cheapest prices to its <code>PriceHistory</code>, which outlives the replaced
+ * flights. Results read from a cache are left out of the history, since they were observed when they were
+ * fetched rather than when they are written.
+ * <p>
+ * <code>add</code> returns a future for each task that is completed once the write holding the task is
+ * committed, so callers can tell which tasks are actually saved.
+ * <p>
+ * Every write's duration and number of rows are kept, for tuning the batch size and age against.
+ * <p>
+ * Not thread-safe; with a <code>PooledSQLiteDatabase</code>, only use it inside <code>write</code> or <code>writeAsync</code>.
+ */
+public class FlightWriter implements AutoCloseable {
+    private record PendingTask(ScrapeTask task, List<Flight> flights, boolean fresh, CompletableFuture<Void> saved) { }
+
+    private final SQLiteDatabase database;
+    private final SQLiteDatabase.Batch insertBatch;
+    private final PriceHistory priceHistory;
+    private final int maxRows;
+    private final long maxNanos;
+    private final Clock clock;
+    private final List<PendingTask> pendingTasks = new ArrayList<>();
+    private int pendingRows = 0;
+    private long oldestPendingNanos;
+    private final LatencyHistogram flushLatency = new LatencyHistogram();
+    private final Histogram flushRows = new Histogram();
+    private final AtomicLong failedFlushes = new AtomicLong();
+
+    /**
+     * Constructs a <code>FlightWriter</code>.
+     * @param database The database to write to, at the current <code>FlightSchema</code> version.
+     * @param maxRows The number of pending rows, counting flights and checkpoints, that triggers a write.
+     * @param maxMillis The age in milliseconds of the oldest pending result that triggers a write.
+     */
+    public FlightWriter(SQLiteDatabase database, int maxRows, long maxMillis) {
+        this(database, maxRows, maxMillis, Clock.systemUTC());
+    }
+
+    FlightWriter(SQLiteDatabase database, int maxRows, long maxMillis, Clock clock) {
+        this.database = database;
+        // The batch never flushes itself, all writes go through flush() below
+        this.insertBatch = database.batch(FlightSchema.INSERT_FLIGHT, Integer.MAX_VALUE, Long.MAX_VALUE / 1_000_000);
+        this.priceHistory = new PriceHistory(database);
+        this.maxRows = maxRows;
+        this.maxNanos = maxMillis * 1_000_000;
+        this.clock = clock;
+    }
+
+    /**
+     * Buffers the flights freshly fetched by a task, writing every buffered task if the buffer is full or due.
+     * @param task The task that was scraped.
+     * @param flights The flights it found, which replace any flights stored for the same search.
+     * @return A future completed as for <code>add(ScrapeTask, List, boolean)</code>.
+     */
+    public CompletableFuture<Void> add(ScrapeTask task, List<Flight> flights) {
+        return add(task, flights, true);
+    }
+
+    /**
+     * Buffers the flights found by a task, writing every buffered task if the buffer is full or due.
+     * @param task The task that was scraped.
+     * @param flights The flights it found, which replace any flights stored for the same search.
+     * @param fresh Whether the flights were just fetched from the site, rather than read from a cache.
+     *              Only fresh results are added to the price history.
+     * @return A future completed once the task's flights and checkpoint are committed, or completed
+     * exceptionally if the write holding them is rolled back or throws.
+     */
+    public CompletableFuture<Void> add(ScrapeTask task, List<Flight> flights, boolean fresh) {
+        if (pendingTasks.isEmpty()) {
+            oldestPendingNanos = System.nanoTime();
+        }
+
+        CompletableFuture<Void> saved = new CompletableFuture<>();
+        pendingTasks.add(new PendingTask(task, flights, fresh, saved));
+        // The checkpoint is a row too, so empty results still fill the buffer
+        pendingRows += flights.size() + 1;
+
+        if (pendingRows >= maxRows || System.nanoTime() - oldestPendingNanos >= maxNanos) {
+            flush();
+        }
+        return saved;
+    }
+
+    /**
+     * Writes every buffered task in a single transaction.
+     * @return Whether the transaction was committed. If not, the buffered tasks are dropped
+     * without checkpoints, so a resumed sweep will scrape them again. The same happens if the
+     * write throws, in which case the exception is rethrown after the buffer is dropped. Either way,
+     * the futures returned by <code>add</code> for the buffered tasks are completed exceptionally.
+     */
+    public boolean flush() {
+        if (pendingTasks.isEmpty()) {
+            return true;
+        }
+
+        long start = System.nanoTime();
+        long completedAt = clock.millis();
+        boolean committed = false;
+        RuntimeException thrown = null;
+        // A task buffered twice only keeps its latest flights, since every delete runs before the batched inserts
+        Map<ScrapeTask, PendingTask> latest = new LinkedHashMap<>();
+        for (PendingTask pending : pendingTasks) {
+            latest.put(pending.task(), pending);
+        }
+
+        try {
+            committed = database.transaction(() -> {
+                for (PendingTask pending : latest.values()) {
+                    ScrapeTask task = pending.task();
+                    long fromDay = task.fromDate().toEpochDay(), toDay = task.toDate().toEpochDay();
+
+                    database.updatePrepared(FlightSchema.DELETE_SEARCH_FLIGHTS, task.fromCity(), task.toCity(), fromDay, toDay);
+                    for (Flight flight : pending.flights()) {
+                        insertBatch.add(
+                                flight.getFromCity(), flight.getToCity(),
+                                flight.getFromDate().toEpochDay(), flight.getToDate().toEpochDay(),
+                                flight.getPrice(), flight.isNonstop()
+                        );
+                    }
+                    database.updatePrepared(FlightSchema.INSERT_CHECKPOINT, task.fromCity(), task.toCity(), fromDay, toDay, completedAt);
+                    if (pending.fresh()) {
+                        priceHistory.record(task, pending.flights(), Instant.ofEpochMilli(completedAt));
+                    }
+                }
+                insertBatch.flush();
+            });
+        } catch (RuntimeException e) {
+            thrown = e;
+            throw e;
+        } finally {
+            flushLatency.record(System.nanoTime() - start);
+            flushRows.record(pendingRows);
+            if (!committed) {
+                failedFlushes.incrementAndGet();
+            }
+
+            // Whether or not the transaction threw, nothing buffered may be replayed by the next write
+            List<PendingTask> flushed = List.copyOf(pendingTasks);
+            pendingTasks.clear();
+            pendingRows = 0;
+            insertBatch.clear();
+
+            // Only completed once the buffer is empty, since completing them runs their callers' callbacks
+            Throwable failure = thrown != null ? thrown : new IllegalStateException("The write was rolled back");
+            for (PendingTask pending : flushed) {
+                if (committed) {
+                    pending.saved().complete(null);
+                } else {
+                    pending.saved().completeExceptionally(failure);
+                }
+            }
+        }
+
+        return committed;
+    }
+
+    /**
+     * Writes every buffered task if the oldest of them is at least <code>maxMillis</code> old.
+     * @return Whether the transaction was committed, or <code>true</code> if nothing was due.
+     */
+    public boolean flushIfDue() {
+        if (pendingTasks.isEmpty() || System.nanoTime() - oldestPendingNanos < maxNanos) {
+            return true;
+        }
+        return flush();
+    }
+
+    /**
+     * Returns the duration of every write, committed or not, in nanoseconds.
+     * @return The histogram, which may be read from any thread.
+     */
+    public LatencyHistogram getFlushLatency() {
+        return flushLatency;
+    }
+
+    /**
+     * Returns the number of rows, counting flights and checkpoints, in every write.
+     * @return The histogram, which may be read from any thread.
+     */
+    public Histogram getFlushRows() {
+        return flushRows;
+    }
+
+    /**
+     * @return The number of writes that were rolled back or threw.
+     */
+    public long getFailedFlushes() {
+        return failedFlushes.get();
+    }
+
+    /**
+     * Writes any buffered tasks and closes the underlying statement.
+     */
+    @Override
+    public void close() {
+        flush();
+        insertBatch.close();
+    }
+
+    /**
+     * Returns every task with a checkpoint, i.e. every search whose results have been saved.
+     * @param database The database to read from.
+     * @return The completed tasks.
+     */
+    public static Set<ScrapeTask> getCompletedTasks(SQLiteDatabase database) throws SQLException {
+        Set<ScrapeTask> tasks = new HashSet<>();
+        String query = "SELECT fc.name, tc.name, c.from_date, c.to_date FROM scrape_checkpoints c " +
+                "JOIN cities fc ON fc.id = c.from_city_id JOIN cities tc ON tc.id = c.to_city_id";
+
+        try (ResultSet resultSet = database.query(query)) {
+            while (resultSet.next()) {
+                tasks.add(new ScrapeTask(
+                        resultSet.getString(1), resultSet.getString(2),
+                        LocalDate.ofEpochDay(resultSet.getLong(3)), LocalDate.ofEpochDay(resultSet.getLong(4))
+                ));
+            }
+            resultSet.getStatement().close();
+        }
+
+        return tasks;
+    }
+}
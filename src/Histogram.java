@@ -0,0 +1,103 @@
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.stream.IntStream;
+
+/**
+ * A lock-free histogram of non-negative values, such as rows per write or cards per page. Values are
+ * counted in log-linear buckets, four per power of two, so any percentile is accurate to within 25% while
+ * recording is a couple of atomic adds. <code>LatencyHistogram</code> is the same histogram for durations.
+ */
+public class Histogram {
+    private static final int SUB_BUCKETS = 4;
+    private final AtomicLongArray buckets = new AtomicLongArray(64 * SUB_BUCKETS);
+    private final AtomicLong count = new AtomicLong(), sum = new AtomicLong(), max = new AtomicLong();
+
+    /**
+     * Records one value.
+     * @param value The value. Negative values are recorded as 0.
+     */
+    public void record(long value) {
+        value = Math.max(value, 0);
+        buckets.incrementAndGet(bucketIndex(value));
+        count.incrementAndGet();
+        sum.addAndGet(value);
+        max.accumulateAndGet(value, Math::max);
+    }
+
+    public long getCount() {
+        return count.get();
+    }
+
+    public long getSum() {
+        return sum.get();
+    }
+
+    public long getMax() {
+        return max.get();
+    }
+
+    public double getMean() {
+        long n = count.get();
+        return n == 0 ? 0 : (double) sum.get() / n;
+    }
+
+    /**
+     * Returns an upper bound on the given percentile of the recorded values.
+     * @param percentile The percentile, from 0 to 100.
+     * @return The upper bound of the bucket containing the percentile, or 0 if nothing has been recorded.
+     */
+    public long getPercentile(double percentile) {
+        long n = count.get();
+        if (n == 0) {
+            return 0;
+        }
+
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100 * n));
+        long seen = 0;
+        for (int i = 0; i < buckets.length(); i++) {
+            seen += buckets.get(i);
+            if (seen >= rank) {
+                return Math.min(bucketUpperBound(i), max.get());
+            }
+        }
+        return max.get();
+    }
+
+    /**
+     * Returns the number of values recorded in each bucket, along with each bucket's upper bound, for
+     * buckets that are not empty. Each row is <code>{upperBound, count}</code>.
+     * @return The non-empty buckets in ascending order.
+     */
+    public long[][] getBuckets() {
+        return IntStream.range(0, buckets.length())
+                .filter(i -> buckets.get(i) > 0)
+                .mapToObj(i -> new long[] { bucketUpperBound(i), buckets.get(i) })
+                .toArray(long[][]::new);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("count=%d mean=%.1f p50=%d p90=%d max=%d",
+                getCount(), getMean(), getPercentile(50), getPercentile(90), getMax());
+    }
+
+    static int bucketIndex(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        // Values below 4 have a bucket each, so octave 2 (values 4 to 7) starts right after them
+        int octave = 63 - Long.numberOfLeadingZeros(value);
+        int subBucket = (int) (value >>> (octave - 2)) & (SUB_BUCKETS - 1);
+        return (octave - 1) * SUB_BUCKETS + subBucket;
+    }
+
+    static long bucketUpperBound(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        int octave = index / SUB_BUCKETS + 1, subBucket = index % SUB_BUCKETS;
+        // Values in this bucket are in [(4 + subBucket) << (octave - 2), (5 + subBucket) << (octave - 2))
+        long upper = ((long) (SUB_BUCKETS + subBucket + 1) << (octave - 2)) - 1;
+        return upper < 0 ? Long.MAX_VALUE : upper;
+    }
+}
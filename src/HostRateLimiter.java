@@ -0,0 +1,176 @@
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * Paces page loads with a token bucket per target host, shared by every backend it wraps.
+ * <p>
+ * Each bucket holds up to <code>burst</code> tokens and refills at the host's current rate, and every
+ * page load takes one token, waiting for it if the bucket is empty. The rate adapts to what the host
+ * tolerates: it is halved whenever a load fails in a way that suggests throttling, such as an error
+ * page, an HTTP error status or a timeout, and climbs back towards <code>maxPerSecond</code> by a
+ * twentieth of it after every successful load. Results that fail to parse are not throttling and leave
+ * the rate alone.
+ */
+public class HostRateLimiter {
+    private static final long NANOS_PER_SECOND = 1_000_000_000L;
+
+    /** The token bucket for one host. The token count goes negative while loads are waiting for tokens. */
+    private final class Bucket {
+        private double tokens = burst;
+        private double perSecond = maxPerSecond;
+        private long refilledAt = nanoTime.getAsLong();
+
+        synchronized long reserve() {
+            long now = nanoTime.getAsLong();
+            tokens = Math.min(burst, tokens + (now - refilledAt) * perSecond / NANOS_PER_SECOND);
+            refilledAt = now;
+            tokens--;
+            return tokens >= 0 ? 0 : (long) Math.ceil(-tokens / perSecond * NANOS_PER_SECOND);
+        }
+
+        synchronized void onThrottled() {
+            perSecond = Math.max(perSecond / 2, minPerSecond);
+        }
+
+        synchronized void onSuccess() {
+            perSecond = Math.min(perSecond + maxPerSecond / 20, maxPerSecond);
+        }
+    }
+
+    private final double maxPerSecond, minPerSecond;
+    private final int burst;
+    private final LongSupplier nanoTime;
+    private final Map<String, Bucket> buckets = new ConcurrentHashMap<>();
+
+    /**
+     * Constructs a <code>HostRateLimiter</code>.
+     * @param maxPerSecond The most page loads per second to send to any one host.
+     * @param burst The most page loads to send to a host at once after it has been idle.
+     */
+    public HostRateLimiter(double maxPerSecond, int burst) {
+        this(maxPerSecond, burst, System::nanoTime);
+    }
+
+    HostRateLimiter(double maxPerSecond, int burst, LongSupplier nanoTime) {
+        if (maxPerSecond <= 0 || burst < 1) {
+            throw new IllegalArgumentException("maxPerSecond and burst must be positive");
+        }
+
+        this.maxPerSecond = maxPerSecond;
+        this.minPerSecond = maxPerSecond / 64;
+        this.burst = burst;
+        this.nanoTime = nanoTime;
+    }
+
+    /**
+     * Takes a token for a page load from the URL's host, waiting until one is available.
+     * @param url The page URL.
+     */
+    public void acquire(String url) throws InterruptedException {
+        long waitNanos = reserve(url);
+        if (waitNanos > 0) {
+            TimeUnit.NANOSECONDS.sleep(waitNanos);
+        }
+    }
+
+    /**
+     * Takes a token for a page load from the URL's host without waiting for it.
+     * @param url The page URL.
+     * @return How long in nanoseconds the caller must wait before loading the page.
+     */
+    long reserve(String url) {
+        return bucket(url).reserve();
+    }
+
+    /**
+     * Slows down loads from the URL's host after it responded in a way that suggests throttling.
+     * @param url The page URL.
+     */
+    public void onThrottled(String url) {
+        bucket(url).onThrottled();
+    }
+
+    /**
+     * Speeds loads from the URL's host back up after a successful load.
+     * @param url The page URL.
+     */
+    public void onSuccess(String url) {
+        bucket(url).onSuccess();
+    }
+
+    /**
+     * @param url A page URL.
+     * @return The current page loads per second for the URL's host.
+     */
+    public double getRate(String url) {
+        Bucket bucket = bucket(url);
+        synchronized (bucket) {
+            return bucket.perSecond;
+        }
+    }
+
+    /**
+     * Wraps a backend so that every fetch, blocking or not, first takes a token from its URL's host
+     * and its outcome adjusts that host's rate.
+     * @param backend The backend to wrap.
+     * @return The rate limited backend, which closes the wrapped backend when it is closed.
+     */
+    public FlightFetchBackend wrap(FlightFetchBackend backend) {
+        return new FlightFetchBackend() {
+            @Override
+            public SearchPage fetch(String url) {
+                try {
+                    acquire(url);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IllegalStateException("Interrupted while waiting to load " + url, e);
+                }
+
+                try {
+                    SearchPage page = backend.fetch(url);
+                    onSuccess(url);
+                    return page;
+                } catch (RuntimeException e) {
+                    onFailure(url, e);
+                    throw e;
+                }
+            }
+
+            @Override
+            public CompletableFuture<SearchPage> fetchAsync(String url) {
+                long waitNanos = reserve(url);
+                return CompletableFuture.runAsync(() -> { }, CompletableFuture.delayedExecutor(waitNanos, TimeUnit.NANOSECONDS))
+                        .thenCompose(ignored -> backend.fetchAsync(url))
+                        .whenComplete((page, e) -> {
+                            if (e == null) {
+                                onSuccess(url);
+                            } else {
+                                onFailure(url, e.getCause() != null ? e.getCause() : e);
+                            }
+                        });
+            }
+
+            @Override
+            public void close() {
+                backend.close();
+            }
+        };
+    }
+
+    private void onFailure(String url, Throwable e) {
+        // A page that loaded but could not be parsed says nothing about how hard the host is being hit
+        if (!(e instanceof IllegalArgumentException)) {
+            onThrottled(url);
+        }
+    }
+
+    private Bucket bucket(String url) {
+        // Page URLs are not fully encoded (see FlightDataAPI.buildUrl), so cut the host out instead of parsing a URI
+        int schemeEnd = url.indexOf("://"), start = schemeEnd == -1 ? 0 : schemeEnd + 3;
+        int end = url.indexOf('/', start);
+        return buckets.computeIfAbsent(url.substring(start, end == -1 ? url.length() : end), host -> new Bucket());
+    }
+}
@@ -0,0 +1,160 @@
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.HttpTimeoutException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+/**
+ * Loads search results straight from the site's JSON search API with <code>java.net.http.HttpClient</code>
+ * instead of rendering the page in a browser. One client is shared by every request, so connections are
+ * kept alive and reused, and any number of requests can be in flight at once through <code>fetchAsync</code>.
+ * Responses are parsed on virtual threads rather than the client's default thread pool.
+ * <p>
+ * The API takes the same query string as the results page, so the page URL built by
+ * <code>FlightDataAPI.buildUrl</code> is translated rather than built separately.
+ */
+public class HttpBackend implements FlightFetchBackend {
+    static final String DEFAULT_API_BASE = "https://flights.booking.com";
+    private static final String USER_AGENT = "Mozilla/5.0 (Windows NT 10.0; Win64; x64) AppleWebKit/537.36 (KHTML, like Gecko) Chrome/131.0.0.0 Safari/537.36";
+    private final HttpClient client;
+    private final String apiBase;
+    private final Duration timeout;
+    private final FetchMetrics metrics;
+
+    HttpBackend() {
+        this(DEFAULT_API_BASE, Duration.ofSeconds(20), new FetchMetrics());
+    }
+
+    /**
+     * Constructs an <code>HttpBackend</code>.
+     * @param apiBase The scheme and host to send API requests to, e.g. a local fixture server in tests.
+     * @param timeout The connect and per-request timeout.
+     * @param metrics Where to record fetch timings and outcomes. There is no wait phase, since the
+     *                response is complete once it has been received.
+     */
+    HttpBackend(String apiBase, Duration timeout, FetchMetrics metrics) {
+        this.apiBase = apiBase;
+        this.timeout = timeout;
+        this.metrics = metrics;
+        this.client = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_2)
+                .followRedirects(HttpClient.Redirect.NORMAL)
+                .connectTimeout(timeout)
+                .executor(Thread::startVirtualThread)
+                .build();
+    }
+
+    @Override
+    public SearchPage fetch(String url) {
+        try {
+            return fetchAsync(url).join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw e;
+        }
+    }
+
+    @Override
+    public CompletableFuture<SearchPage> fetchAsync(String url) {
+        HttpRequest request = HttpRequest.newBuilder(toApiUri(apiBase, url))
+                .timeout(timeout)
+                .header("Accept", "application/json")
+                .header("User-Agent", USER_AGENT)
+                .GET()
+                .build();
+        boolean nonstopRequested = url.contains(FlightDataAPI.NONSTOP_FILTER);
+
+        long start = System.nanoTime();
+
+        return client.sendAsync(request, HttpResponse.BodyHandlers.ofString())
+                .thenApply(response -> {
+                    long received = System.nanoTime();
+                    metrics.record(FetchMetrics.Phase.NAVIGATE, received - start);
+                    if (response.statusCode() != 200) {
+                        metrics.record(FetchMetrics.Outcome.ERROR_PAGE);
+                        throw new IllegalStateException("HTTP " + response.statusCode() + " for " + request.uri());
+                    }
+
+                    SearchPage page = parse(response.body(), nonstopRequested);
+                    metrics.record(FetchMetrics.Phase.PARSE, System.nanoTime() - received);
+                    metrics.recordCards(page.cards().size());
+                    metrics.record(page.cards().isEmpty() ? FetchMetrics.Outcome.NO_RESULTS : FetchMetrics.Outcome.RESULTS);
+                    return page;
+                })
+                .whenComplete((page, e) -> {
+                    if (e != null && !(e.getCause() instanceof IllegalStateException)) {
+                        metrics.record(e.getCause() instanceof HttpTimeoutException ? FetchMetrics.Outcome.TIMEOUT : FetchMetrics.Outcome.FAILED);
+                    }
+                    metrics.record(FetchMetrics.Phase.TOTAL, System.nanoTime() - start);
+                });
+    }
+
+    /**
+     * Translates a results page URL into the equivalent search API URL.
+     * @param apiBase The scheme and host of the API.
+     * @param pageUrl The results page URL.
+     * @return The API URL.
+     */
+    static URI toApiUri(String apiBase, String pageUrl) {
+        String query = pageUrl.substring(pageUrl.indexOf('?') + 1);
+        // City names such as "Las Vegas" are not encoded by buildUrl, since the browser does that itself
+        return URI.create(apiBase + "/api/flights/?" + query.replace(" ", "%20"));
+    }
+
+    /**
+     * Parses a search API response. Each offer's price is <code>priceBreakdown.total</code> and each
+     * segment's stop count is its number of legs minus one.
+     * @param body The JSON response body.
+     * @param nonstopRequested Whether only direct flights were asked for.
+     * @return The parsed page.
+     * @throws IllegalArgumentException If the body is not valid JSON or an offer is missing a field.
+     */
+    @SuppressWarnings("unchecked")
+    static SearchPage parse(String body, boolean nonstopRequested) {
+        Map<String, Object> root = (Map<String, Object>) JsonParser.parse(body);
+        List<Object> offers = (List<Object>) root.getOrDefault("flightOffers", List.of());
+        List<FareCard> cards = new ArrayList<>(offers.size());
+
+        for (Object offerObject : offers) {
+            Map<String, Object> offer = (Map<String, Object>) offerObject;
+            Map<String, Object> total = field(field(offer, "priceBreakdown", Map.class), "total", Map.class);
+            double price = field(total, "units", Double.class) + ((Double) total.getOrDefault("nanos", 0.0)) / 1e9;
+            // Round away the floating point error from adding nanos, prices are in whole cents
+            price = Math.round(price * 100) / 100.0;
+
+            List<Object> segments = field(offer, "segments", List.class);
+            if (segments.size() != 2) {
+                throw new IllegalArgumentException("Expected 2 segments in a round trip offer, got " + segments.size());
+            }
+            int outboundStops = field((Map<String, Object>) segments.get(0), "legs", List.class).size() - 1;
+            int returnStops = field((Map<String, Object>) segments.get(1), "legs", List.class).size() - 1;
+            cards.add(new FareCard(price, outboundStops, returnStops));
+        }
+
+        // The site falls back to flights with stops when there are no direct ones, like the results page banner
+        boolean noDirectFlights = nonstopRequested && !cards.isEmpty() && cards.stream().noneMatch(FareCard::isNonstop);
+        return new SearchPage(cards, noDirectFlights);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T field(Map<String, Object> object, String name, Class<? super T> type) {
+        Object value = object.get(name);
+        if (!type.isInstance(value)) {
+            throw new IllegalArgumentException("Expected " + name + " in a flight offer to be a " + type.getSimpleName() + ", got " + value);
+        }
+        return (T) value;
+    }
+
+    @Override
+    public void close() {
+        client.close();
+    }
+}
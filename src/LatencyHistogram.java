@@ -0,0 +1,33 @@
+/**
+ * A lock-free histogram of durations in nanoseconds, with the same buckets and accuracy as
+ * <code>Histogram</code>.
+ */
+public class LatencyHistogram extends Histogram {
+    public long getSumNanos() {
+        return getSum();
+    }
+
+    public long getMaxNanos() {
+        return getMax();
+    }
+
+    public double getMeanNanos() {
+        return getMean();
+    }
+
+    /**
+     * Returns an upper bound on the given percentile of the recorded durations.
+     * @param percentile The percentile, from 0 to 100.
+     * @return The upper bound of the bucket containing the percentile, or 0 if nothing has been recorded.
+     */
+    public long getPercentileNanos(double percentile) {
+        return getPercentile(percentile);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("count=%d mean=%.1fms p50=%.1fms p90=%.1fms p99=%.1fms max=%.1fms",
+                getCount(), getMeanNanos() / 1e6, getPercentileNanos(50) / 1e6, getPercentileNanos(90) / 1e6,
+                getPercentileNanos(99) / 1e6, getMaxNanos() / 1e6);
+    }
+}
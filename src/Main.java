@@ -1,107 +1,310 @@
-import java.sql.ResultSet;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.sql.SQLException;
+import java.time.Duration;
 import java.time.LocalDate;
-import java.util.ArrayList;
+import java.time.YearMonth;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
 
 public class Main {
-    private static final SQLiteDatabase database = new SQLiteDatabase("flight_data.sqlite", Main::onSQLiteError);
+    // Declared first, since the database reports errors to it from its own initializer onwards
+    private static final MetricsRegistry metrics = new MetricsRegistry();
+    private static final int metricsPort = Integer.getInteger("metrics.port", -1);
+    private static final String metricsFile = System.getProperty("metrics.file");
+    private static final Duration metricsInterval = Duration.ofSeconds(Long.getLong("metrics.intervalSeconds", 10));
+    private static final PooledSQLiteDatabase database = new PooledSQLiteDatabase("flight_data.sqlite", Main::onSQLiteError, 2);
+    private static final CheapestFares cheapestFares = new CheapestFares();
     private static final LocalDate startDate = LocalDate.of(2025, 5, 1); // May 1st
     private static final LocalDate endDate = LocalDate.of(2025, 8, 15); // Aug. 15th
     private static final String[] cities = { "Cancun", "Las Vegas", "Denver", "Rome", "Milan", "Paris", "Madrid", "Amsterdam", "Singapore" };
+    // Week-long trips by default; add 1 to 3 day trips, e.g. -Dscrape.tripLengths=7,1,2,3, to find weekend fares
+    private static final int[] tripLengths = Arrays.stream(System.getProperty("scrape.tripLengths", "7").split(","))
+            .map(String::trim).mapToInt(Integer::parseInt).toArray();
+    private static final String fetchBackend = System.getProperty("scrape.backend", "selenium");
+    private static final Duration pageReadyTimeout = Duration.ofSeconds(Long.getLong("scrape.pageReadySeconds", 20));
+    private static final FetchMetrics fetchMetrics = new FetchMetrics();
+    private static final int workerCount = Integer.getInteger("scrape.workers", 4);
+    private static final int maxConcurrentPageLoads = Integer.getInteger("scrape.maxPageLoads", workerCount);
+    private static final HostRateLimiter rateLimiter = new HostRateLimiter(
+            Double.parseDouble(System.getProperty("scrape.maxPagesPerSecond", "1")), Integer.getInteger("scrape.burst", 2));
+    private static final int maxAttempts = Integer.getInteger("scrape.maxAttempts", 5);
+    private static final Duration retryBackoff = Duration.ofSeconds(Long.getLong("scrape.retryBackoffSeconds", 30));
+    private static final Duration maxRetryBackoff = Duration.ofMinutes(Long.getLong("scrape.maxRetryBackoffMinutes", 30));
+    private static final int insertBatchSize = 500;
+    private static final long insertBatchMillis = 2000;
+    private static final Duration scrapeCacheTtl = Duration.ofHours(Long.getLong("scrape.cacheTtlHours", 12));
+    private static final int scrapeCacheMaxEntries = Integer.getInteger("scrape.cacheMaxEntries", 100_000);
 
-    public static void main(String[] args) {
-        FlightDataAPI api = new FlightDataAPI();
+    public static void main(String[] args) throws InterruptedException {
+        if (args.length > 0 && args[0].equals("migrate")) {
+            // Only bring the database up to the current schema, keeping its data
+            database.write(FlightSchema::migrate);
+            database.close();
+            return;
+        }
 
-        setFlightTables();
+        if (args.length > 0 && args[0].equals("search")) {
+            // Answer date-window questions from the saved flights without scraping anything
+            search(args);
+            database.close();
+            return;
+        }
 
-        for (String city : cities) {
-            LocalDate currentStartDate = startDate;
-
-            // Go through range of dates for this city
-            while (currentStartDate.plusWeeks(1).isBefore(endDate.plusDays(1))) {
-                List<Flight> flights = api.getRoundTripNonstopEconomyFlights(
-                        "Atlanta", city,
-                        currentStartDate,
-                        currentStartDate.plusWeeks(1)
-                );
-
-                if (flights.isEmpty()) {
-                    flights = api.getRoundTripEconomyFlights(
-                            "Atlanta", city,
-                            currentStartDate,
-                            currentStartDate.plusWeeks(1)
-                    );
-                }
-
-                // Save to database
-                String insertQuery = "INSERT INTO flights (from_city, to_city, from_date, to_date, price, nonstop) VALUES (?, ?, ?, ?, ?, ?)";
-                for (Flight flight : flights) {
-                    database.updatePrepared(
-                            insertQuery, flight.getFromCity(),
-                            flight.getToCity(), flight.getFromDate().toString(),
-                            flight.getToDate().toString(), flight.getPrice(),
-                            flight.isNonstop()
-                    );
-                }
-
-                // Print (for testing purposes)
-                flights.forEach(System.out::println);
-                System.out.println();
-                currentStartDate = currentStartDate.plusDays(1);
-            }
+        if (args.length > 0 && args[0].equals("export")) {
+            // Append the flights saved since the last export to a compressed columnar archive, which keeps replaced flights
+            export(args.length > 1 ? args[1] : "flight_data.fltx");
+            database.close();
+            return;
         }
 
-        api.close();
+        // With "resume", keep what earlier runs saved and only scrape the searches they did not finish
+        boolean resume = args.length > 0 && args[0].equals("resume");
+        Set<ScrapeTask> completedTasks = setFlightTables(resume);
+
+        // Scrape every (city, trip length, departure date) combination across a pool of browsers, nearest departures
+        // first. The queue is persistent, so a resumed run keeps the attempts and backoff of tasks that were failing
+        List<ScrapeTask> tasks = ScrapeTask.grid("Atlanta", cities, startDate, endDate, tripLengths);
+        tasks.removeAll(completedTasks);
+        ScrapeQueue scrapeQueue = new ScrapeQueue(database, maxAttempts, retryBackoff, maxRetryBackoff);
+        scrapeQueue.enqueue(tasks);
+        System.out.println(completedTasks.size() + " searches already saved, " + scrapeQueue.size() + " left to scrape.");
+
+        // Answer searches scraped within the cache's time-to-live without loading the page again
+        ScrapeCache scrapeCache = new ScrapeCache(database, scrapeCacheTtl, scrapeCacheMaxEntries);
+        scrapeCache.deleteExpired();
+        ScrapeScheduler scheduler = new ScrapeScheduler(() -> new CachingFlightSearcher(Main::createFlightDataAPI, scrapeCache),
+                workerCount, maxConcurrentPageLoads, maxAttempts, metrics);
+
+        // Save to database in batched transactions instead of one commit per flight, checkpointing each search.
+        // The writer belongs to the writer connection, so it is only touched inside database.write or writeAsync
+        FlightWriter flightWriter = database.write(db -> new FlightWriter(db, insertBatchSize, insertBatchMillis));
+        LongAdder savedFlights = metrics.counter("flights_saved_total", "Flights found and committed by the writer.");
+        registerMetrics(scrapeQueue, scrapeCache, flightWriter);
+        Runnable stopMetrics = exportMetrics();
+        // The writer only checks the age of its buffer when results arrive, so check it on a timer too
+        ScheduledExecutorService flusher = Executors.newSingleThreadScheduledExecutor(Thread.ofPlatform().daemon().name("flight-writer-flush").factory());
+        flusher.scheduleAtFixedRate(() -> database.writeAsync(db -> flightWriter.flushIfDue()), insertBatchMillis, insertBatchMillis, TimeUnit.MILLISECONDS);
+        List<ScrapeTask> failedTasks;
+
+        try {
+            // Searching, processing results and writing them run as a pipeline: workers hand results to the scheduler's
+            // saver thread, which queues each write for the database's writer thread and goes on to the next result.
+            // A task is only completed once the batch holding it commits; if the batch is rolled back, the task fails
+            // and is retried. The last batch is committed by the flusher, so the run can end up to insertBatchMillis late
+            failedTasks = scheduler.run(scrapeQueue, (task, flights, cached) -> database
+                    .writeAsync(db -> flightWriter.add(task, flights, !cached))
+                    .thenCompose(saved -> saved)
+                    .thenRun(() -> {
+                        savedFlights.add(flights.size());
+                        flights.forEach(cheapestFares::record);
+
+                        // Print (for testing purposes)
+                        flights.forEach(System.out::println);
+                        System.out.println();
+                    }));
+        } finally {
+            flusher.shutdownNow();
+            // Queued after every other write, so it flushes them all
+            database.writeAsync(db -> {
+                flightWriter.close();
+                return null;
+            }).join();
+            stopMetrics.run();
+        }
+
+        failedTasks.forEach(task -> System.out.println("[Scrape Error] Gave up on " + task));
+        int earlierDeadLetters = scrapeQueue.getDeadLetters().size() - failedTasks.size();
+        if (earlierDeadLetters > 0) {
+            System.out.println(earlierDeadLetters + " searches were given up on by earlier runs, run without \"resume\" to retry them.");
+        }
+        System.out.printf("Scrape cache: %d hits, %d misses (%d expired), %.1f%% hit ratio%n",
+                scrapeCache.getHits(), scrapeCache.getMisses(), scrapeCache.getExpired(), scrapeCache.getHitRatio() * 100);
+
+        System.out.println("Page fetches:");
+        System.out.println(fetchMetrics.summary());
 
         printCheapestFlights();
+
+        database.close();
     }
 
-    private static void setFlightTables() {
-        try (ResultSet resultSet = database.query("SELECT name FROM sqlite_master WHERE type='table' AND name='flights'")) {
-            // If the table exists, clear its data
-            if (resultSet.next()) {
-                database.update("DELETE FROM flights");
-                System.out.println("Flight data cleared from the existing table.");
-            } else {
-                // If table doesn't exist, create table
-                database.update("CREATE TABLE IF NOT EXISTS flights (id INTEGER PRIMARY KEY AUTOINCREMENT, " +
-                        "from_city TEXT NOT NULL, to_city TEXT NOT NULL, " +
-                        "from_date TEXT NOT NULL, to_date TEXT NOT NULL, " +
-                        "nonstop INTEGER NOT NULL," +
-                        "price REAL NOT NULL)");
-                System.out.println("Flights table created successfully.");
+    private static void registerMetrics(ScrapeQueue scrapeQueue, ScrapeCache scrapeCache, FlightWriter flightWriter) {
+        fetchMetrics.register(metrics);
+
+        metrics.registerCounter("scrape_cache_lookups_total", "Scrape cache lookups, by result.", scrapeCache::getHits, "result", "hit");
+        metrics.registerCounter("scrape_cache_lookups_total", "Scrape cache lookups, by result.", () -> scrapeCache.getMisses() - scrapeCache.getExpired(), "result", "miss");
+        metrics.registerCounter("scrape_cache_lookups_total", "Scrape cache lookups, by result.", scrapeCache::getExpired, "result", "expired");
+        metrics.registerGauge("scrape_cache_hit_ratio", "Fraction of scrape cache lookups that found a fresh result.", scrapeCache::getHitRatio);
+        metrics.registerGauge("scrape_cache_entries", "Results in the scrape cache.", scrapeCache::size);
+
+        metrics.registerTimer("db_flush_seconds", "Time taken by each batched write of scrape results.", flightWriter.getFlushLatency());
+        metrics.registerHistogram("db_flush_rows", "Rows, counting flights and checkpoints, in each batched write.", flightWriter.getFlushRows());
+        metrics.registerCounter("db_flush_failures_total", "Batched writes that were rolled back.", flightWriter::getFailedFlushes);
+        metrics.registerGauge("db_queued_writes", "Writes waiting for the database's writer thread.", database::getQueuedWrites);
+
+        metrics.registerGauge("scrape_queue_tasks", "Tasks in the scrape queue, including ones backing off or in progress.", scrapeQueue::size);
+        metrics.registerGauge("scrape_dead_letters", "Tasks given up on, by this run or an earlier one.", () -> scrapeQueue.getDeadLetters().size());
+        metrics.registerGauge("scrape_rate_limit_per_second", "Current page loads per second allowed by the rate limiter.",
+                () -> rateLimiter.getRate(HttpBackend.DEFAULT_API_BASE), "host", "flights.booking.com");
+    }
+
+    private static Runnable exportMetrics() {
+        // Serve the metrics for scraping with -Dmetrics.port, and/or dump them to a file with -Dmetrics.file
+        HttpServer server = null;
+        if (metricsPort >= 0) {
+            try {
+                server = metrics.serve(metricsPort);
+                System.out.println("Serving metrics at http://localhost:" + server.getAddress().getPort() + "/metrics");
+            } catch (IOException e) {
+                System.out.println("[Metrics Error] Could not serve metrics: " + e.getMessage());
             }
-        } catch (SQLException e) {
-            onSQLiteError(e);
         }
+
+        ScheduledExecutorService dumper = null;
+        if (metricsFile != null) {
+            dumper = Executors.newSingleThreadScheduledExecutor(Thread.ofPlatform().daemon().name("metrics-dump").factory());
+            dumper.scheduleAtFixedRate(Main::writeMetrics, metricsInterval.toMillis(), metricsInterval.toMillis(), TimeUnit.MILLISECONDS);
+        }
+
+        HttpServer runningServer = server;
+        ScheduledExecutorService runningDumper = dumper;
+        return () -> {
+            if (runningDumper != null) {
+                runningDumper.shutdownNow();
+                writeMetrics();
+            }
+            if (runningServer != null) {
+                runningServer.stop(0);
+            }
+        };
     }
 
-    private static void printCheapestFlights() {
-        // Query database to get the cheapest flight for each city, print it
-        String cheapestFlightsQuery = "SELECT to_city, MIN(price) AS cheapest_price, from_city, from_date, to_date, nonstop FROM flights GROUP BY to_city, nonstop";
-
-        List<Flight> cheapestFlights = new ArrayList<>();
-
-        // Add flight groups to list
-        try (ResultSet resultSet = database.query(cheapestFlightsQuery)) {
-            while (resultSet.next()) {
-                String toCity = resultSet.getString("to_city");
-                double price = resultSet.getDouble("cheapest_price");
-                String fromCity = resultSet.getString("from_city");
-                LocalDate fromDate = LocalDate.parse(resultSet.getString("from_date"));
-                LocalDate toDate = LocalDate.parse(resultSet.getString("to_date"));
-                boolean nonstop = resultSet.getBoolean("nonstop");
-                cheapestFlights.add(new Flight(fromCity, toCity, fromDate, toDate, price, nonstop));
+    private static void writeMetrics() {
+        try {
+            metrics.writeTo(Path.of(metricsFile));
+        } catch (IOException e) {
+            System.out.println("[Metrics Error] Could not write " + metricsFile + ": " + e.getMessage());
+        }
+    }
+
+    private static FlightDataAPI createFlightDataAPI() {
+        // The HTTP backend skips the browser entirely, Selenium stays the default as the most faithful fallback.
+        // Every backend shares the rate limiter, so page loads are paced per host across all workers
+        return switch (fetchBackend) {
+            case "http" -> new FlightDataAPI(rateLimiter.wrap(new HttpBackend(HttpBackend.DEFAULT_API_BASE, pageReadyTimeout, fetchMetrics)));
+            case "selenium" -> new FlightDataAPI(rateLimiter.wrap(new SeleniumBackend(pageReadyTimeout, SeleniumBackend.DEFAULT_POLL_INTERVAL, fetchMetrics)));
+            default -> throw new IllegalArgumentException("Unknown scrape.backend: " + fetchBackend);
+        };
+    }
+
+    private static void search(String[] args) throws InterruptedException {
+        // search [start date] [end date] [trip lengths, comma separated] [departures per trip length]
+        LocalDate start = args.length > 1 ? LocalDate.parse(args[1]) : startDate;
+        LocalDate end = args.length > 2 ? LocalDate.parse(args[2]) : endDate;
+        int[] tripLengths = args.length > 3 ? Arrays.stream(args[3].split(",")).mapToInt(Integer::parseInt).toArray() : new int[] { 7 };
+        int count = args.length > 4 ? Integer.parseInt(args[4]) : 3;
+
+        if (!database.write(FlightSchema::migrate)) {
+            throw new IllegalStateException("Could not migrate the flights schema");
+        }
+
+        FareStore fareStore = database.read(db -> {
+            try {
+                return FareStore.load(db);
+            } catch (SQLException e) {
+                onSQLiteError(e);
+                return new FareStore(0);
             }
-        } catch (SQLException e) {
-            onSQLiteError(e);
+        });
+        FareCalendar calendar = new FareCalendar(fareStore);
+
+        for (String city : cities) {
+            System.out.println("Cheapest departures to " + city + " between " + start + " and " + end + ":");
+            calendar.getCheapestDepartures(city, tripLengths, start, end, count, false).forEach((tripLength, flights) -> {
+                System.out.println("  " + tripLength + " days:");
+                flights.forEach(flight -> System.out.println("    " + flight));
+            });
+
+            System.out.println("Cheapest weekend per month to " + city + ":");
+            Map<YearMonth, Flight> weekends = calendar.getCheapestWeekendPerMonth(city, start, end, false);
+            if (weekends.isEmpty()) {
+                System.out.println("  No weekend trips saved, scrape 1 to 3 day trips with scrape.tripLengths to find them");
+            }
+            weekends.forEach((month, flight) -> System.out.println("  " + month + ": " + flight));
+            System.out.println();
         }
+    }
 
+    private static void export(String file) throws InterruptedException {
+        if (!database.write(FlightSchema::migrate)) {
+            throw new IllegalStateException("Could not migrate the flights schema");
+        }
+
+        database.read(db -> {
+            try {
+                long start = System.nanoTime();
+                long exported = new FlightExporter(db, FlightExporter.DEFAULT_ROW_GROUP_SIZE).export(Path.of(file));
+                System.out.printf("Exported %d new flights to %s in %d ms (%d bytes)%n",
+                        exported, file, (System.nanoTime() - start) / 1_000_000, Files.size(Path.of(file)));
+            } catch (IOException e) {
+                System.out.println("[Export Error] " + e.getMessage());
+            } catch (SQLException e) {
+                onSQLiteError(e);
+            }
+            return null;
+        });
+    }
+
+    private static Set<ScrapeTask> setFlightTables(boolean resume) {
+        return database.write(db -> {
+            // Create the tables, or bring an existing database up to the current schema
+            int version = FlightSchema.getVersion(db);
+            if (!FlightSchema.migrate(db)) {
+                throw new IllegalStateException("Could not migrate the flights schema");
+            }
+            if (version != FlightSchema.VERSION) {
+                System.out.println("Flights schema migrated to version " + FlightSchema.VERSION + ".");
+            }
+
+            FlightSchema.addCities(db, "Atlanta");
+            FlightSchema.addCities(db, cities);
+
+            if (!resume) {
+                db.updateInTransaction("DELETE FROM flights", "DELETE FROM scrape_checkpoints", "DELETE FROM scrape_queue", "DELETE FROM scrape_dead_letters");
+                System.out.println("Flight data cleared from the existing table.");
+                return Set.of();
+            }
+
+            try {
+                cheapestFares.load(db);
+                return FlightWriter.getCompletedTasks(db);
+            } catch (SQLException e) {
+                onSQLiteError(e);
+                return Set.of();
+            }
+        });
+    }
+
+    private static void printCheapestFlights() {
+        // Print the cheapest flight for each city, kept up to date as flights were saved
         for (String city : cities) {
-            List<Flight> cheapestCityFlights = cheapestFlights.stream().filter(f -> f.getToCity().equals(city)).toList();
             // Get cheapest nonstop flight if possible, otherwise get cheapest flight with stops
-            Flight cheapestFlight = cheapestCityFlights.stream().filter(Flight::isNonstop).findAny().orElseGet(cheapestCityFlights::getFirst);
+            Flight cheapestFlight = cheapestFares.getCheapestPreferringNonstop(city);
+
+            if (cheapestFlight == null) {
+                System.out.println("No flights found to " + city);
+                continue;
+            }
 
             System.out.printf("Cheapest flight to %s: %s -> %s from %s to %s ($%.2f)" + (cheapestFlight.isNonstop() ? " (Non-stop)" : " (With stops)"),
                     cheapestFlight.getToCity(), cheapestFlight.getFromCity(),
@@ -115,5 +318,6 @@ public class Main {
 
     private static void onSQLiteError(SQLException exception) {
         System.out.println("[SQLite Error] " + exception.getMessage());
+        metrics.counter("sqlite_errors_total", "Errors reported by SQLite, by error code.", "code", String.valueOf(exception.getErrorCode())).increment();
     }
 }
\ No newline at end of file
@@ -0,0 +1,305 @@
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.DoubleSupplier;
+import java.util.function.LongSupplier;
+
+/**
+ * Named counters, gauges and histograms for a whole sweep, which can be dumped as JSON or in the
+ * Prometheus text format, to a file or from a local HTTP endpoint.
+ * <p>
+ * Each metric has a name, help text and a type, and any number of series told apart by labels, which
+ * are given as name and value pairs. Metrics are either created here, or registered from statistics a
+ * component already keeps, such as a <code>ScrapeCache</code>'s hit count, so that recording them costs
+ * nothing extra. Recording is a <code>LongAdder</code> increment or a <code>Histogram</code>
+ * record, both lock-free, and callers on a hot path should keep the returned counter or histogram
+ * instead of looking it up each time. Histograms created with <code>timer</code> hold nanoseconds and
+ * are exported in seconds, while those created with <code>histogram</code> are plain
+ * <code>Histogram</code>s of values such as rows per batch.
+ */
+public class MetricsRegistry {
+    public enum Type { COUNTER, GAUGE, HISTOGRAM }
+
+    private static final class Family {
+        private final String name, help;
+        private final Type type;
+        private final boolean nanos;
+        // Keyed by the series' labels in exposition format, e.g. outcome="results"
+        private final Map<String, Object> series = new LinkedHashMap<>();
+
+        Family(String name, String help, Type type, boolean nanos) {
+            this.name = name;
+            this.help = help;
+            this.type = type;
+            this.nanos = nanos;
+        }
+    }
+
+    private final Map<String, Family> families = new LinkedHashMap<>();
+
+    /**
+     * Returns the counter with the given name and labels, creating it if needed.
+     * @param name The metric name, which by convention ends in <code>_total</code>.
+     * @param help What the metric counts.
+     * @param labels Label names and values, alternating.
+     * @return The counter.
+     */
+    public LongAdder counter(String name, String help, String... labels) {
+        return (LongAdder) getOrAdd(name, help, Type.COUNTER, false, labels, new LongAdder());
+    }
+
+    /**
+     * Registers a counter kept elsewhere, read whenever the metrics are dumped.
+     * @param value Returns the current count.
+     */
+    public void registerCounter(String name, String help, LongSupplier value, String... labels) {
+        add(name, help, Type.COUNTER, false, labels, value);
+    }
+
+    /**
+     * Registers a gauge, read whenever the metrics are dumped.
+     * @param value Returns the current value.
+     */
+    public void registerGauge(String name, String help, DoubleSupplier value, String... labels) {
+        add(name, help, Type.GAUGE, false, labels, value);
+    }
+
+    /**
+     * Returns the histogram of durations with the given name and labels, creating it if needed.
+     * @param name The metric name, which by convention ends in <code>_seconds</code>.
+     * @return The histogram, to record durations in nanoseconds to.
+     */
+    public LatencyHistogram timer(String name, String help, String... labels) {
+        return (LatencyHistogram) getOrAdd(name, help, Type.HISTOGRAM, true, labels, new LatencyHistogram());
+    }
+
+    /**
+     * Registers a histogram of durations in nanoseconds kept elsewhere.
+     */
+    public void registerTimer(String name, String help, LatencyHistogram histogram, String... labels) {
+        add(name, help, Type.HISTOGRAM, true, labels, histogram);
+    }
+
+    /**
+     * Returns the histogram of plain values with the given name and labels, creating it if needed.
+     * @return The histogram, to record values to.
+     */
+    public Histogram histogram(String name, String help, String... labels) {
+        return (Histogram) getOrAdd(name, help, Type.HISTOGRAM, false, labels, new Histogram());
+    }
+
+    /**
+     * Registers a histogram of plain values kept elsewhere.
+     */
+    public void registerHistogram(String name, String help, Histogram histogram, String... labels) {
+        add(name, help, Type.HISTOGRAM, false, labels, histogram);
+    }
+
+    /**
+     * Formats every metric in the Prometheus text exposition format. Histograms have a cumulative bucket
+     * per non-empty <code>Histogram</code> bucket, and are accurate to the same 25%.
+     * @return The metrics.
+     */
+    public synchronized String toPrometheus() {
+        StringBuilder builder = new StringBuilder();
+
+        for (Family family : families.values()) {
+            builder.append("# HELP ").append(family.name).append(' ').append(family.help.replace("\\", "\\\\").replace("\n", "\\n")).append('\n');
+            builder.append("# TYPE ").append(family.name).append(' ').append(family.type.name().toLowerCase(Locale.ROOT)).append('\n');
+
+            family.series.forEach((labels, source) -> {
+                if (!(source instanceof Histogram histogram)) {
+                    builder.append(family.name).append(braces(labels)).append(' ').append(format(read(source))).append('\n');
+                    return;
+                }
+
+                long cumulative = 0;
+                for (long[] bucket : histogram.getBuckets()) {
+                    cumulative += bucket[1];
+                    builder.append(family.name).append("_bucket").append(braces(join(labels, "le=\"" + format(scale(family, bucket[0])) + "\"")))
+                            .append(' ').append(cumulative).append('\n');
+                }
+                builder.append(family.name).append("_bucket").append(braces(join(labels, "le=\"+Inf\""))).append(' ').append(histogram.getCount()).append('\n');
+                builder.append(family.name).append("_sum").append(braces(labels)).append(' ').append(format(scale(family, histogram.getSum()))).append('\n');
+                builder.append(family.name).append("_count").append(braces(labels)).append(' ').append(histogram.getCount()).append('\n');
+            });
+        }
+
+        return builder.toString();
+    }
+
+    /**
+     * Formats every metric as a JSON object keyed by metric name. Each metric has its type, help and an
+     * array of series, each with its labels and either a value or, for histograms, the count, sum, mean,
+     * 50th, 90th and 99th percentiles and maximum.
+     * @return The metrics.
+     */
+    public synchronized String toJson() {
+        StringBuilder builder = new StringBuilder("{");
+
+        for (Family family : families.values()) {
+            if (builder.length() > 1) {
+                builder.append(',');
+            }
+            builder.append("\n  ").append(quote(family.name)).append(": {\"type\": ").append(quote(family.type.name().toLowerCase(Locale.ROOT)))
+                    .append(", \"help\": ").append(quote(family.help)).append(", \"series\": [");
+
+            boolean first = true;
+            for (Map.Entry<String, Object> series : family.series.entrySet()) {
+                builder.append(first ? "" : ",").append("\n    {\"labels\": ").append(labelsToJson(series.getKey()));
+                first = false;
+
+                if (series.getValue() instanceof Histogram histogram) {
+                    builder.append(", \"count\": ").append(histogram.getCount())
+                            .append(", \"sum\": ").append(format(scale(family, histogram.getSum())))
+                            .append(", \"mean\": ").append(format(scale(family, histogram.getMean())))
+                            .append(", \"p50\": ").append(format(scale(family, histogram.getPercentile(50))))
+                            .append(", \"p90\": ").append(format(scale(family, histogram.getPercentile(90))))
+                            .append(", \"p99\": ").append(format(scale(family, histogram.getPercentile(99))))
+                            .append(", \"max\": ").append(format(scale(family, histogram.getMax()))).append('}');
+                } else {
+                    builder.append(", \"value\": ").append(format(read(series.getValue()))).append('}');
+                }
+            }
+            builder.append(family.series.isEmpty() ? "]}" : "\n  ]}");
+        }
+
+        return builder.append("\n}\n").toString();
+    }
+
+    /**
+     * Writes every metric to a file, as JSON if its name ends in <code>.json</code> and in the Prometheus
+     * text format otherwise. The file is replaced atomically, so a reader never sees a partial dump.
+     * @param file The file to write.
+     */
+    public void writeTo(Path file) throws IOException {
+        String text = file.toString().endsWith(".json") ? toJson() : toPrometheus();
+        Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+        Files.writeString(temporary, text);
+        Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Starts serving the metrics on the loopback interface, in the Prometheus text format at
+     * <code>/metrics</code> and as JSON at <code>/metrics.json</code>. The server runs on its own
+     * thread until it is stopped.
+     * @param port The port to listen on, or 0 for any free port.
+     * @return The running server.
+     */
+    public HttpServer serve(int port) throws IOException {
+        HttpServer server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        server.createContext("/metrics", exchange -> {
+            boolean json = exchange.getRequestURI().getPath().equals("/metrics.json");
+            byte[] body = (json ? toJson() : toPrometheus()).getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", json ? "application/json" : "text/plain; version=0.0.4; charset=utf-8");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream output = exchange.getResponseBody()) {
+                output.write(body);
+            }
+        });
+        server.start();
+        return server;
+    }
+
+    private synchronized Object getOrAdd(String name, String help, Type type, boolean nanos, String[] labels, Object created) {
+        Object source = family(name, help, type, nanos).series.computeIfAbsent(toLabels(labels), l -> created);
+        if (source.getClass() != created.getClass()) {
+            throw new IllegalArgumentException("Metric " + name + " is registered from elsewhere and cannot be recorded to");
+        }
+        return source;
+    }
+
+    private synchronized void add(String name, String help, Type type, boolean nanos, String[] labels, Object source) {
+        String key = toLabels(labels);
+        Family family = family(name, help, type, nanos);
+        if (family.series.putIfAbsent(key, source) != null) {
+            throw new IllegalArgumentException("Metric " + name + braces(key) + " is already registered");
+        }
+    }
+
+    private Family family(String name, String help, Type type, boolean nanos) {
+        Family family = families.computeIfAbsent(name, n -> new Family(name, help, type, nanos));
+        if (family.type != type || family.nanos != nanos) {
+            throw new IllegalArgumentException("Metric " + name + " is already registered as a different type");
+        }
+        return family;
+    }
+
+    private static String toLabels(String[] labels) {
+        if (labels.length % 2 != 0) {
+            throw new IllegalArgumentException("Labels must be name and value pairs");
+        }
+
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < labels.length; i += 2) {
+            builder.append(i == 0 ? "" : ",").append(labels[i]).append("=\"")
+                    .append(labels[i + 1].replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n")).append('"');
+        }
+        return builder.toString();
+    }
+
+    // Label values are already escaped the same way for both formats, so they can be copied as they are
+    private static String labelsToJson(String labels) {
+        if (labels.isEmpty()) {
+            return "{}";
+        }
+
+        StringBuilder builder = new StringBuilder("{");
+        int start = 0;
+        while (start < labels.length()) {
+            int equals = labels.indexOf('=', start);
+            int end = equals + 2;
+            while (labels.charAt(end) != '"') {
+                end += labels.charAt(end) == '\\' ? 2 : 1;
+            }
+            builder.append(builder.length() > 1 ? ", " : "").append('"').append(labels, start, equals).append("\": ")
+                    .append(labels, equals + 1, end + 1);
+            start = end + 2;
+        }
+        return builder.append('}').toString();
+    }
+
+    private static String braces(String labels) {
+        return labels.isEmpty() ? "" : "{" + labels + "}";
+    }
+
+    private static String join(String labels, String label) {
+        return labels.isEmpty() ? label : labels + "," + label;
+    }
+
+    private static double read(Object source) {
+        if (source instanceof LongAdder adder) {
+            return adder.sum();
+        }
+        if (source instanceof LongSupplier supplier) {
+            return supplier.getAsLong();
+        }
+        return ((DoubleSupplier) source).getAsDouble();
+    }
+
+    private static double scale(Family family, double value) {
+        return family.nanos ? value / 1e9 : value;
+    }
+
+    private static String format(double value) {
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            return "0";
+        }
+        return value == Math.rint(value) && Math.abs(value) < 1e15 ? Long.toString((long) value) : Double.toString(value);
+    }
+
+    private static String quote(String text) {
+        return '"' + text.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n") + '"';
+    }
+}
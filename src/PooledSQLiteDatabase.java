@@ -0,0 +1,209 @@
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * A thread-safe wrapper around one writer <code>SQLiteDatabase</code> and a pool of read-only ones,
+ * all opened on the same file in WAL mode so that readers never block, and are never blocked by,
+ * the writer. Each connection is only ever used by one thread at a time.
+ * <p>
+ * Writes can also be queued with <code>writeAsync</code>, which runs them in order on a background
+ * writer thread so that the caller can carry on while they run. Reads can be run on a pool of background
+ * reader threads with <code>readAsync</code>. Both sets of threads are platform threads, so virtual
+ * threads can use the database through them without pinning their carriers in the driver's native calls.
+ */
+public class PooledSQLiteDatabase implements AutoCloseable {
+	private static final int STATEMENT_CACHE_SIZE = 64;
+	private static final int MAX_QUEUED_WRITES = 64;
+	private static final Runnable STOP_WRITING = () -> { };
+	private final SQLiteDatabase writer;
+	private final ReentrantLock writeLock = new ReentrantLock();
+	private final BlockingQueue<SQLiteDatabase> readers;
+	private final List<SQLiteDatabase> allReaders = new ArrayList<>();
+	private final BlockingQueue<Runnable> queuedWrites = new ArrayBlockingQueue<>(MAX_QUEUED_WRITES);
+	private Thread asyncWriter = null;
+	private ExecutorService asyncReaders = null;
+
+	/**
+	 * Constructs a <code>PooledSQLiteDatabase</code> with the default pragmas.
+	 * @param dbFilePath The SQLite file to connect to.
+	 * @param readerCount The number of read-only connections to open.
+	 */
+	public PooledSQLiteDatabase(String dbFilePath, Consumer<SQLException> errorHandler, int readerCount) {
+		this(dbFilePath, errorHandler, readerCount, SQLitePragmas.DEFAULT);
+	}
+
+	/**
+	 * Constructs a <code>PooledSQLiteDatabase</code>.
+	 * @param dbFilePath The SQLite file to connect to.
+	 * @param readerCount The number of read-only connections to open.
+	 * @param pragmas The pragmas to apply to every connection. The journal mode should be <code>WAL</code>,
+	 *                otherwise readers and the writer will still block each other.
+	 */
+	public PooledSQLiteDatabase(String dbFilePath, Consumer<SQLException> errorHandler, int readerCount, SQLitePragmas pragmas) {
+		if (readerCount < 1) {
+			throw new IllegalArgumentException("readerCount must be positive");
+		}
+
+		// The writer is opened first so that it switches the file to the configured journal mode
+		writer = new SQLiteDatabase(dbFilePath, errorHandler, STATEMENT_CACHE_SIZE, pragmas, false);
+		readers = new ArrayBlockingQueue<>(readerCount);
+
+		for (int i = 0; i < readerCount; i++) {
+			SQLiteDatabase reader = new SQLiteDatabase(dbFilePath, errorHandler, STATEMENT_CACHE_SIZE, pragmas, true);
+			allReaders.add(reader);
+			readers.add(reader);
+		}
+	}
+
+	/**
+	 * Runs the given function with a read-only connection, waiting for one to become free if necessary.
+	 * Any <code>ResultSet</code> obtained from the connection must be closed before the function returns.
+	 * @param function The function to run.
+	 * @return The value returned by the function.
+	 */
+	public <T> T read(Function<SQLiteDatabase, T> function) throws InterruptedException {
+		SQLiteDatabase reader = readers.take();
+		try {
+			return function.apply(reader);
+		} finally {
+			readers.add(reader);
+		}
+	}
+
+	/**
+	 * Runs the given function with the writer connection. Only one thread may write at a time,
+	 * so other writers wait until the function returns.
+	 * Anything obtained from the connection, such as a <code>SQLiteDatabase.Batch</code>, must
+	 * only be used inside a call to this method.
+	 * @param function The function to run.
+	 * @return The value returned by the function.
+	 */
+	public <T> T write(Function<SQLiteDatabase, T> function) {
+		writeLock.lock();
+		try {
+			return function.apply(writer);
+		} finally {
+			writeLock.unlock();
+		}
+	}
+
+	/**
+	 * Queues the given function to run with the writer connection on a background thread and returns
+	 * without waiting for it. Queued functions run one at a time in the order they were queued, taking
+	 * turns with calls to <code>write</code>. If too many writes are already queued, the caller waits
+	 * for room, so a caller that produces writes faster than the database takes them is held to its pace.
+	 * The same rules as for <code>write</code> apply to anything obtained from the connection.
+	 * @param function The function to run.
+	 * @return A future completed with the value returned by the function, or with what it threw. If the
+	 * caller is interrupted while waiting for room, the function is not queued and the future is completed
+	 * with the <code>InterruptedException</code>.
+	 */
+	public <T> CompletableFuture<T> writeAsync(Function<SQLiteDatabase, T> function) {
+		CompletableFuture<T> future = new CompletableFuture<>();
+		startAsyncWriter();
+
+		try {
+			queuedWrites.put(() -> {
+				try {
+					future.complete(write(function));
+				} catch (RuntimeException | Error e) {
+					future.completeExceptionally(e);
+				}
+			});
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			future.completeExceptionally(e);
+		}
+
+		return future;
+	}
+
+	/**
+	 * Runs the given function with a read-only connection on a background reader thread and returns
+	 * without waiting for it. There is one reader thread per read-only connection. The same rules as for
+	 * <code>read</code> apply to anything obtained from the connection.
+	 * @param function The function to run.
+	 * @return A future completed with the value returned by the function, or with what it threw.
+	 */
+	public <T> CompletableFuture<T> readAsync(Function<SQLiteDatabase, T> function) {
+		return CompletableFuture.supplyAsync(() -> {
+			try {
+				return read(function);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new CompletionException(e);
+			}
+		}, getAsyncReaders());
+	}
+
+	/**
+	 * @return The number of writes queued by <code>writeAsync</code> that have not started yet.
+	 */
+	public int getQueuedWrites() {
+		return queuedWrites.size();
+	}
+
+	private synchronized void startAsyncWriter() {
+		if (asyncWriter == null) {
+			// A platform thread, since the driver's native calls, fsync included, would pin a virtual thread to its carrier
+			asyncWriter = Thread.ofPlatform().name("sqlite-writer").daemon().start(this::runQueuedWrites);
+		}
+	}
+
+	private synchronized ExecutorService getAsyncReaders() {
+		if (asyncReaders == null) {
+			// Platform threads for the same reason as the writer thread
+			asyncReaders = Executors.newFixedThreadPool(allReaders.size(), Thread.ofPlatform().name("sqlite-reader-", 0).daemon().factory());
+		}
+		return asyncReaders;
+	}
+
+	private void runQueuedWrites() {
+		try {
+			Runnable write;
+			while ((write = queuedWrites.take()) != STOP_WRITING) {
+				write.run();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Waits for any writes queued by <code>writeAsync</code>, then closes the writer and every reader.
+	 * Any other reads or writes still running, including those started by <code>readAsync</code>, must
+	 * have finished first.
+	 */
+	@Override
+	public void close() {
+		Thread writerThread;
+		synchronized (this) {
+			writerThread = asyncWriter;
+			if (asyncReaders != null) {
+				asyncReaders.shutdown();
+			}
+		}
+
+		if (writerThread != null) {
+			try {
+				queuedWrites.put(STOP_WRITING);
+				writerThread.join();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+
+		allReaders.forEach(SQLiteDatabase::close);
+		writer.close();
+	}
+}
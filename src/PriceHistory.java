@@ -0,0 +1,190 @@
+import java.io.ByteArrayOutputStream;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * An append-only history of the cheapest price seen for each itinerary, i.e. each (from city, to city,
+ * departure date, return date, nonstop) combination, kept across runs in the <code>price_history</code> table.
+ * <p>
+ * Observations are stored in chunks of up to <code>CHUNK_SIZE</code> per row. A chunk's data is a sequence
+ * of (seconds since the previous observation, change in price in cents) pairs, each a zigzag varint, with
+ * the first observation relative to the chunk's <code>first_observed</code> time and a price of 0. A price
+ * that is unchanged since the last run and observed about a day later costs 4 bytes, against about 60 for
+ * a row per observation. Reading a time range only decodes the chunks that overlap it.
+ * <p>
+ * Not thread-safe; with a <code>PooledSQLiteDatabase</code>, only record inside <code>write</code>.
+ */
+public class PriceHistory {
+    /**
+     * One observed price.
+     * @param observedAt When the price was observed, to the second.
+     * @param price The price.
+     */
+    public record PricePoint(Instant observedAt, double price) { }
+
+    static final int CHUNK_SIZE = 256;
+
+    private static final String CITY_IDS = "(SELECT id FROM cities WHERE name = ?), (SELECT id FROM cities WHERE name = ?)";
+    private static final String ITINERARY = "from_city_id = (SELECT id FROM cities WHERE name = ?) AND to_city_id = (SELECT id FROM cities WHERE name = ?) " +
+            "AND from_date = ? AND to_date = ? AND nonstop = ?";
+    private static final String SELECT_LAST_CHUNK = "SELECT first_observed, last_observed, last_price, observations, data FROM price_history " +
+            "WHERE " + ITINERARY + " ORDER BY first_observed DESC LIMIT 1";
+    private static final String INSERT_CHUNK = "INSERT INTO price_history (from_city_id, to_city_id, from_date, to_date, nonstop, " +
+            "first_observed, last_observed, last_price, observations, data) VALUES (" + CITY_IDS + ", ?, ?, ?, ?, ?, ?, 1, ?)";
+    private static final String APPEND_TO_CHUNK = "UPDATE price_history SET last_observed = ?, last_price = ?, observations = observations + 1, data = ? " +
+            "WHERE " + ITINERARY + " AND first_observed = ?";
+    private static final String SELECT_RANGE = "SELECT first_observed, data FROM price_history " +
+            "WHERE " + ITINERARY + " AND first_observed <= ? AND last_observed >= ? ORDER BY first_observed";
+
+    private final SQLiteDatabase database;
+
+    /**
+     * Constructs a <code>PriceHistory</code>.
+     * @param database The database to read from and write to, at the current <code>FlightSchema</code> version.
+     */
+    public PriceHistory(SQLiteDatabase database) {
+        this.database = database;
+    }
+
+    /**
+     * Records the cheapest nonstop flight and the cheapest flight overall among the flights found by one
+     * search. Nothing is recorded for a kind of flight the search did not find.
+     * @param task The search.
+     * @param flights The flights it found.
+     * @param observedAt When the search ran.
+     */
+    public void record(ScrapeTask task, List<Flight> flights, Instant observedAt) {
+        double cheapest = Double.MAX_VALUE, cheapestNonstop = Double.MAX_VALUE;
+        for (Flight flight : flights) {
+            cheapest = Math.min(cheapest, flight.getPrice());
+            if (flight.isNonstop()) {
+                cheapestNonstop = Math.min(cheapestNonstop, flight.getPrice());
+            }
+        }
+
+        if (cheapestNonstop != Double.MAX_VALUE) {
+            record(task.fromCity(), task.toCity(), task.fromDate(), task.toDate(), true, observedAt, cheapestNonstop);
+        }
+        if (cheapest != Double.MAX_VALUE) {
+            record(task.fromCity(), task.toCity(), task.fromDate(), task.toDate(), false, observedAt, cheapest);
+        }
+    }
+
+    /**
+     * Appends one observation to an itinerary's history. Both cities must already have been added with
+     * <code>FlightSchema.addCities</code>.
+     * @param nonstop Whether the price is for nonstop flights only, rather than for any flight.
+     * @param observedAt When the price was observed.
+     * @param price The price.
+     * @return Whether the observation was stored. It is skipped without an error if it is earlier than the
+     * itinerary's last observation, e.g. after the clock stepped back, so that it does not roll back the rest of
+     * the transaction it runs in. Otherwise, the database's error handler has been told why.
+     */
+    public boolean record(String fromCity, String toCity, LocalDate fromDate, LocalDate toDate, boolean nonstop, Instant observedAt, double price) {
+        long fromDay = fromDate.toEpochDay(), toDay = toDate.toEpochDay();
+        long seconds = observedAt.getEpochSecond(), cents = Math.round(price * 100);
+
+        long firstObserved = 0, lastObserved = 0, lastPrice = 0;
+        int observations = 0;
+        byte[] data = null;
+
+        try (ResultSet resultSet = database.queryPrepared(SELECT_LAST_CHUNK, fromCity, toCity, fromDay, toDay, nonstop)) {
+            if (resultSet == null) {
+                return false; // The database's error handler has already been told why
+            }
+            if (resultSet.next()) {
+                firstObserved = resultSet.getLong(1);
+                lastObserved = resultSet.getLong(2);
+                lastPrice = resultSet.getLong(3);
+                observations = resultSet.getInt(4);
+                data = resultSet.getBytes(5);
+            }
+        } catch (SQLException e) {
+            // Reported so that a surrounding transaction rolls back instead of committing without this observation
+            database.reportError(e);
+            return false;
+        }
+
+        if (data != null && seconds < lastObserved) {
+            return false;
+        }
+
+        if (data == null || observations >= CHUNK_SIZE) {
+            byte[] chunk = appendObservation(new byte[0], 0, 0, cents);
+            return database.updatePrepared(INSERT_CHUNK, fromCity, toCity, fromDay, toDay, nonstop, seconds, seconds, cents, chunk) == 1;
+        }
+
+        byte[] chunk = appendObservation(data, seconds - lastObserved, lastPrice, cents);
+        return database.updatePrepared(APPEND_TO_CHUNK, seconds, cents, chunk, fromCity, toCity, fromDay, toDay, nonstop, firstObserved) == 1;
+    }
+
+    /**
+     * Reads the observations of an itinerary within a time range, oldest first.
+     * @param nonstop Whether to read the nonstop price history rather than the history for any flight.
+     * @param from The start of the range, inclusive.
+     * @param to The end of the range, inclusive.
+     * @return The observations in the range, which is empty if there are none. If the database reported an error,
+     * it holds the observations read before the error, which may be none.
+     */
+    public List<PricePoint> read(String fromCity, String toCity, LocalDate fromDate, LocalDate toDate, boolean nonstop, Instant from, Instant to) {
+        List<PricePoint> points = new ArrayList<>();
+        long fromSeconds = from.getEpochSecond(), toSeconds = to.getEpochSecond();
+
+        try (ResultSet resultSet = database.queryPrepared(SELECT_RANGE, fromCity, toCity, fromDate.toEpochDay(), toDate.toEpochDay(), nonstop, toSeconds, fromSeconds)) {
+            if (resultSet == null) {
+                return points;
+            }
+
+            while (resultSet.next()) {
+                long seconds = resultSet.getLong(1), cents = 0;
+                byte[] data = resultSet.getBytes(2);
+
+                for (int[] position = { 0 }; position[0] < data.length; ) {
+                    seconds += Varints.readZigzag(data, position);
+                    cents += Varints.readZigzag(data, position);
+                    if (seconds >= fromSeconds && seconds <= toSeconds) {
+                        points.add(new PricePoint(Instant.ofEpochSecond(seconds), cents / 100.0));
+                    }
+                }
+            }
+        } catch (SQLException e) {
+            database.reportError(e);
+        }
+
+        return points;
+    }
+
+    /**
+     * Reads the observations of an itinerary from the given number of days before <code>now</code>.
+     * @return The observations, oldest first.
+     */
+    public List<PricePoint> readLastDays(String fromCity, String toCity, LocalDate fromDate, LocalDate toDate, boolean nonstop, Instant now, int days) {
+        return read(fromCity, toCity, fromDate, toDate, nonstop, now.minusSeconds(days * 86_400L), now);
+    }
+
+    /**
+     * Returns the total size of the encoded observations and the number of observations stored, for
+     * measuring how compact the history is.
+     * @return <code>{bytes, observations}</code>.
+     */
+    long[] getStorageStats() throws SQLException {
+        try (ResultSet resultSet = database.query("SELECT COALESCE(SUM(length(data)), 0), COALESCE(SUM(observations), 0) FROM price_history")) {
+            resultSet.next();
+            long[] stats = { resultSet.getLong(1), resultSet.getLong(2) };
+            resultSet.getStatement().close();
+            return stats;
+        }
+    }
+
+    private static byte[] appendObservation(byte[] data, long secondsDelta, long previousCents, long cents) {
+        ByteArrayOutputStream output = new ByteArrayOutputStream(data.length + 8);
+        output.writeBytes(data);
+        Varints.writeZigzag(output, secondsDelta);
+        Varints.writeZigzag(output, cents - previousCents);
+        return output.toByteArray();
+    }
+}
@@ -0,0 +1,123 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Parses the result cards extracted from a search results page in one <code>executeScript</code> call
+ * (see <code>SeleniumBackend</code>). Prices and stop counts are scanned character by character instead
+ * of with <code>replaceAll</code> and <code>split</code>, and a card with a missing field fails straight away.
+ */
+public final class ResultCardParser {
+    /**
+     * The script run in the page. It returns <code>{noDirectFlights: boolean, cards: [[price, stops0, stops1], ...]}</code>,
+     * where each text is the element's rendered text, or <code>null</code> if the card has no such element.
+     */
+    static final String EXTRACT_SCRIPT = """
+            const text = (card, selector) => {
+                const element = card.querySelector(selector);
+                return element === null ? null : element.innerText;
+            };
+            return {
+                noDirectFlights: document.querySelector('[data-testid="no_direct_flights_banner"]') !== null,
+                cards: Array.from(document.querySelectorAll('[data-testid="searchresults_card"]'), card => [
+                    text(card, '[class*=FlightCardPrice-module__priceContainer]'),
+                    text(card, '[data-testid=flight_card_segment_stops_0]'),
+                    text(card, '[data-testid=flight_card_segment_stops_1]')
+                ])
+            };
+            """;
+
+    private ResultCardParser() {
+    }
+
+    /**
+     * Parses the value returned by <code>EXTRACT_SCRIPT</code>.
+     * @param payload The value returned by the script, as converted by WebDriver.
+     * @param nonstopRequested Whether only direct flights were asked for.
+     * @return The parsed page.
+     * @throws IllegalArgumentException If the payload is malformed or a card is missing a field.
+     */
+    @SuppressWarnings("unchecked")
+    public static SearchPage parse(Object payload, boolean nonstopRequested) {
+        if (!(payload instanceof Map<?, ?> map) || !(map.get("cards") instanceof List<?> rawCards)) {
+            throw new IllegalArgumentException("Unexpected result card payload: " + payload);
+        }
+
+        List<FareCard> cards = new ArrayList<>(rawCards.size());
+        for (int i = 0; i < rawCards.size(); i++) {
+            List<Object> fields = (List<Object>) rawCards.get(i);
+            cards.add(new FareCard(
+                    parsePrice(field(fields, 0, "price", i)),
+                    parseStops(field(fields, 1, "outbound stops", i)),
+                    parseStops(field(fields, 2, "return stops", i))
+            ));
+        }
+
+        boolean noDirectFlights = nonstopRequested && Boolean.TRUE.equals(map.get("noDirectFlights"));
+        return new SearchPage(cards, noDirectFlights);
+    }
+
+    /**
+     * Parses a price such as <code>$1,234.56</code>, ignoring any currency symbol, whitespace and thousands separators.
+     * @param text The price text.
+     * @return The price.
+     */
+    static double parsePrice(String text) {
+        long whole = 0, fraction = 0, fractionScale = 1;
+        boolean seenDigit = false, inFraction = false;
+
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c >= '0' && c <= '9') {
+                seenDigit = true;
+                if (inFraction) {
+                    fraction = fraction * 10 + (c - '0');
+                    fractionScale *= 10;
+                } else {
+                    whole = whole * 10 + (c - '0');
+                }
+            } else if (c == '.' && seenDigit && !inFraction) {
+                inFraction = true;
+            } else if (c == ',' && seenDigit && !inFraction) {
+                continue;
+            } else if (seenDigit) {
+                break;
+            }
+        }
+
+        if (!seenDigit) {
+            throw new IllegalArgumentException("No price in \"" + text + "\"");
+        }
+        // A single division of two exact integers rounds the same way Double.parseDouble does
+        return (double) (whole * fractionScale + fraction) / fractionScale;
+    }
+
+    /**
+     * Parses a stop count such as <code>Direct</code>, <code>1 stop</code> or <code>2 stops</code>.
+     * @param text The stops text.
+     * @return The number of stops.
+     */
+    static int parseStops(String text) {
+        if (text.equals("Direct")) {
+            return 0;
+        }
+
+        int stops = 0, i = 0;
+        while (i < text.length() && text.charAt(i) >= '0' && text.charAt(i) <= '9') {
+            stops = stops * 10 + (text.charAt(i++) - '0');
+        }
+
+        if (i == 0) {
+            throw new IllegalArgumentException("No stop count in \"" + text + "\"");
+        }
+        return stops;
+    }
+
+    private static String field(List<Object> fields, int index, String name, int card) {
+        Object value = index < fields.size() ? fields.get(index) : null;
+        if (value == null) {
+            throw new IllegalArgumentException("Result card " + card + " has no " + name);
+        }
+        return value.toString().trim();
+    }
+}
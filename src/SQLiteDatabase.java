@@ -1,24 +1,92 @@
 import java.sql.*;
+import java.time.Clock;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Spliterator;
+import java.util.Spliterators;
 import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 public class SQLiteDatabase implements AutoCloseable {
 	private static final int TIMEOUT = 3;
+	private static final int DEFAULT_STATEMENT_CACHE_SIZE = 64;
+	private static final int DEFAULT_FETCH_SIZE = 1000;
 	private Connection connection = null;
 	private final Consumer<SQLException> errorHandler;
+	private int errorCount = 0;
+	private final StatementCache statementCache;
 
 	/**
 	 * Constructs an <code>SQLiteDatabase</code>.
 	 * @param dbFilePath The SQLite file to connect to.
 	 */
 	public SQLiteDatabase(String dbFilePath, Consumer<SQLException> errorHandler) {
-		this.errorHandler = errorHandler;
+		this(dbFilePath, errorHandler, DEFAULT_STATEMENT_CACHE_SIZE);
+	}
+
+	/**
+	 * Constructs an <code>SQLiteDatabase</code>.
+	 * @param dbFilePath The SQLite file to connect to.
+	 * @param statementCacheSize The maximum number of prepared statements to keep open for reuse, at least 1.
+	 */
+	public SQLiteDatabase(String dbFilePath, Consumer<SQLException> errorHandler, int statementCacheSize) {
+		this(dbFilePath, errorHandler, statementCacheSize, null, false);
+	}
+
+	/**
+	 * Constructs an <code>SQLiteDatabase</code> and applies the given pragmas to its connection.
+	 * @param dbFilePath The SQLite file to connect to.
+	 * @param statementCacheSize The maximum number of prepared statements to keep open for reuse, at least 1.
+	 * @param pragmas The pragmas to apply, or <code>null</code> to keep SQLite's defaults.
+	 * @param readOnly Whether this connection should reject any statement that writes to the database.
+	 */
+	public SQLiteDatabase(String dbFilePath, Consumer<SQLException> errorHandler, int statementCacheSize, SQLitePragmas pragmas, boolean readOnly) {
+		if (statementCacheSize < 1) {
+			throw new IllegalArgumentException("statementCacheSize must be positive");
+		}
+
+		// Counting errors lets transaction() tell whether anything inside it failed
+		this.errorHandler = e -> {
+			errorCount++;
+			errorHandler.accept(e);
+		};
+		this.statementCache = new StatementCache(statementCacheSize);
 		try {
 			connection = DriverManager.getConnection("jdbc:sqlite:" + dbFilePath);
+
+			try (Statement statement = connection.createStatement()) {
+				if (pragmas != null) {
+					// The busy timeout goes first so that switching journal modes waits for other connections
+					statement.execute("PRAGMA busy_timeout = " + pragmas.busyTimeoutMillis());
+					if (!readOnly) {
+						statement.execute("PRAGMA journal_mode = " + pragmas.journalMode());
+					}
+					statement.execute("PRAGMA synchronous = " + pragmas.synchronous());
+					statement.execute("PRAGMA cache_size = " + pragmas.cacheSize());
+					statement.execute("PRAGMA mmap_size = " + pragmas.mmapSize());
+				}
+				if (readOnly) {
+					statement.execute("PRAGMA query_only = true");
+				}
+			}
 		} catch (SQLException e) {
 			errorHandler.accept(e);
 		}
 	}
 
+	/**
+	 * Passes an exception thrown while reading a <code>ResultSet</code> from this database to the
+	 * error handler, counting it like any other error so that a surrounding <code>transaction</code>
+	 * rolls back.
+	 * @param e The exception to report.
+	 */
+	public void reportError(SQLException e) {
+		errorHandler.accept(e);
+	}
+
 	/**
 	 * Executes the given SQL query and returns the generated <code>ResultSet</code>.
 	 * The caller of this method is expected to close the returned <code>ResultSet</code>'s
@@ -40,15 +108,25 @@ public class SQLiteDatabase implements AutoCloseable {
 	/**
 	 * Executes the given SQL query with the given parameters and returns the generated
 	 * <code>ResultSet</code>. The caller of this method is expected to close the returned
-	 * <code>ResultSet</code>'s underlying <code>Statement</code> by calling
-	 * <code>resultSet.getStatement().close()</code>.
+	 * <code>ResultSet</code>, since the underlying <code>PreparedStatement</code> is cached and reused.
+	 * While the <code>ResultSet</code> is open its statement is pinned: running the same SQL string
+	 * again prepares a separate statement instead of resetting it, and evicting it from the cache
+	 * only closes it once the <code>ResultSet</code> is closed. A <code>ResultSet</code> that is read
+	 * to the end but never closed keeps its statement pinned. Closing the underlying statement
+	 * with <code>resultSet.getStatement().close()</code> is still allowed, but means the
+	 * statement has to be prepared again next time.
 	 * @param sql The SQL string to execute.
 	 * @param parameters The parameters to use.
 	 * @return The <code>ResultSet</code> which contains the data returned by the query.
 	 */
 	public ResultSet queryPrepared(String sql, Object... parameters) {
 		try {
-			return createPreparedStatement(sql, parameters).executeQuery();
+			PreparedStatement statement = createPreparedStatement(sql, parameters);
+			ResultSet resultSet = statement.executeQuery();
+			if (!statement.isCloseOnCompletion()) {
+				statementCache.openResults.put(statement, resultSet);
+			}
+			return resultSet;
 		} catch (SQLException e) {
 			errorHandler.accept(e);
 			return null;
@@ -83,7 +161,10 @@ public class SQLiteDatabase implements AutoCloseable {
 		try {
 			PreparedStatement statement = createPreparedStatement(sql, parameters);
 			int rowCount = statement.executeUpdate();
-			statement.close();
+			if (statement.isCloseOnCompletion()) {
+				// A one-off statement, since the cached one is pinned by an open ResultSet
+				statement.close();
+			}
 			return rowCount;
 		} catch (SQLException e) {
 			errorHandler.accept(e);
@@ -92,10 +173,158 @@ public class SQLiteDatabase implements AutoCloseable {
 	}
 
 	/**
-	 * Closes this <code>DB</code> by closing its underlying connection object.
+	 * Executes the given SQL statements in a single transaction. If any statement fails, the
+	 * transaction is rolled back and none of the statements take effect.
+	 * @param sqls The SQL strings to execute, in order.
+	 * @return Whether every statement succeeded and the transaction was committed.
+	 */
+	public boolean updateInTransaction(String... sqls) {
+		try {
+			connection.setAutoCommit(false);
+			// No query timeout here, since these are typically migrations that rewrite whole tables
+			try (Statement statement = connection.createStatement()) {
+				for (String sql : sqls) {
+					statement.executeUpdate(sql);
+				}
+				connection.commit();
+				return true;
+			} catch (SQLException e) {
+				connection.rollback();
+				errorHandler.accept(e);
+				return false;
+			} finally {
+				connection.setAutoCommit(true);
+			}
+		} catch (SQLException e) {
+			errorHandler.accept(e);
+			return false;
+		}
+	}
+
+	/**
+	 * Runs the given work in a single transaction. Every statement the work executes through this
+	 * <code>SQLiteDatabase</code> is committed together, or, if any of them reports an error, rolled back together.
+	 * @param work The work to run, which must not start or end transactions itself.
+	 * @return Whether the work succeeded and the transaction was committed.
+	 */
+	public boolean transaction(Runnable work) {
+		int errorsBefore = errorCount;
+		try {
+			connection.setAutoCommit(false);
+			try {
+				work.run();
+				if (errorCount == errorsBefore) {
+					connection.commit();
+					return true;
+				}
+				connection.rollback();
+				return false;
+			} catch (RuntimeException e) {
+				connection.rollback();
+				throw e;
+			} finally {
+				connection.setAutoCommit(true);
+			}
+		} catch (SQLException e) {
+			errorHandler.accept(e);
+			return false;
+		}
+	}
+
+	/**
+	 * Creates a <code>Batch</code> which inserts rows with the given SQL statement in batches.
+	 * Rows are buffered with <code>add</code> and written in a single transaction once
+	 * <code>maxRows</code> rows are pending or the oldest pending row is <code>maxMillis</code> old.
+	 * There is no timer behind the age limit, since this class is not thread-safe: it is checked by
+	 * <code>add</code> and <code>flushIfDue</code>, so a caller whose rows may stop arriving should call
+	 * <code>flushIfDue</code> periodically from the thread that owns this connection.
+	 * The caller is expected to close the returned <code>Batch</code>, which flushes any pending rows.
+	 * @param sql The SQL string to execute for every row.
+	 * @param maxRows The number of pending rows that triggers a flush.
+	 * @param maxMillis The age in milliseconds of the oldest pending row that triggers a flush.
+	 * @return The <code>Batch</code>, or <code>null</code> if the statement could not be prepared.
+	 */
+	public Batch batch(String sql, int maxRows, long maxMillis) {
+		return batch(sql, maxRows, maxMillis, Clock.systemUTC());
+	}
+
+	Batch batch(String sql, int maxRows, long maxMillis, Clock clock) {
+		try {
+			PreparedStatement statement = connection.prepareStatement(sql);
+			statement.setQueryTimeout(TIMEOUT);
+			return new Batch(statement, maxRows, maxMillis, clock);
+		} catch (SQLException e) {
+			errorHandler.accept(e);
+			return null;
+		}
+	}
+
+	/**
+	 * Executes the given SQL query with the given parameters and returns its rows as a lazily mapped
+	 * <code>Stream</code>, so any number of rows can be read in constant memory. The statement and
+	 * <code>ResultSet</code> are closed when the stream is exhausted or closed, whichever comes first;
+	 * callers that may stop early should use a try-with-resources block. The statement is prepared
+	 * for this stream alone and has no query timeout, since it lives as long as the stream does.
+	 * An error while reading a row is passed to the error handler and ends the stream.
+	 * @param sql The SQL string to execute.
+	 * @param mapper Maps the current row of the <code>ResultSet</code> to a value.
+	 * @param parameters The parameters to use.
+	 * @return The mapped rows, or an empty stream if the query could not be run.
+	 */
+	public <T> Stream<T> stream(String sql, RowMapper<? extends T> mapper, Object... parameters) {
+		PreparedStatement statement = null;
+		try {
+			statement = connection.prepareStatement(sql);
+			statement.setFetchSize(DEFAULT_FETCH_SIZE);
+			for (int i = 0; i < parameters.length; i++) {
+				statement.setObject(i + 1, parameters[i]);
+			}
+
+			RowSpliterator<T> rows = new RowSpliterator<>(statement, statement.executeQuery(), mapper);
+			return StreamSupport.stream(rows, false).onClose(rows::close);
+		} catch (SQLException e) {
+			errorHandler.accept(e);
+			if (statement != null) {
+				try {
+					statement.close();
+				} catch (SQLException closeException) {
+					errorHandler.accept(closeException);
+				}
+			}
+			return Stream.empty();
+		}
+	}
+
+	/**
+	 * Returns the number of prepared statements that were reused from the statement cache.
+	 * @return The number of cache hits.
+	 */
+	public long getStatementCacheHits() {
+		return statementCache.hits;
+	}
+
+	/**
+	 * Returns the number of prepared statements that had to be prepared because they were not cached.
+	 * @return The number of cache misses.
+	 */
+	public long getStatementCacheMisses() {
+		return statementCache.misses;
+	}
+
+	/**
+	 * Returns the number of prepared statements closed to make room in the statement cache.
+	 * @return The number of cache evictions.
+	 */
+	public long getStatementCacheEvictions() {
+		return statementCache.evictions;
+	}
+
+	/**
+	 * Closes this <code>DB</code> by closing its cached statements and underlying connection object.
 	 */
 	@Override
 	public void close() {
+		statementCache.clear();
 		try {
 			connection.close();
 		} catch (SQLException e) {
@@ -104,15 +333,33 @@ public class SQLiteDatabase implements AutoCloseable {
 	}
 
 	/**
-	 * Creates a <code>PreparedStatement</code> from an SQL string and a list of parameters.
+	 * Creates a <code>PreparedStatement</code> from an SQL string and a list of parameters,
+	 * reusing a cached statement for the same SQL string if one is open. If the cached statement
+	 * is pinned by an open <code>ResultSet</code>, a one-off statement is prepared instead, marked
+	 * with <code>closeOnCompletion</code> so that it closes along with its own <code>ResultSet</code>.
 	 * @param sql The SQL string to use.
 	 * @param parameters The parameters to use.
 	 * @return The <code>PreparedStatement</code> with the given SQL string and parameters.
 	 */
 	private PreparedStatement createPreparedStatement(String sql, Object... parameters) {
 		try {
-			PreparedStatement statement = connection.prepareStatement(sql);
-			statement.setQueryTimeout(TIMEOUT);
+			PreparedStatement statement = statementCache.get(sql);
+
+			if (statement != null && statementCache.isPinned(statement)) {
+				statementCache.misses++;
+				statement = connection.prepareStatement(sql);
+				statement.setQueryTimeout(TIMEOUT);
+				statement.closeOnCompletion();
+			} else if (statement == null || statement.isClosed()) {
+				statementCache.openResults.remove(statement);
+				statementCache.misses++;
+				statement = connection.prepareStatement(sql);
+				statement.setQueryTimeout(TIMEOUT);
+				statementCache.put(sql, statement);
+			} else {
+				statementCache.hits++;
+				statement.clearParameters();
+			}
 
 			for (int i = 0; i < parameters.length; i++) {
 				statement.setObject(i + 1, parameters[i]);
@@ -124,4 +371,264 @@ public class SQLiteDatabase implements AutoCloseable {
 			return null;
 		}
 	}
-}
\ No newline at end of file
+
+	/**
+	 * A least recently used cache of open prepared statements, keyed by SQL string, along with the
+	 * last <code>ResultSet</code> each of them returned.
+	 */
+	private class StatementCache {
+		private final int maxSize;
+		// In access order, so the least recently used statement comes first
+		private final LinkedHashMap<String, PreparedStatement> statements = new LinkedHashMap<>(16, 0.75f, true);
+		private final Map<PreparedStatement, ResultSet> openResults = new IdentityHashMap<>();
+		private long hits = 0, misses = 0, evictions = 0;
+
+		private StatementCache(int maxSize) {
+			this.maxSize = maxSize;
+		}
+
+		private PreparedStatement get(String sql) {
+			return statements.get(sql);
+		}
+
+		private void put(String sql, PreparedStatement statement) {
+			statements.put(sql, statement);
+			if (statements.size() <= maxSize) {
+				return;
+			}
+
+			Iterator<PreparedStatement> eldest = statements.values().iterator();
+			PreparedStatement evicted = eldest.next();
+			eldest.remove();
+			evictions++;
+			closeStatement(evicted);
+		}
+
+		private void clear() {
+			statements.values().forEach(this::closeStatement);
+			statements.clear();
+		}
+
+		private boolean isPinned(PreparedStatement statement) throws SQLException {
+			ResultSet resultSet = openResults.get(statement);
+			return resultSet != null && !resultSet.isClosed();
+		}
+
+		private void closeStatement(PreparedStatement statement) {
+			try {
+				if (isPinned(statement)) {
+					// Left for the caller to close along with its ResultSet
+					statement.closeOnCompletion();
+				} else {
+					statement.close();
+				}
+			} catch (SQLException e) {
+				errorHandler.accept(e);
+			}
+			openResults.remove(statement);
+		}
+	}
+
+	/**
+	 * Maps the current row of a <code>ResultSet</code> to a value. A mapper may look up column indexes
+	 * on its first row and reuse them for the rest, since every row of a query has the same columns.
+	 */
+	@FunctionalInterface
+	public interface RowMapper<T> {
+		T map(ResultSet resultSet) throws SQLException;
+	}
+
+	/**
+	 * Walks a <code>ResultSet</code> one row at a time for <code>stream</code>, closing it along with its
+	 * statement once the last row has been read.
+	 */
+	private class RowSpliterator<T> extends Spliterators.AbstractSpliterator<T> {
+		private final PreparedStatement statement;
+		private final ResultSet resultSet;
+		private final RowMapper<? extends T> mapper;
+		private boolean closed = false;
+
+		private RowSpliterator(PreparedStatement statement, ResultSet resultSet, RowMapper<? extends T> mapper) {
+			super(Long.MAX_VALUE, Spliterator.ORDERED);
+			this.statement = statement;
+			this.resultSet = resultSet;
+			this.mapper = mapper;
+		}
+
+		@Override
+		public boolean tryAdvance(Consumer<? super T> action) {
+			if (closed) {
+				return false;
+			}
+
+			try {
+				if (!resultSet.next()) {
+					close();
+					return false;
+				}
+				action.accept(mapper.map(resultSet));
+				return true;
+			} catch (SQLException e) {
+				errorHandler.accept(e);
+				close();
+				return false;
+			}
+		}
+
+		private void close() {
+			if (closed) {
+				return;
+			}
+
+			closed = true;
+			try {
+				resultSet.close();
+				statement.close();
+			} catch (SQLException e) {
+				errorHandler.accept(e);
+			}
+		}
+	}
+
+	/**
+	 * A reusable prepared statement whose rows are written with <code>executeBatch</code>
+	 * inside an explicit transaction, so a whole batch costs a single commit.
+	 */
+	public class Batch implements AutoCloseable {
+		private final PreparedStatement statement;
+		private final int maxRows;
+		private final long maxMillis;
+		private final Clock clock;
+		private int pendingRows = 0;
+		private long oldestPendingMillis;
+
+		private Batch(PreparedStatement statement, int maxRows, long maxMillis, Clock clock) {
+			this.statement = statement;
+			this.maxRows = maxRows;
+			this.maxMillis = maxMillis;
+			this.clock = clock;
+		}
+
+		/**
+		 * Adds a row with the given parameters to this batch, flushing the batch if it is full or due.
+		 * @param parameters The parameters to use.
+		 */
+		public void add(Object... parameters) {
+			try {
+				for (int i = 0; i < parameters.length; i++) {
+					statement.setObject(i + 1, parameters[i]);
+				}
+				statement.addBatch();
+			} catch (SQLException e) {
+				errorHandler.accept(e);
+				return;
+			}
+
+			if (pendingRows++ == 0) {
+				oldestPendingMillis = clock.millis();
+			}
+
+			if (pendingRows >= maxRows || clock.millis() - oldestPendingMillis >= maxMillis) {
+				flush();
+			}
+		}
+
+		/**
+		 * Writes all pending rows in a single transaction and returns the number of rows affected.
+		 * If the batch fails, the transaction is rolled back and no pending rows are written.
+		 * When called inside <code>transaction</code>, the rows become part of that transaction instead.
+		 * @return The number of rows affected.
+		 */
+		public int flush() {
+			if (pendingRows == 0) {
+				return 0;
+			}
+
+			int rowCount = 0;
+			boolean ownTransaction = true;
+			try {
+				// Inside transaction(), the rows are committed or rolled back with the rest of it
+				ownTransaction = connection.getAutoCommit();
+				if (ownTransaction) {
+					connection.setAutoCommit(false);
+				}
+				for (int count : statement.executeBatch()) {
+					rowCount += Math.max(count, 0);
+				}
+				if (ownTransaction) {
+					connection.commit();
+				}
+			} catch (SQLException e) {
+				rowCount = 0;
+				if (ownTransaction) {
+					rollback();
+				}
+				errorHandler.accept(e);
+			} finally {
+				pendingRows = 0;
+				try {
+					statement.clearBatch();
+					if (ownTransaction) {
+						connection.setAutoCommit(true);
+					}
+				} catch (SQLException e) {
+					errorHandler.accept(e);
+				}
+			}
+
+			return rowCount;
+		}
+
+		/**
+		 * Flushes the pending rows if the oldest of them is at least <code>maxMillis</code> old.
+		 * @return The number of rows affected, 0 if nothing was due.
+		 */
+		public int flushIfDue() {
+			if (pendingRows == 0 || clock.millis() - oldestPendingMillis < maxMillis) {
+				return 0;
+			}
+			return flush();
+		}
+
+		/**
+		 * Drops the pending rows without writing them.
+		 */
+		public void clear() {
+			pendingRows = 0;
+			try {
+				statement.clearBatch();
+			} catch (SQLException e) {
+				errorHandler.accept(e);
+			}
+		}
+
+		/**
+		 * Returns the number of rows waiting to be flushed.
+		 * @return The number of pending rows.
+		 */
+		public int getPendingRows() {
+			return pendingRows;
+		}
+
+		/**
+		 * Flushes any pending rows and closes the underlying statement.
+		 */
+		@Override
+		public void close() {
+			flush();
+			try {
+				statement.close();
+			} catch (SQLException e) {
+				errorHandler.accept(e);
+			}
+		}
+
+		private void rollback() {
+			try {
+				connection.rollback();
+			} catch (SQLException e) {
+				errorHandler.accept(e);
+			}
+		}
+	}
+}
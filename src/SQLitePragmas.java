@@ -0,0 +1,41 @@
+/**
+ * Connection settings applied with <code>PRAGMA</code> statements when an <code>SQLiteDatabase</code> is opened.
+ * @param journalMode The journal mode, e.g. <code>WAL</code> or <code>DELETE</code>.
+ * @param synchronous How often SQLite syncs to disk, e.g. <code>NORMAL</code> or <code>FULL</code>.
+ * @param cacheSize The page cache size, in pages if positive or in KiB if negative.
+ * @param mmapSize The maximum number of bytes of the database file to memory-map.
+ * @param busyTimeoutMillis How long to wait for a lock held by another connection before failing.
+ */
+public record SQLitePragmas(String journalMode, String synchronous, int cacheSize, long mmapSize, int busyTimeoutMillis) {
+    /**
+     * WAL journaling with <code>synchronous=NORMAL</code>, a 16 MiB page cache, 256 MiB of
+     * memory-mapped I/O and a 5 second busy timeout.
+     */
+    public static final SQLitePragmas DEFAULT = new SQLitePragmas("WAL", "NORMAL", -16_000, 256L << 20, 5_000);
+
+    public SQLitePragmas {
+        if (!journalMode.matches("[A-Za-z]+") || !synchronous.matches("[A-Za-z0-9]+")) {
+            throw new IllegalArgumentException("Invalid journal mode or synchronous setting");
+        }
+    }
+
+    public SQLitePragmas withJournalMode(String journalMode) {
+        return new SQLitePragmas(journalMode, synchronous, cacheSize, mmapSize, busyTimeoutMillis);
+    }
+
+    public SQLitePragmas withSynchronous(String synchronous) {
+        return new SQLitePragmas(journalMode, synchronous, cacheSize, mmapSize, busyTimeoutMillis);
+    }
+
+    public SQLitePragmas withCacheSize(int cacheSize) {
+        return new SQLitePragmas(journalMode, synchronous, cacheSize, mmapSize, busyTimeoutMillis);
+    }
+
+    public SQLitePragmas withMmapSize(long mmapSize) {
+        return new SQLitePragmas(journalMode, synchronous, cacheSize, mmapSize, busyTimeoutMillis);
+    }
+
+    public SQLitePragmas withBusyTimeoutMillis(int busyTimeoutMillis) {
+        return new SQLitePragmas(journalMode, synchronous, cacheSize, mmapSize, busyTimeoutMillis);
+    }
+}
@@ -0,0 +1,205 @@
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A persistent cache of search results, keyed by the search URL and stored in the
+ * <code>scrape_cache</code> table, which <code>FlightSchema.migrate</code> creates. Entries older than the time-to-live are treated as missing, and
+ * once the cache holds more than its maximum number of entries the oldest ones are deleted.
+ * <p>
+ * Only prices and nonstop flags are stored, since the cities and dates are part of the URL.
+ * <p>
+ * Lookups and stores run on the database's own platform threads, through <code>readAsync</code> and
+ * <code>writeAsync</code>, so scrape workers on virtual threads only park while waiting for them.
+ */
+public class ScrapeCache {
+    private final PooledSQLiteDatabase database;
+    private final Duration timeToLive;
+    private final int maxEntries;
+    private final Clock clock;
+    private final AtomicLong hits = new AtomicLong(), misses = new AtomicLong(), expired = new AtomicLong();
+    private final AtomicLong entryCount = new AtomicLong();
+
+    /**
+     * Constructs a <code>ScrapeCache</code>.
+     * @param database The database to store the cache in, which must already be migrated with
+     * <code>FlightSchema.migrate</code>.
+     * @param timeToLive How long a cached result stays fresh.
+     * @param maxEntries The maximum number of results to keep.
+     */
+    public ScrapeCache(PooledSQLiteDatabase database, Duration timeToLive, int maxEntries) {
+        this(database, timeToLive, maxEntries, Clock.systemUTC());
+    }
+
+    ScrapeCache(PooledSQLiteDatabase database, Duration timeToLive, int maxEntries, Clock clock) {
+        if (maxEntries < 1) {
+            throw new IllegalArgumentException("maxEntries must be positive");
+        }
+
+        this.database = database;
+        this.timeToLive = timeToLive;
+        this.maxEntries = maxEntries;
+        this.clock = clock;
+
+        database.write(db -> {
+            try (ResultSet resultSet = db.query("SELECT COUNT(*) FROM scrape_cache")) {
+                resultSet.next();
+                entryCount.set(resultSet.getLong(1));
+                resultSet.getStatement().close();
+            } catch (SQLException e) {
+                throw new IllegalStateException("Could not read the scrape cache size", e);
+            }
+            return null;
+        });
+    }
+
+    /**
+     * Returns the cached flights for the given search, if a fresh result is cached.
+     * @param url The search URL, as built by <code>FlightDataAPI.buildUrl</code>.
+     * @return The cached flights, or <code>null</code> if there is no fresh result.
+     */
+    public List<Flight> get(String url, String fromCity, String toCity, LocalDate fromDate, LocalDate toDate) {
+        String[] entry;
+
+        try {
+            entry = database.readAsync(db -> {
+                try (ResultSet resultSet = db.queryPrepared("SELECT fetched_at, results FROM scrape_cache WHERE url = ?", url)) {
+                    return resultSet.next() ? new String[] { resultSet.getString(1), resultSet.getString(2) } : null;
+                } catch (SQLException e) {
+                    // Still a miss, so the search is loaded again, but not a silent one
+                    db.reportError(e);
+                    return null;
+                }
+            }).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            entry = null;
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Could not read the scrape cache", e.getCause());
+        }
+
+        if (entry == null) {
+            misses.incrementAndGet();
+            return null;
+        }
+
+        if (Long.parseLong(entry[0]) < clock.millis() - timeToLive.toMillis()) {
+            expired.incrementAndGet();
+            misses.incrementAndGet();
+            return null;
+        }
+
+        hits.incrementAndGet();
+        return decode(entry[1], fromCity, toCity, fromDate, toDate);
+    }
+
+    /**
+     * Queues the flights found by the given search to be stored, replacing any earlier result,
+     * and evicts the oldest results if the cache is over its maximum size. The result is stamped
+     * with the time of this call rather than of the write.
+     * @param url The search URL, as built by <code>FlightDataAPI.buildUrl</code>.
+     * @param flights The flights found, which may be empty.
+     * @return A future completed once the result is stored. Errors are passed to the database's error handler.
+     */
+    public CompletableFuture<Void> put(String url, List<Flight> flights) {
+        long fetchedAt = clock.millis();
+        String results = encode(flights);
+
+        return database.writeAsync(db -> {
+            boolean exists;
+            try (ResultSet resultSet = db.queryPrepared("SELECT 1 FROM scrape_cache WHERE url = ?", url)) {
+                exists = resultSet.next();
+            } catch (SQLException e) {
+                db.reportError(e);
+                return null;
+            }
+
+            db.updatePrepared("INSERT OR REPLACE INTO scrape_cache (url, fetched_at, results) VALUES (?, ?, ?)", url, fetchedAt, results);
+
+            if (!exists && entryCount.incrementAndGet() > maxEntries) {
+                long excess = entryCount.get() - maxEntries;
+                db.updatePrepared("DELETE FROM scrape_cache WHERE url IN (SELECT url FROM scrape_cache ORDER BY fetched_at LIMIT ?)", excess);
+                entryCount.addAndGet(-excess);
+            }
+            return null;
+        });
+    }
+
+    /**
+     * Deletes every result older than the time-to-live.
+     * @return The number of results deleted.
+     */
+    public int deleteExpired() {
+        return database.write(db -> {
+            int rowCount = db.updatePrepared("DELETE FROM scrape_cache WHERE fetched_at < ?", clock.millis() - timeToLive.toMillis());
+            entryCount.addAndGet(-rowCount);
+            return rowCount;
+        });
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * Returns the number of misses caused by a cached result being older than the time-to-live.
+     * @return The number of expired lookups.
+     */
+    public long getExpired() {
+        return expired.get();
+    }
+
+    /**
+     * Returns the fraction of lookups that found a fresh result.
+     * @return The hit ratio, or 0 if there have been no lookups.
+     */
+    public double getHitRatio() {
+        long lookups = hits.get() + misses.get();
+        return lookups == 0 ? 0 : (double) hits.get() / lookups;
+    }
+
+    public long size() {
+        return entryCount.get();
+    }
+
+    private static String encode(List<Flight> flights) {
+        StringBuilder builder = new StringBuilder();
+
+        for (Flight flight : flights) {
+            if (!builder.isEmpty()) {
+                builder.append(';');
+            }
+            builder.append(flight.getPrice()).append(',').append(flight.isNonstop() ? 1 : 0);
+        }
+
+        return builder.toString();
+    }
+
+    private static List<Flight> decode(String results, String fromCity, String toCity, LocalDate fromDate, LocalDate toDate) {
+        List<Flight> flights = new ArrayList<>();
+
+        if (results.isEmpty()) {
+            return flights;
+        }
+
+        for (String result : results.split(";")) {
+            int comma = result.indexOf(',');
+            double price = Double.parseDouble(result.substring(0, comma));
+            boolean nonstop = result.charAt(comma + 1) == '1';
+            flights.add(new Flight(fromCity, toCity, fromDate, toDate, price, nonstop));
+        }
+
+        return flights;
+    }
+}
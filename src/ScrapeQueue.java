@@ -0,0 +1,425 @@
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.random.RandomGenerator;
+
+/**
+ * A persistent, prioritized queue of scrape tasks, stored in the <code>scrape_queue</code> table.
+ * <p>
+ * Tasks are handed out by priority, which is the departure date, so near-term departures are scraped
+ * first. A task that fails is retried after an exponential backoff with jitter, and after
+ * <code>maxAttempts</code> failures it is moved to the <code>scrape_dead_letters</code> table instead.
+ * A task stays in the queue until it is completed, so tasks that were handed out when a run stopped
+ * are handed out again by the next run, with their attempts and backoff kept.
+ * <p>
+ * The queue is read into memory when it is constructed and kept there alongside the table, so handing
+ * out tasks never touches the database; only completing, failing and enqueuing tasks write to it, and
+ * those writes happen outside the queue's lock.
+ * <p>
+ * A queue made with <code>inMemory</code> works the same way without a database, keeping its dead
+ * letters in memory too.
+ * <p>
+ * Thread-safe; every worker of a <code>ScrapeScheduler</code> can take from the same queue.
+ */
+public class ScrapeQueue {
+    private static final String TASK_KEY = "from_city_id = (SELECT id FROM cities WHERE name = ?) AND to_city_id = (SELECT id FROM cities WHERE name = ?) " +
+            "AND from_date = ? AND to_date = ?";
+    private static final String INSERT_TASK = "INSERT OR IGNORE INTO scrape_queue (from_city_id, to_city_id, from_date, to_date, priority) " +
+            "SELECT fc.id, tc.id, ?, ?, ? FROM cities fc, cities tc WHERE fc.name = ? AND tc.name = ? AND NOT EXISTS " +
+            "(SELECT 1 FROM scrape_dead_letters d WHERE d.from_city_id = fc.id AND d.to_city_id = tc.id AND d.from_date = ? AND d.to_date = ?)";
+    private static final String SELECT_QUEUED = "SELECT fc.name, tc.name, q.from_date, q.to_date, q.priority, q.attempts, q.not_before FROM scrape_queue q " +
+            "JOIN cities fc ON fc.id = q.from_city_id JOIN cities tc ON tc.id = q.to_city_id " +
+            "ORDER BY q.priority, q.not_before, q.from_city_id, q.to_city_id, q.to_date";
+    private static final String RETRY_LATER = "UPDATE scrape_queue SET attempts = ?, not_before = ?, last_error = ? WHERE " + TASK_KEY;
+    private static final String INSERT_DEAD_LETTER = "INSERT OR REPLACE INTO scrape_dead_letters (from_city_id, to_city_id, from_date, to_date, attempts, last_error, failed_at) " +
+            "VALUES ((SELECT id FROM cities WHERE name = ?), (SELECT id FROM cities WHERE name = ?), ?, ?, ?, ?, ?)";
+    private static final String DELETE_TASK = "DELETE FROM scrape_queue WHERE " + TASK_KEY;
+    private static final String SELECT_DEAD_LETTERS = "SELECT fc.name, tc.name, d.from_date, d.to_date FROM scrape_dead_letters d " +
+            "JOIN cities fc ON fc.id = d.from_city_id JOIN cities tc ON tc.id = d.to_city_id ORDER BY d.from_date, tc.name";
+
+    /**
+     * A queued task and the state kept for it in its <code>scrape_queue</code> row. The attempts and due time
+     * only change while the task is handed out, when it is in neither of the queues ordered by them.
+     */
+    private static final class Entry {
+        private final ScrapeTask task;
+        private final long priority, sequence;
+        private int attempts;
+        private long notBefore;
+
+        private Entry(ScrapeTask task, long priority, int attempts, long notBefore, long sequence) {
+            this.task = task;
+            this.priority = priority;
+            this.attempts = attempts;
+            this.notBefore = notBefore;
+            this.sequence = sequence;
+        }
+    }
+
+    private static final Comparator<Entry> BY_PRIORITY = Comparator.comparingLong((Entry entry) -> entry.priority)
+            .thenComparingLong(entry -> entry.notBefore)
+            .thenComparingLong(entry -> entry.sequence);
+    private static final Comparator<Entry> BY_DUE_TIME = Comparator.comparingLong((Entry entry) -> entry.notBefore)
+            .thenComparingLong(entry -> entry.sequence);
+
+    private final PooledSQLiteDatabase database;
+    private final int maxAttempts;
+    private final long baseBackoffMillis, maxBackoffMillis;
+    private final Clock clock;
+    private final RandomGenerator random;
+    private final ReentrantLock lock = new ReentrantLock();
+    // Signalled whenever a task may have become available, or the queue may have become empty
+    private final Condition changed = lock.newCondition();
+    // Every queued task, whether waiting or handed out
+    private final Map<ScrapeTask, Entry> entries = new HashMap<>();
+    // Tasks that are not handed out, by due time, and the ones among them that are due, by priority
+    private final PriorityQueue<Entry> waiting = new PriorityQueue<>(BY_DUE_TIME);
+    private final PriorityQueue<Entry> due = new PriorityQueue<>(BY_PRIORITY);
+    // Tasks that have been handed out and not yet completed, failed or released, which are not persisted
+    private final Set<ScrapeTask> claimed = new HashSet<>();
+    // Only used without a database
+    private final List<ScrapeTask> deadLetters = new ArrayList<>();
+    private long nextSequence = 0;
+
+    /**
+     * Constructs a <code>ScrapeQueue</code> and reads any tasks already queued by an earlier run.
+     * @param database The database to store the queue in, at the current <code>FlightSchema</code> version.
+     * @param maxAttempts The number of failures after which a task is moved to the dead letters.
+     * @param baseBackoff The longest wait before retrying a task that failed once, doubling with every further failure.
+     * @param maxBackoff The longest wait before retrying any task.
+     */
+    public ScrapeQueue(PooledSQLiteDatabase database, int maxAttempts, Duration baseBackoff, Duration maxBackoff) {
+        this(database, maxAttempts, baseBackoff, maxBackoff, Clock.systemUTC(), new Random());
+    }
+
+    ScrapeQueue(PooledSQLiteDatabase database, int maxAttempts, Duration baseBackoff, Duration maxBackoff, Clock clock, RandomGenerator random) {
+        if (maxAttempts < 1) {
+            throw new IllegalArgumentException("maxAttempts must be positive");
+        }
+
+        this.database = database;
+        this.maxAttempts = maxAttempts;
+        this.baseBackoffMillis = baseBackoff.toMillis();
+        this.maxBackoffMillis = maxBackoff.toMillis();
+        this.clock = clock;
+        this.random = random;
+        if (database != null) {
+            add(readQueued());
+        }
+    }
+
+    /**
+     * Creates a queue that is only kept in memory, which retries failed tasks straight away.
+     * @param tasks The tasks to queue.
+     * @param maxAttempts The number of failures after which a task is given up on.
+     * @return The queue.
+     */
+    static ScrapeQueue inMemory(Collection<ScrapeTask> tasks, int maxAttempts) {
+        ScrapeQueue queue = new ScrapeQueue(null, maxAttempts, Duration.ZERO, Duration.ZERO, Clock.systemUTC(), new Random());
+        queue.enqueue(tasks);
+        return queue;
+    }
+
+    /**
+     * Adds tasks to the queue, prioritized by departure date. Tasks that are already queued keep their
+     * attempts and backoff, and tasks in the dead letters are not queued again. Every city must already
+     * have been added with <code>FlightSchema.addCities</code>.
+     * @param tasks The tasks to add.
+     */
+    public void enqueue(Collection<ScrapeTask> tasks) {
+        if (database == null) {
+            lock.lock();
+            try {
+                add(tasks.stream()
+                        .filter(task -> !deadLetters.contains(task))
+                        .map(task -> new Entry(task, task.fromDate().toEpochDay(), 0, 0, 0))
+                        .toList());
+            } finally {
+                lock.unlock();
+            }
+            return;
+        }
+
+        database.write(db -> {
+            try (SQLiteDatabase.Batch batch = db.batch(INSERT_TASK, tasks.size() + 1, 60_000)) {
+                for (ScrapeTask task : tasks) {
+                    long fromDay = task.fromDate().toEpochDay(), toDay = task.toDate().toEpochDay();
+                    batch.add(fromDay, toDay, fromDay, task.fromCity(), task.toCity(), fromDay, toDay);
+                }
+            }
+            return null;
+        });
+
+        // Read back which tasks were actually queued, since dead letters and tasks already queued were skipped
+        add(readQueued());
+    }
+
+    /**
+     * Hands out the highest priority task that is due and not already handed out.
+     * @return The task, or <code>null</code> if no task is due right now.
+     */
+    public ScrapeTask poll() {
+        lock.lock();
+        try {
+            return pollDue(clock.millis());
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Hands out the highest priority task that is due, waiting for one if every queued task is backing off
+     * or handed out.
+     * @return The task, or <code>null</code> once the queue is empty and no handed out task can fail back into it.
+     */
+    public ScrapeTask take() throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            while (true) {
+                long now = clock.millis();
+                ScrapeTask task = pollDue(now);
+                if (task != null) {
+                    return task;
+                }
+
+                if (waiting.isEmpty() && claimed.isEmpty()) {
+                    return null;
+                }
+                // Woken early by complete, fail, release and enqueue, which may make a task due
+                if (waiting.isEmpty()) {
+                    changed.await();
+                } else {
+                    changed.await(Math.max(waiting.peek().notBefore - now, 1), TimeUnit.MILLISECONDS);
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Removes a task that was scraped successfully.
+     * @param task The task, as handed out by <code>poll</code> or <code>take</code>.
+     */
+    public void complete(ScrapeTask task) {
+        checkClaimed(task);
+        long fromDay = task.fromDate().toEpochDay(), toDay = task.toDate().toEpochDay();
+        if (database != null) {
+            database.write(db -> db.updatePrepared(DELETE_TASK, task.fromCity(), task.toCity(), fromDay, toDay));
+        }
+
+        lock.lock();
+        try {
+            entries.remove(task);
+            claimed.remove(task);
+            changed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Hands a task back without counting an attempt, e.g. when its worker was interrupted.
+     * @param task The task, as handed out by <code>poll</code> or <code>take</code>.
+     */
+    public void release(ScrapeTask task) {
+        lock.lock();
+        try {
+            if (claimed.remove(task)) {
+                waiting.add(entries.get(task));
+                changed.signalAll();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Records a failed attempt at a task. The task is retried after a backoff, or moved to the dead
+     * letters if it has now failed <code>maxAttempts</code> times.
+     * @param task The task, as handed out by <code>poll</code> or <code>take</code>.
+     * @param error What went wrong.
+     * @return Whether the task will be retried.
+     */
+    public boolean fail(ScrapeTask task, String error) {
+        // Only the worker that holds the task changes its entry, so it can be read and updated without the lock
+        Entry entry = checkClaimed(task);
+        long fromDay = task.fromDate().toEpochDay(), toDay = task.toDate().toEpochDay();
+        long now = clock.millis();
+        int attempts = entry.attempts + 1;
+
+        if (attempts < maxAttempts) {
+            long notBefore = now + getBackoffMillis(attempts);
+            if (database != null) {
+                database.write(db -> db.updatePrepared(RETRY_LATER, attempts, notBefore, error, task.fromCity(), task.toCity(), fromDay, toDay));
+            }
+
+            lock.lock();
+            try {
+                entry.attempts = attempts;
+                entry.notBefore = notBefore;
+                claimed.remove(task);
+                waiting.add(entry);
+                changed.signalAll();
+            } finally {
+                lock.unlock();
+            }
+            return true;
+        }
+
+        if (database != null) {
+            database.write(db -> db.transaction(() -> {
+                db.updatePrepared(INSERT_DEAD_LETTER, task.fromCity(), task.toCity(), fromDay, toDay, attempts, error, now);
+                db.updatePrepared(DELETE_TASK, task.fromCity(), task.toCity(), fromDay, toDay);
+            }));
+        }
+
+        lock.lock();
+        try {
+            if (database == null) {
+                deadLetters.add(task);
+            }
+            entries.remove(task);
+            claimed.remove(task);
+            changed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        return false;
+    }
+
+    /**
+     * Returns how long to wait before retrying a task that has failed the given number of times, chosen
+     * at random between half of and the full exponential backoff, so that tasks which failed together
+     * are not all retried together.
+     * @param attempts The number of failed attempts so far, at least 1.
+     * @return The wait in milliseconds.
+     */
+    long getBackoffMillis(int attempts) {
+        long backoff = baseBackoffMillis << Math.min(attempts - 1, 30);
+        backoff = backoff < 0 ? maxBackoffMillis : Math.min(backoff, maxBackoffMillis);
+        return backoff / 2 + random.nextLong(backoff / 2 + 1);
+    }
+
+    /**
+     * @return The number of queued tasks, including ones that are backing off or handed out.
+     */
+    public long size() {
+        lock.lock();
+        try {
+            return entries.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns every task that was given up on, by this run or an earlier one.
+     * @return The tasks, by departure date.
+     */
+    public List<ScrapeTask> getDeadLetters() {
+        if (database == null) {
+            lock.lock();
+            try {
+                return deadLetters.stream().sorted(Comparator.comparing(ScrapeTask::fromDate).thenComparing(ScrapeTask::toCity)).toList();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        try {
+            return database.read(db -> {
+                List<ScrapeTask> tasks = new ArrayList<>();
+                try (ResultSet resultSet = db.queryPrepared(SELECT_DEAD_LETTERS)) {
+                    while (resultSet != null && resultSet.next()) {
+                        tasks.add(readTask(resultSet));
+                    }
+                } catch (SQLException e) {
+                    throw new IllegalStateException("Could not read the scrape dead letters", e);
+                }
+                return tasks;
+            });
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return List.of();
+        }
+    }
+
+    // Must hold the lock
+    private ScrapeTask pollDue(long now) {
+        while (!waiting.isEmpty() && waiting.peek().notBefore <= now) {
+            due.add(waiting.poll());
+        }
+
+        Entry entry = due.poll();
+        if (entry == null) {
+            return null;
+        }
+        claimed.add(entry.task);
+        return entry.task;
+    }
+
+    private Entry checkClaimed(ScrapeTask task) {
+        lock.lock();
+        try {
+            if (!claimed.contains(task)) {
+                throw new IllegalArgumentException("Task was not handed out by this queue: " + task);
+            }
+            return entries.get(task);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private List<Entry> readQueued() {
+        return database.write(db -> {
+            List<Entry> rows = new ArrayList<>();
+            try (ResultSet resultSet = db.queryPrepared(SELECT_QUEUED)) {
+                while (resultSet != null && resultSet.next()) {
+                    rows.add(new Entry(readTask(resultSet), resultSet.getLong(5), resultSet.getInt(6), resultSet.getLong(7), 0));
+                }
+            } catch (SQLException e) {
+                throw new IllegalStateException("Could not read the scrape queue", e);
+            }
+            return rows;
+        });
+    }
+
+    // Adds every task that is not queued yet
+    private void add(List<Entry> rows) {
+        lock.lock();
+        try {
+            for (Entry row : rows) {
+                if (!entries.containsKey(row.task)) {
+                    // Ties between tasks due at the same time are handed out in the order they were read
+                    Entry entry = new Entry(row.task, row.priority, row.attempts, row.notBefore, nextSequence++);
+                    entries.put(entry.task, entry);
+                    waiting.add(entry);
+                }
+            }
+            changed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private static ScrapeTask readTask(ResultSet resultSet) throws SQLException {
+        return new ScrapeTask(resultSet.getString(1), resultSet.getString(2),
+                LocalDate.ofEpochDay(resultSet.getLong(3)), LocalDate.ofEpochDay(resultSet.getLong(4)));
+    }
+}
@@ -0,0 +1,330 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Phaser;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiConsumer;
+import java.util.function.Supplier;
+
+/**
+ * Runs a list of <code>ScrapeTask</code>s, or the tasks in a <code>ScrapeQueue</code>, across a pool of
+ * <code>FlightSearcher</code> workers. Each worker owns its own searcher (and therefore its own browser),
+ * pulls tasks from a shared queue, and replaces its searcher if a search throws. A shared semaphore caps
+ * the number of page loads in flight across all workers.
+ * <p>
+ * Searching and saving run as a pipeline. Workers hand what they find to a single saver thread through
+ * a bounded queue and go straight on to their next search, so results are saved while the next pages load.
+ * A worker only waits for the saver when the queue is full, so a run goes as fast as the slower of the two.
+ * A <code>ResultHandler</code> may also save asynchronously, in which case each task is only completed
+ * once its save finishes.
+ * <p>
+ * If given a <code>MetricsRegistry</code>, the scheduler records how long workers wait for a page load
+ * permit, how long each search and each save takes, how many tasks completed,
+ * were retried or failed, and how many errors of each exception type were thrown.
+ */
+public class ScrapeScheduler {
+    private static final String TASKS_HELP = "Scrape task attempts, by result: completed, failed and retried later, or failed for good.";
+
+    /**
+     * Saves the flights found for each task, possibly asynchronously. Only ever called from the saver thread,
+     * one task at a time.
+     */
+    @FunctionalInterface
+    public interface ResultHandler {
+        /**
+         * @param task The task that was searched.
+         * @param flights The flights found for it.
+         * @param cached Whether the flights came from a cache rather than a page loaded for this search.
+         * @return A future completed once the flights are saved, or completed exceptionally if they could not be.
+         * The task is completed or failed on the thread that completes it.
+         */
+        CompletableFuture<?> save(ScrapeTask task, List<Flight> flights, boolean cached);
+    }
+
+    /** A task whose search finished, waiting for the saver. */
+    private record SearchedTask(ScrapeTask task, List<Flight> flights, boolean cached) { }
+
+    /** Queued for the saver once every worker has finished. */
+    private static final SearchedTask NO_MORE_TASKS = new SearchedTask(null, List.of(), false);
+
+    private final Supplier<? extends FlightSearcher> searcherFactory;
+    private final int workerCount;
+    private final Semaphore pageLoads;
+    private final int maxAttempts;
+    private final MetricsRegistry metrics;
+    private final LatencyHistogram permitWait, searchLatency, saveLatency;
+    private final LongAdder completedTasks, retriedTasks, failedTasks;
+
+    /**
+     * Constructs a <code>ScrapeScheduler</code>.
+     * @param searcherFactory Creates a new searcher for a worker, both at startup and after a failure.
+     * @param workerCount The number of workers (and searchers) to run.
+     * @param maxConcurrentPageLoads The maximum number of searches running at once across all workers.
+     * @param maxAttempts The number of times a task is tried before it is given up on.
+     */
+    public ScrapeScheduler(Supplier<? extends FlightSearcher> searcherFactory, int workerCount, int maxConcurrentPageLoads, int maxAttempts) {
+        this(searcherFactory, workerCount, maxConcurrentPageLoads, maxAttempts, new MetricsRegistry());
+    }
+
+    /**
+     * Constructs a <code>ScrapeScheduler</code> that records its metrics in the given registry.
+     * Other parameters are as for the constructor without one.
+     * @param metrics The registry.
+     */
+    public ScrapeScheduler(Supplier<? extends FlightSearcher> searcherFactory, int workerCount, int maxConcurrentPageLoads, int maxAttempts, MetricsRegistry metrics) {
+        if (workerCount < 1 || maxConcurrentPageLoads < 1 || maxAttempts < 1) {
+            throw new IllegalArgumentException("workerCount, maxConcurrentPageLoads and maxAttempts must be positive");
+        }
+
+        this.searcherFactory = searcherFactory;
+        this.workerCount = workerCount;
+        this.pageLoads = new Semaphore(maxConcurrentPageLoads, true);
+        this.maxAttempts = maxAttempts;
+        this.metrics = metrics;
+        this.permitWait = metrics.timer("scrape_permit_wait_seconds", "Time workers waited for a page load permit.");
+        this.searchLatency = metrics.timer("scrape_search_seconds", "Time taken by each search, including cache lookups and rate limiting.");
+        this.saveLatency = metrics.timer("scrape_save_seconds", "Time from handing each task's flights to the result handler until they were saved.");
+        this.completedTasks = metrics.counter("scrape_tasks_total", TASKS_HELP, "result", "completed");
+        this.retriedTasks = metrics.counter("scrape_tasks_total", TASKS_HELP, "result", "retried");
+        this.failedTasks = metrics.counter("scrape_tasks_total", TASKS_HELP, "result", "failed");
+    }
+
+    /**
+     * Runs every task and blocks until all of them have finished or been given up on. The tasks are kept
+     * in an in-memory <code>ScrapeQueue</code>, so they are handed out by departure date and a failed task
+     * is tried again straight away, up to this scheduler's maximum attempts.
+     * The result handler is only ever called from the saver thread, one task at a time, so it may write
+     * to a non thread-safe sink such as an <code>SQLiteDatabase</code>. A task whose result handler
+     * throws is retried like a failed search.
+     * @param tasks The tasks to run.
+     * @param resultHandler Called with each task and the flights found for it.
+     * @return The tasks that failed on every attempt.
+     */
+    public List<ScrapeTask> run(List<ScrapeTask> tasks, BiConsumer<ScrapeTask, List<Flight>> resultHandler) throws InterruptedException {
+        return run(ScrapeQueue.inMemory(tasks, maxAttempts), synchronous(resultHandler), Math.min(workerCount, tasks.size()));
+    }
+
+    /**
+     * Runs the tasks in a persistent queue and blocks until the queue is empty. Each task is tried once
+     * per turn; a task whose search or result handler throws is handed back to the queue, which retries
+     * it after a backoff or gives up on it, so a failure only ever affects the task that hit it. The
+     * queue's maximum attempts apply instead of this scheduler's. The result handler is called as for
+     * <code>run(List, BiConsumer)</code>.
+     * @param queue The queue to take tasks from.
+     * @param resultHandler Called with each task and the flights found for it, before the task is completed.
+     * @return The tasks that were given up on during this run.
+     */
+    public List<ScrapeTask> run(ScrapeQueue queue, BiConsumer<ScrapeTask, List<Flight>> resultHandler) throws InterruptedException {
+        return run(queue, synchronous(resultHandler), workerCount);
+    }
+
+    /**
+     * Runs the tasks in a persistent queue as <code>run(ScrapeQueue, BiConsumer)</code> does, with a result
+     * handler that is also told whether each task's flights came from a cache and may save them asynchronously.
+     * A task is only completed once the future returned for it completes, and is handed back to the queue like
+     * a failed search if it completes exceptionally. This method waits for every returned future before it returns.
+     * @param queue The queue to take tasks from.
+     * @param resultHandler Called with each task, the flights found for it and whether they were cached.
+     * @return The tasks that were given up on during this run.
+     */
+    public List<ScrapeTask> run(ScrapeQueue queue, ResultHandler resultHandler) throws InterruptedException {
+        return run(queue, resultHandler, workerCount);
+    }
+
+    private List<ScrapeTask> run(ScrapeQueue queue, ResultHandler resultHandler, int workers) throws InterruptedException {
+        Queue<ScrapeTask> failed = new ConcurrentLinkedQueue<>();
+        BlockingQueue<SearchedTask> searched = new ArrayBlockingQueue<>(workerCount);
+
+        try {
+            // Tasks waiting for the saver are still claimed, so workers keep waiting for them rather than stop early
+            runPipeline(workers, searched,
+                    () -> work(queue, failed, searched),
+                    () -> save(queue, failed, searched, resultHandler));
+        } finally {
+            // Only left over if the run was interrupted
+            searched.stream().filter(searchedTask -> searchedTask != NO_MORE_TASKS).forEach(searchedTask -> queue.release(searchedTask.task()));
+        }
+        return List.copyOf(failed);
+    }
+
+    private void runPipeline(int workers, BlockingQueue<SearchedTask> searched, Runnable worker, Runnable saver) throws InterruptedException {
+        // Workers spend nearly all their time waiting on page loads, so they are cheap virtual threads. The result
+        // handler usually writes through the SQLite driver's native calls, which would pin a virtual thread to its
+        // carrier, so the saver gets a platform thread of its own
+        Thread.Builder workerBuilder = Thread.ofVirtual().name("scrape-worker-", 0);
+        List<Thread> workerThreads = new ArrayList<>();
+        for (int i = 0; i < workers; i++) {
+            workerThreads.add(workerBuilder.unstarted(worker));
+        }
+
+        Thread saverThread = Thread.ofPlatform().name("scrape-saver").start(() -> {
+            try {
+                saver.run();
+            } finally {
+                // Only does anything if the result handler threw an Error, when workers would otherwise wait for room forever
+                workerThreads.forEach(Thread::interrupt);
+            }
+        });
+        workerThreads.forEach(Thread::start);
+
+        try {
+            for (Thread workerThread : workerThreads) {
+                workerThread.join();
+            }
+            while (saverThread.isAlive() && !searched.offer(NO_MORE_TASKS, 100, TimeUnit.MILLISECONDS)) {
+                // The saver is still catching up
+            }
+            saverThread.join();
+        } catch (InterruptedException e) {
+            workerThreads.forEach(Thread::interrupt);
+            saverThread.interrupt();
+            throw e;
+        }
+    }
+
+    private void work(ScrapeQueue queue, Queue<ScrapeTask> failed, BlockingQueue<SearchedTask> searched) {
+        FlightSearcher searcher = null;
+
+        try {
+            ScrapeTask task;
+            while (!Thread.currentThread().isInterrupted() && (task = queue.take()) != null) {
+                FlightSearchResult result;
+                try {
+                    if (searcher == null) {
+                        searcher = searcherFactory.get();
+                    }
+                    result = search(searcher, task);
+                } catch (InterruptedException e) {
+                    queue.release(task);
+                    throw e;
+                } catch (RuntimeException e) {
+                    System.out.println("[Scrape Error] " + task + ": " + e.getMessage());
+                    recordError(e);
+                    closeQuietly(searcher);
+                    searcher = null;
+                    failTask(queue, failed, task, e);
+                    continue;
+                }
+
+                try {
+                    // Nonstop flights are preferred, falling back to flights with stops
+                    searched.put(new SearchedTask(task, result.getPreferredFlights(), result.cached()));
+                } catch (InterruptedException e) {
+                    queue.release(task);
+                    throw e;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            closeQuietly(searcher);
+        }
+    }
+
+    private static ResultHandler synchronous(BiConsumer<ScrapeTask, List<Flight>> resultHandler) {
+        return (task, flights, cached) -> {
+            resultHandler.accept(task, flights);
+            return CompletableFuture.completedFuture(null);
+        };
+    }
+
+    private void save(ScrapeQueue queue, Queue<ScrapeTask> failed, BlockingQueue<SearchedTask> searched, ResultHandler resultHandler) {
+        // The saver is a party of its own, so it can wait for the saves it started without the phase advancing early
+        Phaser pendingSaves = new Phaser(1);
+
+        try {
+            SearchedTask searchedTask;
+            while ((searchedTask = searched.take()) != NO_MORE_TASKS) {
+                ScrapeTask task = searchedTask.task();
+                long start = System.nanoTime();
+
+                CompletableFuture<?> saved;
+                try {
+                    saved = resultHandler.save(task, searchedTask.flights(), searchedTask.cached());
+                } catch (RuntimeException e) {
+                    saved = CompletableFuture.failedFuture(e);
+                }
+
+                pendingSaves.register();
+                saved.whenComplete((result, e) -> {
+                    try {
+                        finishSave(queue, failed, task, e);
+                    } finally {
+                        saveLatency.record(System.nanoTime() - start);
+                        pendingSaves.arriveAndDeregister();
+                    }
+                });
+            }
+
+            // Asynchronous saves may still be running after the last result was handed over
+            pendingSaves.awaitAdvanceInterruptibly(pendingSaves.arrive());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void finishSave(ScrapeQueue queue, Queue<ScrapeTask> failed, ScrapeTask task, Throwable error) {
+        if (error == null) {
+            try {
+                queue.complete(task);
+                completedTasks.increment();
+                return;
+            } catch (RuntimeException e) {
+                error = e;
+            }
+        }
+
+        if (error instanceof CompletionException && error.getCause() != null) {
+            error = error.getCause();
+        }
+        System.out.println("[Scrape Error] Could not save " + task + ": " + error.getMessage());
+        recordError(error);
+        failTask(queue, failed, task, error);
+    }
+
+    private void failTask(ScrapeQueue queue, Queue<ScrapeTask> failed, ScrapeTask task, Throwable e) {
+        if (queue.fail(task, e.getClass().getSimpleName() + ": " + e.getMessage())) {
+            retriedTasks.increment();
+        } else {
+            failed.add(task);
+            failedTasks.increment();
+        }
+    }
+
+    private void recordError(Throwable e) {
+        metrics.counter("scrape_errors_total", "Exceptions thrown while scraping, by type.", "type", e.getClass().getSimpleName()).increment();
+    }
+
+    private FlightSearchResult search(FlightSearcher searcher, ScrapeTask task) throws InterruptedException {
+        // One combined search per task
+        long start = System.nanoTime();
+        pageLoads.acquire();
+        long acquired = System.nanoTime();
+        permitWait.record(acquired - start);
+        try {
+            return searcher.searchRoundTripEconomyFlights(task.fromCity(), task.toCity(), task.fromDate(), task.toDate());
+        } finally {
+            searchLatency.record(System.nanoTime() - acquired);
+            pageLoads.release();
+        }
+    }
+
+    private static void closeQuietly(FlightSearcher searcher) {
+        if (searcher == null) {
+            return;
+        }
+
+        try {
+            searcher.close();
+        } catch (RuntimeException e) {
+            System.out.println("[Scrape Error] Failed to close searcher: " + e.getMessage());
+        }
+    }
+}
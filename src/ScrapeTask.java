@@ -0,0 +1,31 @@
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+
+public record ScrapeTask(String fromCity, String toCity, LocalDate fromDate, LocalDate toDate) {
+    /**
+     * Builds one task for every (city, trip length, departure date) combination in the given range, where
+     * each trip lasts one of the <code>tripLengths</code> in days and must return on or before <code>endDate</code>.
+     */
+    public static List<ScrapeTask> grid(String fromCity, String[] toCities, LocalDate startDate, LocalDate endDate, int... tripLengths) {
+        List<ScrapeTask> tasks = new ArrayList<>();
+
+        for (String toCity : toCities) {
+            for (int tripLength : tripLengths) {
+                LocalDate currentStartDate = startDate;
+
+                while (currentStartDate.plusDays(tripLength).isBefore(endDate.plusDays(1))) {
+                    tasks.add(new ScrapeTask(fromCity, toCity, currentStartDate, currentStartDate.plusDays(tripLength)));
+                    currentStartDate = currentStartDate.plusDays(1);
+                }
+            }
+        }
+
+        return tasks;
+    }
+
+    @Override
+    public String toString() {
+        return fromCity + " <-> " + toCity + " from " + fromDate + " to " + toDate;
+    }
+}
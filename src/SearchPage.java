@@ -0,0 +1,10 @@
+import java.util.List;
+
+/**
+ * The parsed contents of one search results page.
+ * @param cards The result cards, in the order the site listed them.
+ * @param noDirectFlights Whether the site said there are no direct flights, in which case the cards
+ *                        are flights with stops even if only direct flights were asked for.
+ */
+public record SearchPage(List<FareCard> cards, boolean noDirectFlights) {
+}
@@ -0,0 +1,174 @@
+import org.openqa.selenium.JavascriptExecutor;
+import org.openqa.selenium.TimeoutException;
+import org.openqa.selenium.WebDriver;
+import org.openqa.selenium.chrome.ChromeDriver;
+import org.openqa.selenium.chrome.ChromeOptions;
+import org.openqa.selenium.support.ui.WebDriverWait;
+
+import java.time.Duration;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Loads search results pages in a real Chrome browser, hiding that it is automated.
+ * One instance drives one browser, so it must only be used by one thread at a time.
+ * <p>
+ * There is no implicit wait. After navigating, the page is polled until it shows results, says there
+ * are none, or shows an error, whichever comes first, so no fetch pays a fixed timeout. The test ids of
+ * the no results and error markers are not confirmed against the live site, so a page that has finished
+ * loading without showing cards or either marker is also taken as having no results, once it has stayed
+ * that way for a tenth of the ready timeout. The wait is there because cards are rendered by script
+ * after the document itself is complete.
+ */
+public class SeleniumBackend implements FlightFetchBackend {
+    static final Duration DEFAULT_READY_TIMEOUT = Duration.ofSeconds(20);
+    static final Duration DEFAULT_POLL_INTERVAL = Duration.ofMillis(100);
+
+    /**
+     * Returns which state the page is in: <code>loaded</code> once the document is complete but shows
+     * neither cards nor a marker, or <code>null</code> while it is still loading.
+     */
+    static final String READY_STATE_SCRIPT = """
+            if (document.querySelector('[data-testid="searchresults_card"]') !== null) return 'results';
+            if (document.querySelector('[data-testid="no_results_message"], [data-testid="searchresults_empty"]') !== null) return 'no_results';
+            if (document.querySelector('[data-testid="error_page"], [data-testid="search_error"]') !== null) return 'error';
+            if (document.readyState === 'complete') return 'loaded';
+            return null;
+            """;
+
+    private final WebDriver driver;
+    private final Duration readyTimeout;
+    private final Duration pollInterval;
+    private final Duration emptySettle;
+    private final FetchMetrics metrics;
+
+    SeleniumBackend() {
+        this(DEFAULT_READY_TIMEOUT, DEFAULT_POLL_INTERVAL, new FetchMetrics());
+    }
+
+    /**
+     * Constructs a <code>SeleniumBackend</code> with its own browser.
+     * @param readyTimeout How long to wait for the page to be ready after navigating to it.
+     * @param pollInterval How often to check whether the page is ready.
+     * @param metrics Where to record fetch timings and outcomes.
+     */
+    SeleniumBackend(Duration readyTimeout, Duration pollInterval, FetchMetrics metrics) {
+        this(createDriver(), readyTimeout, pollInterval, metrics);
+    }
+
+    /**
+     * Constructs a <code>SeleniumBackend</code> that drives an existing browser.
+     * @param driver The driver, which must also be a <code>JavascriptExecutor</code>.
+     */
+    SeleniumBackend(WebDriver driver, Duration readyTimeout, Duration pollInterval, FetchMetrics metrics) {
+        this.driver = driver;
+        this.readyTimeout = readyTimeout;
+        this.pollInterval = pollInterval;
+        this.emptySettle = readyTimeout.dividedBy(10);
+        this.metrics = metrics;
+    }
+
+    private static ChromeDriver createDriver() {
+        ChromeOptions options = new ChromeOptions();
+        options.setExperimentalOption("excludeSwitches", Collections.singletonList("enable-automation"));
+        options.setExperimentalOption("useAutomationExtension", false);
+        options.addArguments("--disable-blink-features",
+                "--disable-blink-features=AutomationControlled",
+                "user-agent=Mozilla/5.0 (Windows NT 10.0; Win64; x64) AppleWebKit/537.36 (KHTML, like Gecko) Chrome/131.0.0.0 Safari/537.36");
+        ChromeDriver driver = new ChromeDriver(options);
+        Map<String, Object> params = new HashMap<>();
+        params.put("source", """
+    Object.defineProperty(Navigator.prototype, 'webdriver', {
+        set: undefined,
+        enumerable: true,
+        configurable: true,
+        get: new Proxy(
+            Object.getOwnPropertyDescriptor(Navigator.prototype, 'webdriver').get,
+            { apply: (target, thisArg, args) => {
+                Reflect.apply(target, thisArg, args);
+                return false;
+            }}
+        )
+    });
+""");
+        driver.executeCdpCommand("Page.addScriptToEvaluateOnNewDocument", params);
+        driver.manage().timeouts().implicitlyWait(Duration.ZERO);
+        return driver;
+    }
+
+    @Override
+    public SearchPage fetch(String url) {
+        long start = System.nanoTime();
+        FetchMetrics.Outcome outcome = FetchMetrics.Outcome.FAILED;
+
+        try {
+            driver.get(url);
+            long navigated = System.nanoTime();
+            metrics.record(FetchMetrics.Phase.NAVIGATE, navigated - start);
+
+            String state = waitUntilReady();
+            long ready = System.nanoTime();
+            metrics.record(FetchMetrics.Phase.WAIT, ready - navigated);
+
+            switch (state) {
+                case "no_results" -> {
+                    outcome = FetchMetrics.Outcome.NO_RESULTS;
+                    metrics.recordCards(0);
+                    return new SearchPage(List.of(), false);
+                }
+                case "error" -> {
+                    outcome = FetchMetrics.Outcome.ERROR_PAGE;
+                    throw new IllegalStateException("Search page showed an error: " + url);
+                }
+                default -> {
+                    // Read every card and the no direct flights banner in a single round trip
+                    Object payload = ((JavascriptExecutor) driver).executeScript(ResultCardParser.EXTRACT_SCRIPT);
+                    SearchPage page = ResultCardParser.parse(payload, url.contains(FlightDataAPI.NONSTOP_FILTER));
+                    metrics.record(FetchMetrics.Phase.PARSE, System.nanoTime() - ready);
+                    metrics.recordCards(page.cards().size());
+                    outcome = FetchMetrics.Outcome.RESULTS;
+                    return page;
+                }
+            }
+        } catch (TimeoutException e) {
+            outcome = FetchMetrics.Outcome.TIMEOUT;
+            throw e;
+        } finally {
+            metrics.record(outcome);
+            metrics.record(FetchMetrics.Phase.TOTAL, System.nanoTime() - start);
+        }
+    }
+
+    private String waitUntilReady() {
+        long[] loadedSince = { 0 };
+
+        return new WebDriverWait(driver, readyTimeout)
+                .pollingEvery(pollInterval)
+                .withMessage("Search page was not ready after " + readyTimeout)
+                .until(d -> {
+                    String state = (String) ((JavascriptExecutor) d).executeScript(READY_STATE_SCRIPT);
+                    if (!"loaded".equals(state)) {
+                        loadedSince[0] = 0;
+                        return state;
+                    }
+
+                    // Complete but empty: give the cards time to render before calling it no results
+                    long now = System.nanoTime();
+                    if (loadedSince[0] == 0) {
+                        loadedSince[0] = now;
+                    }
+                    return now - loadedSince[0] >= emptySettle.toNanos() ? "no_results" : null;
+                });
+    }
+
+    public FetchMetrics getMetrics() {
+        return metrics;
+    }
+
+    @Override
+    public void close() {
+        driver.quit();
+    }
+}
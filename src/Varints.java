@@ -0,0 +1,42 @@
+import java.io.ByteArrayOutputStream;
+
+/**
+ * Zigzag variable-length integers, as used by the compact encodings in <code>PriceHistory</code> and
+ * <code>FlightExporter</code>. A value takes one byte per 7 bits of its zigzag form, so small positive
+ * and negative numbers (such as deltas between neighbouring values) take one or two bytes.
+ */
+final class Varints {
+    private Varints() {
+    }
+
+    static void writeZigzag(ByteArrayOutputStream output, long value) {
+        long zigzag = (value << 1) ^ (value >> 63);
+        while ((zigzag & ~0x7FL) != 0) {
+            output.write((int) (zigzag & 0x7F) | 0x80);
+            zigzag >>>= 7;
+        }
+        output.write((int) zigzag);
+    }
+
+    /**
+     * Reads one value, advancing the position past it.
+     * @param data The encoded values.
+     * @param position A one-element array holding the index to read from, updated in place.
+     * @return The value.
+     * @throws IllegalArgumentException If the data ends in the middle of a value.
+     */
+    static long readZigzag(byte[] data, int[] position) {
+        long zigzag = 0;
+        for (int shift = 0; ; shift += 7) {
+            if (position[0] >= data.length || shift > 63) {
+                throw new IllegalArgumentException("Truncated varint at byte " + position[0] + " of " + data.length);
+            }
+            byte b = data[position[0]++];
+            zigzag |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                break;
+            }
+        }
+        return (zigzag >>> 1) ^ -(zigzag & 1);
+    }
+}
@@ -0,0 +1,76 @@
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.LocalDate;
+
+public class CheapestFaresTests {
+    private static Flight flight(String toCity, LocalDate fromDate, double price, boolean nonstop) {
+        return new Flight("Atlanta", toCity, fromDate, fromDate.plusWeeks(1), price, nonstop);
+    }
+
+    @Test
+    public void keepsCheapestPerRoute() {
+        CheapestFares fares = new CheapestFares();
+        LocalDate date = LocalDate.of(2025, 5, 1);
+
+        Assert.assertNull(fares.getCheapest("Paris", true));
+
+        fares.record(flight("Paris", date, 900, true));
+        fares.record(flight("Paris", date, 700, false));
+        Flight cheapestNonstop = flight("Paris", date.plusDays(3), 850, true);
+        fares.record(cheapestNonstop);
+        fares.record(flight("Paris", date.plusDays(4), 950, true));
+
+        Assert.assertSame(cheapestNonstop, fares.getCheapest("Paris", true));
+        Assert.assertEquals(700, fares.getCheapest("Paris", false).getPrice(), 0);
+        Assert.assertSame(cheapestNonstop, fares.getCheapestPreferringNonstop("Paris"));
+        Assert.assertNull(fares.getCheapestPreferringNonstop("Rome"));
+
+        fares.record(flight("Rome", date, 1200, false));
+        Assert.assertEquals(1200, fares.getCheapestPreferringNonstop("Rome").getPrice(), 0);
+    }
+
+    @Test
+    public void keepsCheapestPerDepartureWeek() {
+        CheapestFares fares = new CheapestFares();
+        LocalDate monday = LocalDate.of(2025, 5, 5);
+
+        fares.record(flight("Cancun", monday, 300, false));
+        fares.record(flight("Cancun", monday.plusDays(6), 250, true));
+        fares.record(flight("Cancun", monday.plusDays(7), 200, false));
+
+        Assert.assertEquals(250, fares.getCheapestInWeek("Cancun", monday.plusDays(2)).getPrice(), 0);
+        Assert.assertEquals(200, fares.getCheapestInWeek("Cancun", monday.plusDays(7)).getPrice(), 0);
+        Assert.assertNull(fares.getCheapestInWeek("Cancun", monday.minusDays(1)));
+    }
+
+    @Test
+    public void loadMatchesFullRescan() throws IOException, SQLException {
+        Path dbPath = Files.createTempFile("cheapest_fares", ".sqlite");
+        Files.copy(Path.of("flight_data.sqlite"), dbPath, StandardCopyOption.REPLACE_EXISTING);
+
+        try (SQLiteDatabase db = new SQLiteDatabase(dbPath.toString(), (e) -> Assert.fail(e.getMessage()))) {
+            Assert.assertTrue(FlightSchema.migrate(db));
+            CheapestFares fares = new CheapestFares();
+            fares.load(db);
+
+            ResultSet resultSet = db.query("SELECT to_city, nonstop, MIN(price) FROM flight_details GROUP BY to_city, nonstop");
+            int routes = 0;
+            while (resultSet.next()) {
+                Flight cheapest = fares.getCheapest(resultSet.getString(1), resultSet.getBoolean(2));
+                Assert.assertEquals(resultSet.getDouble(3), cheapest.getPrice(), 0);
+                routes++;
+            }
+            resultSet.getStatement().close();
+            Assert.assertTrue(routes > 0);
+        } finally {
+            Files.deleteIfExists(dbPath);
+        }
+    }
+}
@@ -0,0 +1,132 @@
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.stream.Collectors;
+
+public class FareCalendarTests {
+    private static final LocalDate date = LocalDate.of(2025, 5, 1);
+    private static final String[] cities = { "Paris", "Rome", "Cancun" };
+
+    private static List<Flight> randomFlights(int count) {
+        Random random = new Random(7);
+        List<Flight> flights = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            LocalDate fromDate = date.plusDays(random.nextInt(120));
+            flights.add(new Flight("Atlanta", cities[random.nextInt(cities.length)], fromDate, fromDate.plusDays(3 + random.nextInt(3) * 2),
+                    (10_000 + random.nextInt(100_000)) / 100.0, random.nextInt(4) == 0));
+        }
+        return flights;
+    }
+
+    private static FareStore storeOf(List<Flight> flights) {
+        FareStore store = new FareStore(flights.size());
+        flights.forEach(store::add);
+        return store;
+    }
+
+    // The cheapest flight per departure date in the window, cheapest first, by brute force
+    private static List<Double> expectedPrices(List<Flight> flights, String toCity, int tripLength, LocalDate start, LocalDate end, int count, boolean nonstopOnly) {
+        return flights.stream()
+                .filter(f -> f.getToCity().equals(toCity) && f.getFromDate().plusDays(tripLength).equals(f.getToDate()))
+                .filter(f -> !f.getFromDate().isBefore(start) && !f.getFromDate().isAfter(end) && (!nonstopOnly || f.isNonstop()))
+                .collect(Collectors.groupingBy(Flight::getFromDate, Collectors.minBy(Comparator.comparingDouble(Flight::getPrice))))
+                .values().stream()
+                .map(f -> f.orElseThrow().getPrice())
+                .sorted()
+                .limit(count)
+                .toList();
+    }
+
+    @Test
+    public void cheapestDeparturesMatchBruteForce() {
+        List<Flight> flights = randomFlights(5000);
+        FareCalendar calendar = new FareCalendar(storeOf(flights));
+        Random random = new Random(11);
+
+        for (int i = 0; i < 200; i++) {
+            String toCity = cities[random.nextInt(cities.length)];
+            int tripLength = 3 + random.nextInt(3) * 2;
+            LocalDate start = date.plusDays(random.nextInt(130) - 5), end = start.plusDays(random.nextInt(60));
+            int count = 1 + random.nextInt(10);
+            boolean nonstopOnly = random.nextBoolean();
+
+            List<Flight> departures = calendar.getCheapestDepartures(toCity, tripLength, start, end, count, nonstopOnly);
+            Assert.assertEquals(expectedPrices(flights, toCity, tripLength, start, end, count, nonstopOnly), departures.stream().map(Flight::getPrice).toList());
+            Assert.assertEquals(departures.size(), departures.stream().map(Flight::getFromDate).distinct().count());
+        }
+    }
+
+    @Test
+    public void multipleTripLengths() {
+        FareCalendar calendar = new FareCalendar(storeOf(List.of(
+                new Flight("Atlanta", "Paris", date, date.plusDays(5), 500, false),
+                new Flight("Atlanta", "Paris", date.plusDays(1), date.plusDays(8), 450, true),
+                new Flight("Atlanta", "Paris", date.plusDays(2), date.plusDays(9), 400, false)
+        )));
+
+        Map<Integer, List<Flight>> departures = calendar.getCheapestDepartures("Paris", new int[] { 7, 5, 10 }, date, date.plusDays(30), 5, false);
+        Assert.assertEquals(List.of(7, 5, 10), List.copyOf(departures.keySet()));
+        Assert.assertEquals(List.of(400.0, 450.0), departures.get(7).stream().map(Flight::getPrice).toList());
+        Assert.assertEquals(1, departures.get(5).size());
+        Assert.assertTrue(departures.get(10).isEmpty());
+        Assert.assertTrue(calendar.getCheapestDepartures("Singapore", 7, date, date.plusDays(30), 5, false).isEmpty());
+    }
+
+    @Test
+    public void cheapestWeekendPerMonth() {
+        LocalDate friday = LocalDate.of(2025, 5, 2);
+        FareCalendar calendar = new FareCalendar(storeOf(List.of(
+                new Flight("Atlanta", "Rome", friday, friday.plusDays(2), 800, false),
+                new Flight("Atlanta", "Rome", friday.plusDays(8), friday.plusDays(10), 700, false), // Saturday to Monday
+                new Flight("Atlanta", "Rome", friday.plusDays(5), friday.plusDays(7), 100, false), // Wednesday, not a weekend
+                new Flight("Atlanta", "Rome", friday.plusDays(7), friday.plusDays(14), 50, false), // A week long
+                new Flight("Atlanta", "Rome", LocalDate.of(2025, 6, 6), LocalDate.of(2025, 6, 9), 900, true)
+        )));
+
+        Map<YearMonth, Flight> weekends = calendar.getCheapestWeekendPerMonth("Rome", date, LocalDate.of(2025, 7, 31), false);
+        Assert.assertEquals(List.of(YearMonth.of(2025, 5), YearMonth.of(2025, 6)), List.copyOf(weekends.keySet()));
+        Assert.assertEquals(700, weekends.get(YearMonth.of(2025, 5)).getPrice(), 0);
+        Assert.assertEquals(900, weekends.get(YearMonth.of(2025, 6)).getPrice(), 0);
+
+        Assert.assertEquals(List.of(YearMonth.of(2025, 6)), List.copyOf(calendar.getCheapestWeekendPerMonth("Rome", date, LocalDate.of(2025, 7, 31), true).keySet()));
+
+        // Starting on a Saturday skips the Friday before it, and ending on a Friday skips the Saturday after it
+        Assert.assertEquals(700, calendar.getCheapestWeekendPerMonth("Rome", friday.plusDays(1), friday.plusDays(8), false).get(YearMonth.of(2025, 5)).getPrice(), 0);
+        Assert.assertEquals(800, calendar.getCheapestWeekendPerMonth("Rome", friday, friday.plusDays(7), false).get(YearMonth.of(2025, 5)).getPrice(), 0);
+    }
+
+    @Test
+    public void queriesSavedFlights() throws IOException, SQLException {
+        Path dbPath = Files.createTempFile("fare_calendar", ".sqlite");
+        Files.copy(Path.of("flight_data.sqlite"), dbPath, StandardCopyOption.REPLACE_EXISTING);
+
+        try (SQLiteDatabase db = new SQLiteDatabase(dbPath.toString(), (e) -> Assert.fail(e.getMessage()))) {
+            Assert.assertTrue(FlightSchema.migrate(db));
+            FareCalendar calendar = new FareCalendar(FareStore.load(db));
+
+            List<Flight> departures = calendar.getCheapestDepartures("Paris", 7, date, date.plusMonths(4), 3, false);
+            Assert.assertFalse(departures.isEmpty());
+
+            // The cheapest departure is the cheapest week-long trip to Paris in the table
+            ResultSet resultSet = db.query("SELECT MIN(price) FROM flight_details WHERE to_city = 'Paris' AND julianday(to_date) - julianday(from_date) = 7");
+            Assert.assertTrue(resultSet.next());
+            Assert.assertEquals(resultSet.getDouble(1), departures.getFirst().getPrice(), 0.005);
+            resultSet.getStatement().close();
+        } finally {
+            Files.deleteIfExists(dbPath);
+        }
+    }
+}
@@ -0,0 +1,136 @@
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.Random;
+
+public class FareStoreTests {
+    private static final LocalDate date = LocalDate.of(2025, 5, 1);
+
+    private static FareStore sample() {
+        FareStore store = new FareStore(0);
+        store.add(new Flight("Atlanta", "Paris", date, date.plusWeeks(1), 900.10, true));
+        store.add(new Flight("Atlanta", "Paris", date.plusDays(1), date.plusDays(8), 700.55, false));
+        store.add(new Flight("Atlanta", "Paris", date.plusDays(2), date.plusDays(9), 850, true));
+        store.add(new Flight("Atlanta", "Rome", date, date.plusWeeks(1), 650, false));
+        return store;
+    }
+
+    @Test
+    public void storesColumns() {
+        FareStore store = sample();
+        int paris = store.getCityCode("Paris");
+
+        Assert.assertEquals(4, store.size());
+        Assert.assertEquals(FareStore.ANY_CITY, store.getCityCode("Singapore"));
+        Assert.assertEquals("Paris", store.getCityName(paris));
+        Assert.assertEquals(paris, store.getToCity(1));
+        Assert.assertEquals(date.plusDays(1).toEpochDay(), store.getFromDate(1));
+        Assert.assertEquals(70055, store.getPriceCents(1));
+        Assert.assertFalse(store.isNonstop(1));
+        Assert.assertEquals(new Flight("Atlanta", "Paris", date.plusDays(1), date.plusDays(8), 700.55, false).toString(), store.toFlight(1).toString());
+    }
+
+    @Test
+    public void scans() {
+        FareStore store = sample();
+        int paris = store.getCityCode("Paris");
+        int any = FareStore.ANY_CITY, from = FareStore.ANY_DATE_FROM, to = FareStore.ANY_DATE_TO;
+
+        Assert.assertEquals(3, store.indexOfCheapest(any, false, from, to));
+        Assert.assertEquals(1, store.indexOfCheapest(paris, false, from, to));
+        Assert.assertEquals(2, store.indexOfCheapest(paris, true, from, to));
+        Assert.assertEquals(0, store.indexOfCheapest(paris, true, from, (int) date.toEpochDay()));
+        Assert.assertEquals(-1, store.indexOfCheapest(store.getCityCode("Rome"), true, from, to));
+
+        Assert.assertEquals(2, store.count(paris, true, from, to));
+        int[] rows = new int[1];
+        Assert.assertEquals(1, store.select(paris, true, from, to, rows));
+        Assert.assertEquals(0, rows[0]);
+
+        Assert.assertEquals(70055, store.getPercentileCents(paris, false, from, to, 0));
+        Assert.assertEquals(85000, store.getPercentileCents(paris, false, from, to, 50));
+        Assert.assertEquals(90010, store.getPercentileCents(paris, false, from, to, 100));
+        Assert.assertEquals(-1, store.getPercentileCents(paris, true, from, (int) date.toEpochDay() - 1, 50));
+    }
+
+    @Test
+    public void percentilesMatchSorting() {
+        Random random = new Random(42);
+        FareStore store = new FareStore(0);
+        long[] prices = new long[10_001];
+        for (int i = 0; i < prices.length; i++) {
+            prices[i] = random.nextInt(200_000);
+            store.add(0, 1, 20_000 + i % 100, 20_007 + i % 100, prices[i], random.nextBoolean());
+        }
+        Arrays.sort(prices);
+
+        for (double percentile : new double[] { 1, 10, 25, 50, 90, 99, 100 }) {
+            int rank = (int) Math.ceil(percentile / 100 * prices.length);
+            Assert.assertEquals(prices[rank - 1], store.getPercentileCents(FareStore.ANY_CITY, false, FareStore.ANY_DATE_FROM, FareStore.ANY_DATE_TO, percentile));
+        }
+    }
+
+    @Test
+    public void loadMatchesDatabase() throws IOException, SQLException {
+        Path dbPath = Files.createTempFile("fare_store", ".sqlite");
+        Files.copy(Path.of("flight_data.sqlite"), dbPath, StandardCopyOption.REPLACE_EXISTING);
+
+        try (SQLiteDatabase db = new SQLiteDatabase(dbPath.toString(), (e) -> Assert.fail(e.getMessage()))) {
+            Assert.assertTrue(FlightSchema.migrate(db));
+            FareStore store = FareStore.load(db);
+
+            ResultSet resultSet = db.query("SELECT to_city, nonstop, MIN(price), COUNT(*) FROM flight_details GROUP BY to_city, nonstop");
+            int total = 0;
+            while (resultSet.next()) {
+                int toCity = store.getCityCode(resultSet.getString(1));
+                boolean nonstop = resultSet.getBoolean(2);
+                int count = store.count(toCity, nonstop, FareStore.ANY_DATE_FROM, FareStore.ANY_DATE_TO);
+                if (!nonstop) {
+                    Assert.assertEquals(resultSet.getInt(4), count - store.count(toCity, true, FareStore.ANY_DATE_FROM, FareStore.ANY_DATE_TO));
+                    continue;
+                }
+
+                int cheapest = store.indexOfCheapest(toCity, true, FareStore.ANY_DATE_FROM, FareStore.ANY_DATE_TO);
+                Assert.assertEquals(Math.round(resultSet.getDouble(3) * 100), store.getPriceCents(cheapest));
+                Assert.assertEquals(resultSet.getInt(4), count);
+                total += count;
+            }
+            resultSet.getStatement().close();
+            Assert.assertTrue(total > 0);
+        } finally {
+            Files.deleteIfExists(dbPath);
+        }
+    }
+
+    @Test
+    public void takesAboutTwentyFiveBytesPerFare() {
+        // The footprint against a List<Flight> is measured by FootprintBenchmark in bench/, not here
+        int fares = 1000;
+        String[] cities = { "Cancun", "Las Vegas", "Denver", "Rome", "Milan", "Paris", "Madrid", "Amsterdam", "Singapore" };
+
+        FareStore store = new FareStore(fares);
+        for (int i = 0; i < fares; i++) {
+            LocalDate fromDate = date.plusDays(i % 365);
+            store.add(new Flight("Atlanta", cities[i % cities.length], fromDate, fromDate.plusWeeks(1), 300 + i % 1000, i % 3 == 0));
+        }
+
+        // Four int columns and a long column, plus a bit per fare for the nonstop flags
+        Assert.assertEquals(fares, store.size());
+        long perFare = 4 * Integer.BYTES + Long.BYTES;
+        Assert.assertTrue(store.getColumnBytes() >= fares * perFare);
+        Assert.assertTrue(store.getColumnBytes() <= fares * perFare + fares / 8 + Long.BYTES);
+
+        // Growing doubles the columns rather than adding a row at a time
+        store.add(new Flight("Atlanta", "Rome", date, date.plusWeeks(1), 300, false));
+        Assert.assertTrue(store.getColumnBytes() >= 2 * fares * perFare);
+        Assert.assertTrue(store.getColumnBytes() <= 2 * fares * perFare + fares / 8 + Long.BYTES);
+    }
+}
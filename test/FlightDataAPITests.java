@@ -20,7 +20,7 @@ public class FlightDataAPITests {
 
     @Test
     public void testBuildUrl() {
-        String url = flightDataAPI.buildUrl(
+        String url = FlightDataAPI.buildUrl(
                 "Atlanta", "Cancun",
                 LocalDate.of(2025, Month.DECEMBER, 2),
                 LocalDate.of(2026, Month.JANUARY, 9),
@@ -0,0 +1,117 @@
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+public class FlightExporterTests {
+    private final List<SQLException> errors = new ArrayList<>();
+    private Path dbPath, exportPath;
+    private SQLiteDatabase db;
+
+    @Before
+    public void setUp() throws IOException {
+        dbPath = Files.createTempFile("flight_exporter", ".sqlite");
+        exportPath = Files.createTempFile("flight_exporter", ".fltx");
+        Files.delete(exportPath);
+        Files.copy(Path.of("flight_data.sqlite"), dbPath, StandardCopyOption.REPLACE_EXISTING);
+        db = new SQLiteDatabase(dbPath.toString(), errors::add);
+        Assert.assertTrue(FlightSchema.migrate(db));
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        db.close();
+        Files.deleteIfExists(dbPath);
+        Files.deleteIfExists(exportPath);
+        Assert.assertTrue(errors.isEmpty());
+    }
+
+    private List<String> savedFlights() {
+        try (Stream<Flight> flights = FlightSchema.streamFlights(db)) {
+            return flights.map(Flight::toString).toList();
+        }
+    }
+
+    private List<String> exportedFlights() throws IOException {
+        List<String> flights = new ArrayList<>();
+        FlightExporter.read(exportPath, flight -> flights.add(flight.toString()));
+        return flights;
+    }
+
+    @Test
+    public void exportsIncrementally() throws IOException, SQLException {
+        FlightExporter exporter = new FlightExporter(db, 1000);
+        List<String> saved = savedFlights();
+
+        Assert.assertEquals(saved.size(), exporter.export(exportPath));
+        Assert.assertEquals(saved, exportedFlights());
+        Assert.assertEquals(0, exporter.export(exportPath));
+
+        // Flights saved after a cleared run get new ids, so they are appended after the old ones, which stay archived
+        db.update("DELETE FROM flights");
+        FlightSchema.addCities(db, "Atlanta", "Reykjavik");
+        db.updatePrepared(FlightSchema.INSERT_FLIGHT, "Atlanta", "Reykjavik", 20_000, 20_007, 612.34, true);
+        db.updatePrepared(FlightSchema.INSERT_FLIGHT, "Atlanta", "Reykjavik", 20_001, 20_008, 589.0, false);
+
+        Assert.assertEquals(2, exporter.export(exportPath));
+        List<String> expected = new ArrayList<>(saved);
+        expected.addAll(savedFlights());
+        Assert.assertEquals(expected, exportedFlights());
+    }
+
+    @Test
+    public void rewritesIncompleteRowGroup() throws IOException, SQLException {
+        List<String> saved = savedFlights();
+        new FlightExporter(db, 1000).export(exportPath);
+
+        // Cut the last row group short, as an interrupted export would
+        try (FileChannel channel = FileChannel.open(exportPath, StandardOpenOption.WRITE)) {
+            channel.truncate(channel.size() - 10);
+        }
+        try {
+            FlightExporter.read(exportPath, flight -> { });
+            Assert.fail("Expected a truncated file to fail");
+        } catch (IOException e) {
+            Assert.assertTrue(e.getMessage(), e.getMessage().startsWith("Truncated row group"));
+        }
+
+        Assert.assertEquals(saved.size() % 1000, new FlightExporter(db, 1000).export(exportPath));
+        Assert.assertEquals(saved, exportedFlights());
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsOtherFiles() throws IOException, SQLException {
+        Files.writeString(exportPath, "from_city,to_city\n");
+        new FlightExporter(db, 1000).export(exportPath);
+    }
+
+    @Test
+    public void exportsLargeHistoriesCompactly() throws IOException, SQLException {
+        // About a million flights across the saved cities, departure dates and random prices
+        Assert.assertTrue(db.updateInTransaction("INSERT OR IGNORE INTO flights (from_city_id, to_city_id, from_date, to_date, nonstop, price) " +
+                "WITH RECURSIVE n(x) AS (SELECT 1 UNION ALL SELECT x + 1 FROM n WHERE x < 1000000) " +
+                "SELECT 1, 2 + x % (SELECT COUNT(*) - 1 FROM cities), 20100 + x / 7000, 20107 + x / 7000, x % 3 = 0, 150 + abs(random() % 90000) / 100.0 FROM n"));
+        ResultSet count = db.query("SELECT COUNT(*) FROM flights");
+        Assert.assertTrue(count.next());
+        long total = count.getLong(1);
+        count.getStatement().close();
+
+        Assert.assertEquals(total, new FlightExporter(db, FlightExporter.DEFAULT_ROW_GROUP_SIZE).export(exportPath));
+        Assert.assertEquals(total, FlightExporter.read(exportPath, flight -> { }));
+
+        long dbBytes = Files.size(dbPath), exportBytes = Files.size(exportPath);
+        Assert.assertTrue(exportBytes * 4 < dbBytes);
+    }
+}
@@ -0,0 +1,151 @@
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+public class FlightSchemaTests {
+    private static final String legacyCheapestQuery = "SELECT to_city, MIN(price) AS cheapest_price, from_city, from_date, to_date, nonstop FROM flights GROUP BY to_city, nonstop";
+    private static final String cheapestQuery = "SELECT tc.name AS to_city, MIN(f.price) AS cheapest_price, fc.name AS from_city, " +
+            "date(f.from_date * 86400, 'unixepoch') AS from_date, date(f.to_date * 86400, 'unixepoch') AS to_date, f.nonstop " +
+            "FROM flights f JOIN cities fc ON fc.id = f.from_city_id JOIN cities tc ON tc.id = f.to_city_id " +
+            "GROUP BY f.to_city_id, f.nonstop ORDER BY tc.name, f.nonstop";
+    private static final String legacyDateRangeQuery = "SELECT MIN(price) FROM flights WHERE to_city = ? AND from_date BETWEEN ? AND ?";
+    private static final String dateRangeQuery = "SELECT MIN(price) FROM flights WHERE to_city_id = (SELECT id FROM cities WHERE name = ?) AND from_date BETWEEN ? AND ?";
+
+    private Path dbPath;
+    private SQLiteDatabase db;
+
+    @Before
+    public void setUp() throws IOException {
+        dbPath = Files.createTempFile("flight_schema", ".sqlite");
+        Files.copy(Path.of("flight_data.sqlite"), dbPath, StandardCopyOption.REPLACE_EXISTING);
+        db = new SQLiteDatabase(dbPath.toString(), (e) -> Assert.fail(e.getMessage()));
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        db.close();
+        Files.deleteIfExists(dbPath);
+    }
+
+    private List<String> rows(String sql, Object... parameters) throws SQLException {
+        List<String> rows = new ArrayList<>();
+        try (ResultSet resultSet = db.queryPrepared(sql, parameters)) {
+            int columns = resultSet.getMetaData().getColumnCount();
+            while (resultSet.next()) {
+                StringBuilder row = new StringBuilder();
+                for (int i = 1; i <= columns; i++) {
+                    row.append(resultSet.getString(i)).append('|');
+                }
+                rows.add(row.toString());
+            }
+        }
+        return rows;
+    }
+
+    private String queryPlan(String sql, Object... parameters) throws SQLException {
+        return String.join("\n", rows("EXPLAIN QUERY PLAN " + sql, parameters));
+    }
+
+    @Test
+    public void migratesShippedDatabaseInPlace() throws SQLException {
+        if (FlightSchema.getVersion(db) != 0) {
+            return; // The shipped database has already been migrated
+        }
+
+        // Identical rows are collapsed into the first of them
+        List<String> legacyRows = rows("SELECT MIN(id) AS id, from_city, to_city, from_date, to_date, nonstop, price FROM flights " +
+                "GROUP BY from_city, to_city, from_date, to_date, nonstop, price ORDER BY id");
+        Assert.assertTrue(legacyRows.size() < rows("SELECT id FROM flights").size());
+        List<String> legacyCheapest = rows(legacyCheapestQuery + " ORDER BY to_city, nonstop");
+        List<String> legacyDateRangeMin = rows(legacyDateRangeQuery, "Cancun", "2025-06-01", "2025-06-30");
+
+        Assert.assertTrue(FlightSchema.migrate(db));
+        Assert.assertEquals(FlightSchema.VERSION, FlightSchema.getVersion(db));
+
+        // Every distinct row survives with its id, and the view reproduces the original columns exactly
+        Assert.assertEquals(legacyRows, rows("SELECT id, from_city, to_city, from_date, to_date, nonstop, price FROM flight_details ORDER BY id"));
+        Assert.assertEquals(legacyCheapest, rows(cheapestQuery));
+
+        long from = LocalDate.of(2025, 6, 1).toEpochDay(), to = LocalDate.of(2025, 6, 30).toEpochDay();
+        Assert.assertEquals(legacyDateRangeMin, rows(dateRangeQuery, "Cancun", from, to));
+    }
+
+    @Test
+    public void streamsFlights() throws SQLException {
+        Assert.assertTrue(FlightSchema.migrate(db));
+
+        List<String> expected = rows("SELECT from_city, to_city, from_date, to_date, price, nonstop FROM flight_details ORDER BY id");
+        List<String> streamed;
+        try (Stream<Flight> flights = FlightSchema.streamFlights(db)) {
+            streamed = flights.map(f -> f.getFromCity() + "|" + f.getToCity() + "|" + f.getFromDate() + "|" + f.getToDate() + "|" +
+                    f.getPrice() + "|" + (f.isNonstop() ? 1 : 0) + "|").toList();
+        }
+
+        Assert.assertEquals(expected.size(), streamed.size());
+        Assert.assertEquals(expected, streamed);
+    }
+
+    @Test
+    public void queriesUseIndexes() throws SQLException {
+        Assert.assertTrue(FlightSchema.migrate(db));
+
+        String cheapestPlan = queryPlan(cheapestQuery);
+        Assert.assertTrue(cheapestPlan, cheapestPlan.contains("USING COVERING INDEX flights_route_price"));
+        Assert.assertFalse(cheapestPlan, cheapestPlan.contains("USE TEMP B-TREE FOR GROUP BY"));
+
+        String dateRangePlan = queryPlan(dateRangeQuery, "Cancun", 0, 0);
+        Assert.assertTrue(dateRangePlan, dateRangePlan.contains("USING COVERING INDEX flights_route_date (to_city_id=? AND from_date>? AND from_date<?)"));
+    }
+
+    @Test
+    public void migrateIsIdempotent() throws SQLException {
+        Assert.assertTrue(FlightSchema.migrate(db));
+        List<String> before = rows("SELECT * FROM flights ORDER BY id");
+        Assert.assertTrue(FlightSchema.migrate(db));
+        Assert.assertEquals(before, rows("SELECT * FROM flights ORDER BY id"));
+    }
+
+    @Test
+    public void adoptsExistingScrapeCache() throws SQLException {
+        Assert.assertTrue(FlightSchema.migrate(db));
+        // A version 4 database whose cache table was created by ScrapeCache itself
+        db.update("DROP TABLE scrape_cache");
+        db.update("PRAGMA user_version = 4");
+        db.update("CREATE TABLE scrape_cache (url TEXT PRIMARY KEY, fetched_at INTEGER NOT NULL, results TEXT NOT NULL)");
+        db.update("INSERT INTO scrape_cache VALUES ('url', 1, '')");
+
+        Assert.assertTrue(FlightSchema.migrate(db));
+        Assert.assertEquals(FlightSchema.VERSION, FlightSchema.getVersion(db));
+        Assert.assertEquals(List.of("url|1||"), rows("SELECT * FROM scrape_cache"));
+    }
+
+    @Test
+    public void createsFreshSchemaAndInserts() throws SQLException {
+        db.update("DROP TABLE flights");
+        db.update("PRAGMA user_version = 0");
+        Assert.assertTrue(FlightSchema.migrate(db));
+
+        FlightSchema.addCities(db, "Atlanta", "Paris");
+        FlightSchema.addCities(db, "Paris");
+        Assert.assertEquals(List.of("2|"), rows("SELECT COUNT(*) FROM cities"));
+
+        long from = LocalDate.of(2025, 5, 1).toEpochDay(), to = LocalDate.of(2025, 5, 8).toEpochDay();
+        Assert.assertEquals(1, db.updatePrepared(FlightSchema.INSERT_FLIGHT, "Atlanta", "Paris", from, to, 812.5, true));
+        // Inserting an identical flight again is a no-op
+        Assert.assertEquals(0, db.updatePrepared(FlightSchema.INSERT_FLIGHT, "Atlanta", "Paris", from, to, 812.5, true));
+        Assert.assertEquals(List.of("Atlanta|Paris|2025-05-01|2025-05-08|1|812.5|"),
+                rows("SELECT from_city, to_city, from_date, to_date, nonstop, price FROM flight_details"));
+    }
+}
@@ -0,0 +1,204 @@
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+
+public class FlightWriterTests {
+    private static final String dbFilePath = "flight_writer_test.db";
+    private static final ScrapeTask paris = new ScrapeTask("Atlanta", "Paris", LocalDate.of(2025, 5, 1), LocalDate.of(2025, 5, 8));
+    private static final ScrapeTask rome = new ScrapeTask("Atlanta", "Rome", LocalDate.of(2025, 5, 1), LocalDate.of(2025, 5, 8));
+
+    private final List<SQLException> errors = new ArrayList<>();
+    private SQLiteDatabase db;
+
+    @Before
+    public void setUp() throws IOException {
+        Files.deleteIfExists(Path.of(dbFilePath));
+        db = new SQLiteDatabase(dbFilePath, errors::add);
+        Assert.assertTrue(FlightSchema.migrate(db));
+        FlightSchema.addCities(db, "Atlanta", "Paris", "Rome");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        db.close();
+        Files.deleteIfExists(Path.of(dbFilePath));
+    }
+
+    private static List<Flight> flights(ScrapeTask task, double... prices) {
+        List<Flight> flights = new ArrayList<>();
+        for (double price : prices) {
+            flights.add(new Flight(task.fromCity(), task.toCity(), task.fromDate(), task.toDate(), price, false));
+        }
+        return flights;
+    }
+
+    private List<Double> prices(String toCity) throws SQLException {
+        List<Double> prices = new ArrayList<>();
+        try (ResultSet resultSet = db.queryPrepared("SELECT price FROM flight_details WHERE to_city = ? ORDER BY price", toCity)) {
+            while (resultSet.next()) {
+                prices.add(resultSet.getDouble(1));
+            }
+        }
+        return prices;
+    }
+
+    @Test
+    public void buffersUntilFullAndCheckpoints() throws SQLException {
+        try (FlightWriter writer = new FlightWriter(db, 4, 60_000)) {
+            CompletableFuture<Void> parisSaved = writer.add(paris, flights(paris, 500, 600));
+            Assert.assertEquals(List.of(), prices("Paris"));
+            Assert.assertEquals(Set.of(), FlightWriter.getCompletedTasks(db));
+            Assert.assertFalse(parisSaved.isDone());
+
+            CompletableFuture<Void> romeSaved = writer.add(rome, flights(rome, 700, 800));
+            Assert.assertTrue(parisSaved.isDone() && !parisSaved.isCompletedExceptionally());
+            Assert.assertTrue(romeSaved.isDone() && !romeSaved.isCompletedExceptionally());
+            Assert.assertEquals(List.of(500.0, 600.0), prices("Paris"));
+            Assert.assertEquals(List.of(700.0, 800.0), prices("Rome"));
+            Assert.assertEquals(Set.of(paris, rome), FlightWriter.getCompletedTasks(db));
+
+            // One write of four flights and two checkpoints
+            Assert.assertEquals(1, writer.getFlushLatency().getCount());
+            Assert.assertEquals(6, writer.getFlushRows().getMax());
+            Assert.assertEquals(0, writer.getFailedFlushes());
+        }
+        Assert.assertTrue(errors.isEmpty());
+    }
+
+    @Test
+    public void flushesByAge() throws SQLException, InterruptedException {
+        try (FlightWriter writer = new FlightWriter(db, 100, 50)) {
+            writer.add(paris, flights(paris, 500));
+            Assert.assertTrue(writer.flushIfDue());
+            Assert.assertEquals(Set.of(), FlightWriter.getCompletedTasks(db));
+
+            // No more results arrive, so only flushIfDue writes the one waiting
+            Thread.sleep(60);
+            Assert.assertTrue(writer.flushIfDue());
+            Assert.assertEquals(Set.of(paris), FlightWriter.getCompletedTasks(db));
+            Assert.assertEquals(1, writer.getFlushLatency().getCount());
+        }
+        Assert.assertTrue(errors.isEmpty());
+    }
+
+    @Test
+    public void keepsPriceHistoryAcrossRescrapes() {
+        Instant firstRun = Instant.parse("2025-04-01T00:00:00Z");
+        try (FlightWriter writer = new FlightWriter(db, 1, 60_000, Clock.fixed(firstRun, ZoneOffset.UTC))) {
+            writer.add(paris, flights(paris, 500, 600));
+        }
+        try (FlightWriter writer = new FlightWriter(db, 1, 60_000, Clock.fixed(firstRun.plus(Duration.ofDays(1)), ZoneOffset.UTC))) {
+            writer.add(paris, flights(paris, 450));
+        }
+
+        List<PriceHistory.PricePoint> points = new PriceHistory(db).read("Atlanta", "Paris", paris.fromDate(), paris.toDate(), false, Instant.EPOCH, Instant.parse("2026-01-01T00:00:00Z"));
+        Assert.assertEquals(List.of(500.0, 450.0), points.stream().map(PriceHistory.PricePoint::price).toList());
+        Assert.assertTrue(errors.isEmpty());
+    }
+
+    @Test
+    public void leavesCachedResultsOutOfPriceHistory() throws SQLException {
+        Instant firstRun = Instant.parse("2025-04-01T00:00:00Z");
+        try (FlightWriter writer = new FlightWriter(db, 1, 60_000, Clock.fixed(firstRun, ZoneOffset.UTC))) {
+            writer.add(paris, flights(paris, 500));
+        }
+        try (FlightWriter writer = new FlightWriter(db, 1, 60_000, Clock.fixed(firstRun.plus(Duration.ofDays(1)), ZoneOffset.UTC))) {
+            writer.add(paris, flights(paris, 450), false);
+            // The cached flights are still saved and checkpointed
+            Assert.assertEquals(List.of(450.0), prices("Paris"));
+        }
+
+        List<PriceHistory.PricePoint> points = new PriceHistory(db).read("Atlanta", "Paris", paris.fromDate(), paris.toDate(), false, Instant.EPOCH, Instant.parse("2026-01-01T00:00:00Z"));
+        Assert.assertEquals(List.of(firstRun), points.stream().map(PriceHistory.PricePoint::observedAt).toList());
+        Assert.assertTrue(errors.isEmpty());
+    }
+
+    @Test
+    public void rescrapeReplacesRows() throws SQLException {
+        try (FlightWriter writer = new FlightWriter(db, 1, 60_000)) {
+            writer.add(paris, flights(paris, 500, 500, 600));
+            // Identical flights collapse into one row
+            Assert.assertEquals(List.of(500.0, 600.0), prices("Paris"));
+
+            writer.add(paris, flights(paris, 450, 600));
+            Assert.assertEquals(List.of(450.0, 600.0), prices("Paris"));
+
+            // An empty result still replaces the search's rows and checkpoints it
+            writer.add(paris, List.of());
+            Assert.assertEquals(List.of(), prices("Paris"));
+            Assert.assertEquals(Set.of(paris), FlightWriter.getCompletedTasks(db));
+        }
+        Assert.assertTrue(errors.isEmpty());
+    }
+
+    @Test
+    public void taskBufferedTwiceKeepsItsLatestFlights() throws SQLException {
+        try (FlightWriter writer = new FlightWriter(db, 100, 60_000)) {
+            CompletableFuture<Void> firstSaved = writer.add(paris, flights(paris, 500, 600));
+            CompletableFuture<Void> secondSaved = writer.add(paris, flights(paris, 450));
+            Assert.assertTrue(writer.flush());
+            Assert.assertTrue(firstSaved.isDone() && !firstSaved.isCompletedExceptionally());
+            Assert.assertTrue(secondSaved.isDone() && !secondSaved.isCompletedExceptionally());
+        }
+
+        Assert.assertEquals(List.of(450.0), prices("Paris"));
+        Assert.assertEquals(Set.of(paris), FlightWriter.getCompletedTasks(db));
+        Assert.assertTrue(errors.isEmpty());
+    }
+
+    @Test
+    public void failedWriteLeavesNoCheckpoint() throws SQLException {
+        ScrapeTask unknown = new ScrapeTask("Atlanta", "Nowhere", paris.fromDate(), paris.toDate());
+
+        try (FlightWriter writer = new FlightWriter(db, 100, 60_000)) {
+            CompletableFuture<Void> parisSaved = writer.add(paris, flights(paris, 500));
+            CompletableFuture<Void> unknownSaved = writer.add(unknown, flights(unknown, 100));
+            Assert.assertFalse(writer.flush());
+            Assert.assertTrue(parisSaved.isCompletedExceptionally());
+            Assert.assertTrue(unknownSaved.isCompletedExceptionally());
+        }
+
+        // The whole transaction is rolled back, so both tasks will be scraped again on resume
+        Assert.assertFalse(errors.isEmpty());
+        Assert.assertEquals(List.of(), prices("Paris"));
+        Assert.assertEquals(Set.of(), FlightWriter.getCompletedTasks(db));
+    }
+
+    @Test
+    public void thrownWriteIsNotReplayed() throws SQLException {
+        // A flight without dates makes the write throw after Paris's flight is already in the JDBC batch
+        List<Flight> broken = List.of(new Flight("Atlanta", "Rome", null, null, 700, false));
+
+        try (FlightWriter writer = new FlightWriter(db, 100, 60_000)) {
+            CompletableFuture<Void> parisSaved = writer.add(paris, flights(paris, 500));
+            writer.add(rome, broken);
+            Assert.assertThrows(NullPointerException.class, writer::flush);
+            Assert.assertEquals(1, writer.getFailedFlushes());
+            Assert.assertTrue(parisSaved.isCompletedExceptionally());
+
+            writer.add(rome, flights(rome, 800));
+            Assert.assertTrue(writer.flush());
+        }
+
+        Assert.assertTrue(errors.isEmpty());
+        Assert.assertEquals(List.of(), prices("Paris"));
+        Assert.assertEquals(List.of(800.0), prices("Rome"));
+        Assert.assertEquals(Set.of(rome), FlightWriter.getCompletedTasks(db));
+    }
+}
@@ -0,0 +1,32 @@
+import org.junit.Assert;
+import org.junit.Test;
+
+public class HistogramTests {
+    @Test
+    public void bucketsCoverEveryValue() {
+        long[] values = { 0, 1, 3, 4, 5, 7, 8, 100, 1_000, 123_456_789, Long.MAX_VALUE / 2, Long.MAX_VALUE };
+        for (long value : values) {
+            int index = Histogram.bucketIndex(value);
+            Assert.assertTrue(value + " is above its bucket", value <= Histogram.bucketUpperBound(index));
+            if (index > 0) {
+                Assert.assertTrue(value + " is below its bucket", value > Histogram.bucketUpperBound(index - 1));
+            }
+        }
+    }
+
+    @Test
+    public void countsPlainValues() {
+        Histogram histogram = new Histogram();
+        for (int rows : new int[] { 1, 2, 2, 6 }) {
+            histogram.record(rows);
+        }
+
+        Assert.assertEquals(4, histogram.getCount());
+        Assert.assertEquals(11, histogram.getSum());
+        Assert.assertEquals(6, histogram.getMax());
+        Assert.assertEquals(2.75, histogram.getMean(), 1e-9);
+        // Values below 4 have a bucket each, so small counts are exact
+        Assert.assertEquals(2, histogram.getPercentile(50));
+        Assert.assertEquals("count=4 mean=2.8 p50=2 p90=6 max=6", histogram.toString());
+    }
+}
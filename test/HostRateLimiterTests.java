@@ -0,0 +1,105 @@
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+public class HostRateLimiterTests {
+    private static final String booking = "https://flights.booking.com/flights/Atlanta.CITY-Paris.CITY/?from=Atlanta.CITY";
+    private static final String other = "https://example.com/search?q=Las Vegas";
+
+    private static class FakeBackend implements FlightFetchBackend {
+        private RuntimeException failure = null;
+
+        @Override
+        public SearchPage fetch(String url) {
+            if (failure != null) {
+                throw failure;
+            }
+            return new SearchPage(List.of(new FareCard(100, 0, 0)), false);
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    @Test
+    public void allowsBurstThenPaces() {
+        long[] now = { 0 };
+        HostRateLimiter limiter = new HostRateLimiter(2, 3, () -> now[0]);
+
+        for (int i = 0; i < 3; i++) {
+            Assert.assertEquals(0, limiter.reserve(booking));
+        }
+        // Two per second, so each further load waits another half second
+        Assert.assertEquals(500_000_000, limiter.reserve(booking));
+        Assert.assertEquals(1_000_000_000, limiter.reserve(booking));
+
+        // Other hosts have their own bucket
+        Assert.assertEquals(0, limiter.reserve(other));
+
+        // After the reserved loads have run, the bucket refills up to the burst size and no further
+        now[0] += 10_000_000_000L;
+        for (int i = 0; i < 3; i++) {
+            Assert.assertEquals(0, limiter.reserve(booking));
+        }
+        Assert.assertEquals(500_000_000, limiter.reserve(booking));
+    }
+
+    @Test
+    public void adaptsRateToThrottling() {
+        HostRateLimiter limiter = new HostRateLimiter(4, 1, () -> 0);
+
+        limiter.onThrottled(booking);
+        Assert.assertEquals(2, limiter.getRate(booking), 1e-9);
+        Assert.assertEquals(4, limiter.getRate(other), 1e-9);
+
+        for (int i = 0; i < 20; i++) {
+            limiter.onThrottled(booking);
+        }
+        Assert.assertEquals(4.0 / 64, limiter.getRate(booking), 1e-9);
+
+        // Each success adds back a twentieth of the maximum, up to the maximum
+        limiter.onSuccess(booking);
+        Assert.assertEquals(4.0 / 64 + 0.2, limiter.getRate(booking), 1e-9);
+        for (int i = 0; i < 100; i++) {
+            limiter.onSuccess(booking);
+        }
+        Assert.assertEquals(4, limiter.getRate(booking), 1e-9);
+    }
+
+    @Test
+    public void wrappedBackendReportsOutcomes() {
+        HostRateLimiter limiter = new HostRateLimiter(1000, 100);
+        FakeBackend backend = new FakeBackend();
+        FlightFetchBackend limited = limiter.wrap(backend);
+
+        Assert.assertEquals(1, limited.fetch(booking).cards().size());
+        Assert.assertEquals(1000, limiter.getRate(booking), 1e-9);
+
+        backend.failure = new IllegalStateException("HTTP 429 for " + booking);
+        Assert.assertThrows(IllegalStateException.class, () -> limited.fetch(booking));
+        Assert.assertEquals(500, limiter.getRate(booking), 1e-9);
+
+        // A page that could not be parsed is not a sign of throttling
+        backend.failure = new IllegalArgumentException("No price in \"\"");
+        Assert.assertThrows(IllegalArgumentException.class, () -> limited.fetch(booking));
+        Assert.assertEquals(500, limiter.getRate(booking), 1e-9);
+
+        backend.failure = new IllegalStateException("Search page showed an error: " + booking);
+        Assert.assertThrows(CompletionException.class, () -> limited.fetchAsync(booking).join());
+        Assert.assertEquals(250, limiter.getRate(booking), 1e-9);
+    }
+
+    @Test
+    public void pacesAsyncFetches() {
+        FlightFetchBackend limited = new HostRateLimiter(20, 1).wrap(new FakeBackend());
+
+        long start = System.nanoTime();
+        CompletableFuture.allOf(limited.fetchAsync(booking), limited.fetchAsync(booking), limited.fetchAsync(booking)).join();
+        // The first fetch goes straight away, the other two wait 50 ms each for a token
+        Assert.assertTrue(System.nanoTime() - start >= 95_000_000);
+    }
+}
@@ -0,0 +1,175 @@
+import com.sun.net.httpserver.HttpServer;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs <code>HttpBackend</code> against a local server that serves search API responses from
+ * <code>test/fixtures</code>, so no network access is needed. The fixtures are synthetic: they are written
+ * by hand in the API's format, with made-up prices and carriers, not recorded from the live site. A request is answered with
+ * <code>booking_&lt;to city&gt;[_nonstop].json</code>, or a 404 if there is no such fixture.
+ */
+public class HttpBackendTests {
+    private static final Path fixtures = Path.of("test", "fixtures");
+    private static final LocalDate fromDate = LocalDate.of(2025, 5, 1), toDate = LocalDate.of(2025, 5, 8);
+    private static final AtomicInteger requests = new AtomicInteger();
+    private static final FetchMetrics metrics = new FetchMetrics();
+    private static HttpServer server;
+    private static FlightDataAPI api;
+
+    @BeforeClass
+    public static void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/api/flights/", exchange -> {
+            requests.incrementAndGet();
+            String query = exchange.getRequestURI().getQuery();
+            String toCity = query.replaceAll(".*[?&]to=([^&]*)\\.CITY.*", "$1").replace(' ', '_');
+            Path fixture = fixtures.resolve("booking_" + toCity + (query.contains("stops=0") ? "_nonstop" : "") + ".json");
+
+            byte[] body = Files.exists(fixture) ? Files.readAllBytes(fixture) : new byte[0];
+            exchange.getResponseHeaders().add("Content-Type", "application/json");
+            exchange.sendResponseHeaders(body.length > 0 ? 200 : 404, body.length > 0 ? body.length : -1);
+            try (OutputStream output = exchange.getResponseBody()) {
+                output.write(body);
+            }
+        });
+        server.start();
+
+        api = new FlightDataAPI(new HttpBackend("http://127.0.0.1:" + server.getAddress().getPort(), Duration.ofSeconds(5), metrics));
+    }
+
+    @AfterClass
+    public static void tearDown() {
+        api.close();
+        server.stop(0);
+    }
+
+    @Test
+    public void toApiUri() {
+        String url = FlightDataAPI.buildUrl("Atlanta", "Las Vegas", fromDate, toDate, FlightDataAPI.NONSTOP_FILTER);
+        Assert.assertEquals("https://flights.booking.com/api/flights/?type=ROUNDTRIP&adults=1&cabinClass=ECONOMY&children=&from=Atlanta.CITY&to=Las%20Vegas.CITY&depart=2025-05-01&return=2025-05-08&sort=CHEAPEST&travelPurpose=leisure&stops=0",
+                HttpBackend.toApiUri("https://flights.booking.com", url).toString());
+    }
+
+    @Test
+    public void parsesNonstopFlights() {
+        List<Flight> flights = api.getRoundTripNonstopEconomyFlights("Atlanta", "Cancun", fromDate, toDate);
+
+        Assert.assertEquals(3, flights.size());
+        Assert.assertEquals(292.44, flights.get(0).getPrice(), 0);
+        Assert.assertEquals(297.07, flights.get(1).getPrice(), 0);
+        Assert.assertEquals(341.0, flights.get(2).getPrice(), 0);
+        for (Flight flight : flights) {
+            Assert.assertTrue(flight.isNonstop());
+            Assert.assertEquals("Cancun", flight.getToCity());
+            Assert.assertEquals(fromDate, flight.getFromDate());
+        }
+    }
+
+    @Test
+    public void treatsFallbackToStopsAsNoDirectFlights() {
+        Assert.assertEquals(List.of(), api.getRoundTripNonstopEconomyFlights("Atlanta", "Rome", fromDate, toDate));
+
+        List<Flight> flights = api.getRoundTripEconomyFlights("Atlanta", "Rome", fromDate, toDate);
+        Assert.assertEquals(2, flights.size());
+        Assert.assertEquals(1012.36, flights.get(0).getPrice(), 0);
+        Assert.assertTrue(flights.stream().noneMatch(Flight::isNonstop));
+    }
+
+    @Test
+    public void combinedSearchChecksNonstopPageOncePerRoute() {
+        // A fresh searcher, since what it learns about each route changes how many pages it loads
+        FlightDataAPI api = new FlightDataAPI(new HttpBackend("http://127.0.0.1:" + server.getAddress().getPort(), Duration.ofSeconds(5), metrics));
+        LocalDate nextFromDate = fromDate.plusDays(1), nextToDate = toDate.plusDays(1);
+
+        // Rome's unfiltered page has no nonstop cards, and its nonstop page falls back to flights with stops
+        int before = requests.get();
+        FlightSearchResult result = api.searchRoundTripEconomyFlights("Atlanta", "Rome", fromDate, toDate);
+        Assert.assertEquals(before + 2, requests.get());
+        Assert.assertFalse(result.hasNonstopFlights());
+        Assert.assertEquals(2, result.allFlights().size());
+        Assert.assertEquals(result.allFlights(), result.getPreferredFlights());
+
+        // Rome is now known to have no direct flights, so its next date only loads the unfiltered page
+        result = api.searchRoundTripEconomyFlights("Atlanta", "Rome", nextFromDate, nextToDate);
+        Assert.assertEquals(before + 3, requests.get());
+        Assert.assertEquals(2, result.allFlights().size());
+
+        // Cancun's nonstop flights are all dearer than its cheapest page, which only has flights with stops
+        result = api.searchRoundTripEconomyFlightsAsync("Atlanta", "Cancun", fromDate, toDate).join();
+        Assert.assertEquals(before + 5, requests.get());
+        Assert.assertEquals(List.of(292.44, 297.07, 341.0), result.getPreferredFlights().stream().map(Flight::getPrice).toList());
+        Assert.assertEquals(5, result.allFlights().size());
+
+        // So its next date only loads the nonstop page
+        result = api.searchRoundTripEconomyFlights("Atlanta", "Cancun", nextFromDate, nextToDate);
+        Assert.assertEquals(before + 6, requests.get());
+        Assert.assertEquals(List.of(292.44, 297.07, 341.0), result.getPreferredFlights().stream().map(Flight::getPrice).toList());
+        result = api.searchRoundTripEconomyFlightsAsync("Atlanta", "Cancun", nextFromDate, nextToDate).join();
+        Assert.assertEquals(before + 7, requests.get());
+        Assert.assertEquals(3, result.nonstopFlights().size());
+    }
+
+    @Test
+    public void emptyResultsAndCityNamesWithSpaces() {
+        Assert.assertEquals(List.of(), api.getRoundTripNonstopEconomyFlights("Atlanta", "Las Vegas", fromDate, toDate));
+    }
+
+    @Test
+    public void failsOnErrorResponse() {
+        try {
+            api.getRoundTripEconomyFlights("Atlanta", "Nowhere", fromDate, toDate);
+            Assert.fail("Expected an exception for a 404 response");
+        } catch (IllegalStateException e) {
+            Assert.assertTrue(e.getMessage(), e.getMessage().startsWith("HTTP 404"));
+        }
+        Assert.assertTrue(metrics.getCount(FetchMetrics.Outcome.ERROR_PAGE) >= 1);
+    }
+
+    @Test
+    public void runsRequestsConcurrently() {
+        int before = requests.get();
+        List<CompletableFuture<List<Flight>>> futures = List.of(
+                api.getRoundTripNonstopEconomyFlightsAsync("Atlanta", "Cancun", fromDate, toDate),
+                api.getRoundTripNonstopEconomyFlightsAsync("Atlanta", "Rome", fromDate, toDate),
+                api.getRoundTripEconomyFlightsAsync("Atlanta", "Rome", fromDate, toDate),
+                api.getRoundTripNonstopEconomyFlightsAsync("Atlanta", "Las Vegas", fromDate, toDate)
+        );
+
+        List<Integer> sizes = futures.stream().map(CompletableFuture::join).map(List::size).toList();
+        Assert.assertEquals(List.of(3, 0, 2, 0), sizes);
+        Assert.assertEquals(before + 4, requests.get());
+        Assert.assertTrue(metrics.getHistogram(FetchMetrics.Phase.TOTAL).getCount() >= 4);
+    }
+
+    @Test
+    public void parse() {
+        String body = "{\"flightOffers\": [{\"segments\": [{\"legs\": [{}]}, {\"legs\": [{}, {}]}], " +
+                "\"priceBreakdown\": {\"total\": {\"currencyCode\": \"USD\", \"units\": 1234, \"nanos\": 500000000}}}]}";
+
+        SearchPage page = HttpBackend.parse(body, false);
+        Assert.assertEquals(List.of(new FareCard(1234.5, 0, 1)), page.cards());
+        Assert.assertFalse(page.noDirectFlights());
+        Assert.assertTrue(HttpBackend.parse(body, true).noDirectFlights());
+    }
+
+    @Test
+    public void rejectsOffersWithoutPrice() {
+        String body = "{\"flightOffers\": [{\"segments\": [{\"legs\": [{}]}, {\"legs\": [{}]}]}]}";
+
+        IllegalArgumentException e = Assert.assertThrows(IllegalArgumentException.class, () -> HttpBackend.parse(body, false));
+        Assert.assertTrue(e.getMessage(), e.getMessage().contains("priceBreakdown"));
+    }
+}
@@ -0,0 +1,34 @@
+import org.junit.Assert;
+import org.junit.Test;
+
+public class LatencyHistogramTests {
+    @Test
+    public void percentiles() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        Assert.assertEquals(0, histogram.getPercentileNanos(50));
+
+        for (int millis = 1; millis <= 100; millis++) {
+            histogram.record(millis * 1_000_000L);
+        }
+
+        Assert.assertEquals(100, histogram.getCount());
+        Assert.assertEquals(100_000_000L, histogram.getMaxNanos());
+        Assert.assertEquals(50.5e6, histogram.getMeanNanos(), 1);
+
+        // Buckets are a quarter of a power of two wide, so percentiles are within 25% above the true value
+        assertWithin(50e6, histogram.getPercentileNanos(50));
+        assertWithin(90e6, histogram.getPercentileNanos(90));
+        assertWithin(99e6, histogram.getPercentileNanos(99));
+        Assert.assertEquals(100_000_000L, histogram.getPercentileNanos(100));
+
+        long total = 0;
+        for (long[] bucket : histogram.getBuckets()) {
+            total += bucket[1];
+        }
+        Assert.assertEquals(100, total);
+    }
+
+    private static void assertWithin(double expected, long actual) {
+        Assert.assertTrue(actual + " is not within 25% of " + expected, actual >= expected && actual <= expected * 1.25);
+    }
+}
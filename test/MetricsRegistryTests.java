@@ -0,0 +1,138 @@
+import com.sun.net.httpserver.HttpServer;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+public class MetricsRegistryTests {
+    private static MetricsRegistry sampleRegistry() {
+        MetricsRegistry registry = new MetricsRegistry();
+        registry.counter("scrape_tasks_total", "Scrape tasks, by result.", "result", "completed").add(3);
+        registry.counter("scrape_tasks_total", "Scrape tasks, by result.", "result", "failed").increment();
+        registry.registerGauge("scrape_cache_hit_ratio", "Cache hit ratio.", () -> 0.25);
+
+        LatencyHistogram timer = registry.timer("db_flush_seconds", "Write time.");
+        timer.record(1_000_000);
+        timer.record(3_000_000);
+        registry.histogram("db_flush_rows", "Rows per write.").record(500);
+        return registry;
+    }
+
+    @Test
+    public void formatsPrometheusText() {
+        String text = sampleRegistry().toPrometheus();
+
+        Assert.assertTrue(text, text.contains("# HELP scrape_tasks_total Scrape tasks, by result.\n# TYPE scrape_tasks_total counter\n"));
+        Assert.assertTrue(text, text.contains("scrape_tasks_total{result=\"completed\"} 3\nscrape_tasks_total{result=\"failed\"} 1\n"));
+        Assert.assertTrue(text, text.contains("# TYPE scrape_cache_hit_ratio gauge\nscrape_cache_hit_ratio 0.25\n"));
+
+        // Durations are recorded in nanoseconds and exported in seconds, with cumulative buckets
+        Assert.assertTrue(text, text.contains("# TYPE db_flush_seconds histogram\n"));
+        Assert.assertTrue(text, text.contains("db_flush_seconds_bucket{le=\"+Inf\"} 2\n"));
+        Assert.assertTrue(text, text.contains("db_flush_seconds_sum 0.004\n"));
+        Assert.assertTrue(text, text.contains("db_flush_seconds_count 2\n"));
+        List<String> buckets = text.lines().filter(line -> line.startsWith("db_flush_seconds_bucket{le=\"0.")).toList();
+        Assert.assertEquals(2, buckets.size());
+        Assert.assertTrue(buckets.get(0).endsWith(" 1"));
+        Assert.assertTrue(buckets.get(1).endsWith(" 2"));
+
+        // Plain histograms are exported as recorded
+        Assert.assertTrue(text, text.contains("db_flush_rows_sum 500\n"));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void formatsJson() {
+        Map<String, Object> json = (Map<String, Object>) JsonParser.parse(sampleRegistry().toJson());
+
+        Map<String, Object> tasks = (Map<String, Object>) json.get("scrape_tasks_total");
+        Assert.assertEquals("counter", tasks.get("type"));
+        List<Object> series = (List<Object>) tasks.get("series");
+        Assert.assertEquals(2, series.size());
+        Map<String, Object> completed = (Map<String, Object>) series.get(0);
+        Assert.assertEquals(Map.of("result", "completed"), completed.get("labels"));
+        Assert.assertEquals(3.0, completed.get("value"));
+
+        Map<String, Object> flush = (Map<String, Object>) ((List<Object>) ((Map<String, Object>) json.get("db_flush_seconds")).get("series")).get(0);
+        Assert.assertEquals(Map.of(), flush.get("labels"));
+        Assert.assertEquals(2.0, flush.get("count"));
+        Assert.assertEquals(0.002, (Double) flush.get("mean"), 1e-9);
+        Assert.assertEquals(0.003, (Double) flush.get("max"), 1e-9);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void escapesLabelValues() {
+        MetricsRegistry registry = new MetricsRegistry();
+        registry.counter("scrape_errors_total", "Errors, by type.", "type", "Say \"hi\"\\n").increment();
+
+        Assert.assertTrue(registry.toPrometheus().contains("scrape_errors_total{type=\"Say \\\"hi\\\"\\\\n\"} 1\n"));
+        Map<String, Object> json = (Map<String, Object>) JsonParser.parse(registry.toJson());
+        Map<String, Object> series = (Map<String, Object>) ((List<Object>) ((Map<String, Object>) json.get("scrape_errors_total")).get("series")).get(0);
+        Assert.assertEquals(Map.of("type", "Say \"hi\"\\n"), series.get("labels"));
+    }
+
+    @Test
+    public void readsRegisteredMetricsWhenDumped() {
+        MetricsRegistry registry = new MetricsRegistry();
+        AtomicLong hits = new AtomicLong();
+        registry.registerCounter("scrape_cache_lookups_total", "Lookups.", hits::get, "result", "hit");
+
+        hits.set(7);
+        Assert.assertTrue(registry.toPrometheus().contains("scrape_cache_lookups_total{result=\"hit\"} 7\n"));
+
+        // The same counter is handed out again, but a registered one cannot be registered twice or recorded to
+        LongAdder counter = registry.counter("flights_saved_total", "Flights.");
+        Assert.assertSame(counter, registry.counter("flights_saved_total", "Flights."));
+        Assert.assertThrows(IllegalArgumentException.class, () -> registry.registerCounter("scrape_cache_lookups_total", "Lookups.", hits::get, "result", "hit"));
+        Assert.assertThrows(IllegalArgumentException.class, () -> registry.counter("scrape_cache_lookups_total", "Lookups.", "result", "hit"));
+        Assert.assertThrows(IllegalArgumentException.class, () -> registry.timer("flights_saved_total", "Flights."));
+    }
+
+    @Test
+    public void writesFiles() throws IOException {
+        MetricsRegistry registry = sampleRegistry();
+        Path directory = Files.createTempDirectory("metrics");
+        Path json = directory.resolve("metrics.json"), text = directory.resolve("metrics.prom");
+
+        try {
+            registry.writeTo(json);
+            registry.writeTo(text);
+            Assert.assertEquals(registry.toJson(), Files.readString(json));
+            Assert.assertEquals(registry.toPrometheus(), Files.readString(text));
+        } finally {
+            Files.deleteIfExists(json);
+            Files.deleteIfExists(text);
+            Files.delete(directory);
+        }
+    }
+
+    @Test
+    public void servesOverHttp() throws IOException, InterruptedException {
+        MetricsRegistry registry = sampleRegistry();
+        HttpServer server = registry.serve(0);
+
+        try (HttpClient client = HttpClient.newHttpClient()) {
+            String base = "http://localhost:" + server.getAddress().getPort();
+            HttpResponse<String> text = client.send(HttpRequest.newBuilder(URI.create(base + "/metrics")).build(), HttpResponse.BodyHandlers.ofString());
+            Assert.assertEquals(200, text.statusCode());
+            Assert.assertTrue(text.headers().firstValue("Content-Type").orElseThrow().startsWith("text/plain"));
+            Assert.assertEquals(registry.toPrometheus(), text.body());
+
+            HttpResponse<String> json = client.send(HttpRequest.newBuilder(URI.create(base + "/metrics.json")).build(), HttpResponse.BodyHandlers.ofString());
+            Assert.assertEquals(registry.toJson(), json.body());
+        } finally {
+            server.stop(0);
+        }
+    }
+}
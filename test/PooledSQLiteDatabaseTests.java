@@ -0,0 +1,222 @@
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class PooledSQLiteDatabaseTests {
+    private static final String dbFilePath = "pooled_test.db";
+    private static PooledSQLiteDatabase db;
+
+    @BeforeClass
+    public static void setUp() throws IOException {
+        deleteFiles();
+        db = new PooledSQLiteDatabase(dbFilePath, (e) -> Assert.fail(e.getMessage()), 4);
+        db.write(writer -> writer.update("CREATE TABLE test_table (test_int INT, test_string VARCHAR(255))"));
+    }
+
+    @AfterClass
+    public static void tearDown() throws IOException {
+        db.close();
+        deleteFiles();
+    }
+
+    private static void deleteFiles() throws IOException {
+        for (String suffix : new String[] { "", "-wal", "-shm" }) {
+            Files.deleteIfExists(Path.of(dbFilePath + suffix));
+        }
+    }
+
+    private static int countRows(SQLiteDatabase connection) {
+        try (ResultSet resultSet = connection.query("SELECT COUNT(*) FROM test_table")) {
+            resultSet.next();
+            return resultSet.getInt(1);
+        } catch (SQLException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    @Test
+    public void usesWalMode() throws InterruptedException {
+        String journalMode = db.read(reader -> {
+            try (ResultSet resultSet = reader.query("PRAGMA journal_mode")) {
+                resultSet.next();
+                return resultSet.getString(1);
+            } catch (SQLException e) {
+                throw new AssertionError(e);
+            }
+        });
+
+        Assert.assertEquals("wal", journalMode.toLowerCase());
+    }
+
+    @Test
+    public void readersAreReadOnly() throws InterruptedException {
+        List<SQLException> errors = new ArrayList<>();
+
+        try (SQLiteDatabase reader = new SQLiteDatabase(dbFilePath, errors::add, 1, SQLitePragmas.DEFAULT, true)) {
+            reader.update("INSERT INTO test_table (test_int, test_string) VALUES (-1, 'Rejected')");
+        }
+
+        Assert.assertEquals(1, errors.size());
+        Assert.assertEquals(Integer.valueOf(0), db.read(reader -> {
+            try (ResultSet resultSet = reader.query("SELECT COUNT(*) FROM test_table WHERE test_int = -1")) {
+                resultSet.next();
+                return resultSet.getInt(1);
+            } catch (SQLException e) {
+                throw new AssertionError(e);
+            }
+        }));
+    }
+
+    @Test
+    public void readsAreNotBlockedByOpenWrite() throws InterruptedException {
+        int before = db.read(PooledSQLiteDatabaseTests::countRows);
+        CountDownLatch writeStarted = new CountDownLatch(1);
+        CountDownLatch readsDone = new CountDownLatch(1);
+
+        // Hold a write transaction open until the reader has finished
+        Thread writerThread = new Thread(() -> db.write(writer -> {
+            writer.update("BEGIN");
+            writer.update("INSERT INTO test_table (test_int, test_string) VALUES (1, 'Uncommitted')");
+            writeStarted.countDown();
+            try {
+                Assert.assertTrue(readsDone.await(10, TimeUnit.SECONDS));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return writer.update("COMMIT");
+        }));
+        writerThread.start();
+
+        Assert.assertTrue(writeStarted.await(10, TimeUnit.SECONDS));
+        long start = System.nanoTime();
+        int during = db.read(PooledSQLiteDatabaseTests::countRows);
+        long readMillis = (System.nanoTime() - start) / 1_000_000;
+        readsDone.countDown();
+        writerThread.join();
+
+        Assert.assertEquals(before, during);
+        Assert.assertTrue("Read waited " + readMillis + " ms for the writer", readMillis < 1000);
+        Assert.assertEquals(before + 1, (int) db.read(PooledSQLiteDatabaseTests::countRows));
+    }
+
+    @Test
+    public void runsQueuedWritesInOrder() throws InterruptedException {
+        int before = db.read(PooledSQLiteDatabaseTests::countRows);
+        List<Integer> order = new ArrayList<>();
+        List<CompletableFuture<Integer>> futures = new ArrayList<>();
+
+        // More writes than fit in the queue, so some are only queued once earlier ones have run
+        for (int i = 0; i < 200; i++) {
+            int row = i;
+            futures.add(db.writeAsync(writer -> {
+                Assert.assertNotEquals("main", Thread.currentThread().getName());
+                order.add(row);
+                return writer.updatePrepared("INSERT INTO test_table (test_int, test_string) VALUES (?, ?)", row, "Queued");
+            }));
+        }
+
+        CompletableFuture<Object> failing = db.writeAsync(writer -> {
+            throw new IllegalStateException("Simulated failure");
+        });
+        futures.forEach(future -> Assert.assertEquals(Integer.valueOf(1), future.join()));
+        CompletionException e = Assert.assertThrows(CompletionException.class, failing::join);
+        Assert.assertTrue(e.getCause() instanceof IllegalStateException);
+
+        // Queued writes take turns with blocking ones, which see everything queued before them
+        Assert.assertEquals(before + 200, (int) db.write(PooledSQLiteDatabaseTests::countRows));
+        for (int i = 0; i < order.size(); i++) {
+            Assert.assertEquals(i, (int) order.get(i));
+        }
+        Assert.assertEquals(0, db.getQueuedWrites());
+    }
+
+    @Test
+    public void runsAsyncReadsOnPlatformThreads() throws InterruptedException {
+        int rows = db.read(PooledSQLiteDatabaseTests::countRows);
+        List<Object> seen = new ArrayList<>();
+
+        // Called from a virtual thread, like a scrape worker, which only waits for the read
+        Thread.ofVirtual().start(() -> seen.addAll(db.readAsync(reader -> List.of(
+                Thread.currentThread().isVirtual(), Thread.currentThread().getName(), countRows(reader))).join())).join();
+
+        Assert.assertEquals(false, seen.get(0));
+        Assert.assertTrue((String) seen.get(1), ((String) seen.get(1)).startsWith("sqlite-reader-"));
+        Assert.assertEquals(rows, seen.get(2));
+    }
+
+    @Test
+    public void concurrentReadWriteStress() throws InterruptedException {
+        int writerCount = 2, readerThreadCount = 8, rowsPerWriter = 2000;
+        int before = db.read(PooledSQLiteDatabaseTests::countRows);
+        AtomicBoolean writing = new AtomicBoolean(true);
+        AtomicInteger readsWhileWriting = new AtomicInteger();
+        AtomicInteger failures = new AtomicInteger();
+        List<Thread> threads = new ArrayList<>();
+
+        for (int w = 0; w < writerCount; w++) {
+            int offset = w * rowsPerWriter;
+            threads.add(new Thread(() -> {
+                for (int i = 0; i < rowsPerWriter; i += 100) {
+                    int first = i;
+                    db.write(writer -> {
+                        try (SQLiteDatabase.Batch batch = writer.batch("INSERT INTO test_table (test_int, test_string) VALUES (?, ?)", 100, 1000)) {
+                            for (int row = first; row < first + 100; row++) {
+                                batch.add(offset + row, "Row " + (offset + row));
+                            }
+                        }
+                        return null;
+                    });
+                }
+            }));
+        }
+
+        for (int r = 0; r < readerThreadCount; r++) {
+            threads.add(new Thread(() -> {
+                int lastCount = 0;
+                while (writing.get()) {
+                    try {
+                        int count = db.read(PooledSQLiteDatabaseTests::countRows);
+                        // Committed rows never disappear, so every reader sees a non-decreasing count
+                        if (count < lastCount) {
+                            failures.incrementAndGet();
+                        }
+                        lastCount = count;
+                        readsWhileWriting.incrementAndGet();
+                    } catch (InterruptedException e) {
+                        return;
+                    } catch (RuntimeException | AssertionError e) {
+                        failures.incrementAndGet();
+                    }
+                }
+            }));
+        }
+
+        threads.forEach(Thread::start);
+        for (Thread thread : threads.subList(0, writerCount)) {
+            thread.join();
+        }
+        writing.set(false);
+        for (Thread thread : threads.subList(writerCount, threads.size())) {
+            thread.join();
+        }
+
+        Assert.assertEquals(0, failures.get());
+        Assert.assertTrue(readsWhileWriting.get() > 0);
+        Assert.assertEquals(before + writerCount * rowsPerWriter, (int) db.read(PooledSQLiteDatabaseTests::countRows));
+    }
+}
@@ -0,0 +1,112 @@
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+public class PriceHistoryTests {
+    private static final String dbFilePath = "price_history_test.db";
+    private static final LocalDate fromDate = LocalDate.of(2025, 5, 1), toDate = LocalDate.of(2025, 5, 8);
+    private static final Instant start = Instant.parse("2025-01-01T06:00:00Z");
+
+    private final List<SQLException> errors = new ArrayList<>();
+    private SQLiteDatabase db;
+    private PriceHistory history;
+
+    @Before
+    public void setUp() throws IOException {
+        Files.deleteIfExists(Path.of(dbFilePath));
+        db = new SQLiteDatabase(dbFilePath, errors::add);
+        Assert.assertTrue(FlightSchema.migrate(db));
+        FlightSchema.addCities(db, "Atlanta", "Paris", "Rome");
+        history = new PriceHistory(db);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        db.close();
+        Files.deleteIfExists(Path.of(dbFilePath));
+        Assert.assertTrue(errors.isEmpty());
+    }
+
+    @Test
+    public void readsRangesAcrossChunks() {
+        // A few observations a day for long enough to fill several chunks
+        Random random = new Random(3);
+        List<PriceHistory.PricePoint> recorded = new ArrayList<>();
+        double price = 800;
+        for (int i = 0; i < PriceHistory.CHUNK_SIZE * 3 + 17; i++) {
+            Instant observedAt = start.plus(Duration.ofHours(8L * i)).plusSeconds(random.nextInt(600));
+            price = Math.max(100, Math.round((price + (random.nextInt(5) - 2) * random.nextInt(5000) / 100.0) * 100) / 100.0);
+            Assert.assertTrue(history.record("Atlanta", "Paris", fromDate, toDate, false, observedAt, price));
+            recorded.add(new PriceHistory.PricePoint(observedAt, price));
+        }
+
+        Assert.assertEquals(recorded, history.read("Atlanta", "Paris", fromDate, toDate, false, Instant.MIN.plusSeconds(1), Instant.now()));
+
+        Instant now = recorded.get(500).observedAt();
+        List<PriceHistory.PricePoint> expected = recorded.stream()
+                .filter(p -> !p.observedAt().isBefore(now.minus(Duration.ofDays(30))) && !p.observedAt().isAfter(now))
+                .toList();
+        Assert.assertEquals(91, expected.size());
+        Assert.assertEquals(expected, history.readLastDays("Atlanta", "Paris", fromDate, toDate, false, now, 30));
+
+        // Other itineraries and the nonstop history are kept apart
+        Assert.assertEquals(List.of(), history.read("Atlanta", "Paris", fromDate, toDate, true, Instant.EPOCH, Instant.now()));
+        Assert.assertEquals(List.of(), history.read("Atlanta", "Rome", fromDate, toDate, false, Instant.EPOCH, Instant.now()));
+    }
+
+    @Test
+    public void recordsCheapestPerSearch() {
+        ScrapeTask rome = new ScrapeTask("Atlanta", "Rome", fromDate, toDate);
+        history.record(rome, List.of(
+                new Flight("Atlanta", "Rome", fromDate, toDate, 950, true),
+                new Flight("Atlanta", "Rome", fromDate, toDate, 720.5, false),
+                new Flight("Atlanta", "Rome", fromDate, toDate, 900, true)
+        ), start);
+        history.record(rome, List.of(), start.plusSeconds(60));
+
+        Assert.assertEquals(List.of(new PriceHistory.PricePoint(start, 900)), history.read("Atlanta", "Rome", fromDate, toDate, true, Instant.EPOCH, Instant.now()));
+        Assert.assertEquals(List.of(new PriceHistory.PricePoint(start, 720.5)), history.read("Atlanta", "Rome", fromDate, toDate, false, Instant.EPOCH, Instant.now()));
+    }
+
+    @Test
+    public void skipsObservationsOutOfOrder() {
+        Assert.assertTrue(history.record("Atlanta", "Paris", fromDate, toDate, false, start, 500));
+        Assert.assertFalse(history.record("Atlanta", "Paris", fromDate, toDate, false, start.minusSeconds(1), 450));
+        Assert.assertTrue(history.record("Atlanta", "Paris", fromDate, toDate, false, start.plusSeconds(1), 400));
+
+        List<PriceHistory.PricePoint> points = history.read("Atlanta", "Paris", fromDate, toDate, false, Instant.EPOCH, start.plusSeconds(60));
+        Assert.assertEquals(List.of(500.0, 400.0), points.stream().map(PriceHistory.PricePoint::price).toList());
+    }
+
+    @Test
+    public void takesAFewBytesPerObservation() throws SQLException {
+        // A daily sweep where most prices are unchanged from the day before
+        Random random = new Random(5);
+        Assert.assertTrue(db.transaction(() -> {
+            for (int day = 0; day < 365; day++) {
+                for (int week = 0; week < 10; week++) {
+                    LocalDate departure = fromDate.plusWeeks(week);
+                    double price = 400 + week * 10 + (random.nextInt(4) == 0 ? random.nextInt(100) : 0);
+                    history.record("Atlanta", "Paris", departure, departure.plusWeeks(1), false, start.plus(Duration.ofDays(day)).plusSeconds(random.nextInt(3600)), price);
+                }
+            }
+        }));
+
+        long[] stats = history.getStorageStats();
+        double bytesPerObservation = (double) stats[0] / stats[1];
+        Assert.assertEquals(3650, stats[1]);
+        Assert.assertTrue(bytesPerObservation < 6);
+    }
+}
@@ -0,0 +1,76 @@
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+public class ResultCardParserTests {
+    @Test
+    public void parsePrice() {
+        Assert.assertEquals(292.44, ResultCardParser.parsePrice("$292.44"), 0);
+        Assert.assertEquals(1234.56, ResultCardParser.parsePrice("$1,234.56"), 0);
+        Assert.assertEquals(1089.0, ResultCardParser.parsePrice("US$1,089"), 0);
+        Assert.assertEquals(341.5, ResultCardParser.parsePrice("$341.5\nTotal price"), 0);
+
+        for (String price : new String[] { "0.1", "12.34", "999.99", "1,000.01", "12345.67" }) {
+            Assert.assertEquals(Double.parseDouble(price.replace(",", "")), ResultCardParser.parsePrice(price), 0);
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void parsePriceWithoutDigits() {
+        ResultCardParser.parsePrice("Sold out");
+    }
+
+    @Test
+    public void parseStops() {
+        Assert.assertEquals(0, ResultCardParser.parseStops("Direct"));
+        Assert.assertEquals(1, ResultCardParser.parseStops("1 stop"));
+        Assert.assertEquals(2, ResultCardParser.parseStops("2 stops"));
+    }
+
+    @Test
+    public void parse() {
+        Map<String, Object> payload = Map.of(
+                "noDirectFlights", true,
+                "cards", List.of(
+                        List.of("$1,012.36", "1 stop", "Direct"),
+                        List.of(" $1,089.99 ", "2 stops", "1 stop"),
+                        List.of("$980", "Direct", "Direct")
+                )
+        );
+
+        SearchPage page = ResultCardParser.parse(payload, false);
+        Assert.assertEquals(List.of(
+                new FareCard(1012.36, 1, 0),
+                new FareCard(1089.99, 2, 1),
+                new FareCard(980, 0, 0)
+        ), page.cards());
+        Assert.assertTrue(page.cards().get(2).isNonstop());
+
+        // The banner only matters when direct flights were asked for
+        Assert.assertFalse(page.noDirectFlights());
+        Assert.assertTrue(ResultCardParser.parse(payload, true).noDirectFlights());
+    }
+
+    @Test
+    public void missingSegmentFailsImmediately() {
+        Map<String, Object> payload = Map.of(
+                "noDirectFlights", false,
+                "cards", List.of(List.of("$300", "Direct", "Direct"), Arrays.asList("$310", "Direct", null))
+        );
+
+        try {
+            ResultCardParser.parse(payload, false);
+            Assert.fail("Expected a missing segment to fail");
+        } catch (IllegalArgumentException e) {
+            Assert.assertEquals("Result card 1 has no return stops", e.getMessage());
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void malformedPayload() {
+        ResultCardParser.parse(null, false);
+    }
+}
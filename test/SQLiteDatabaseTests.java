@@ -6,8 +6,14 @@ import org.junit.Test;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
 
 public class SQLiteDatabaseTests {
     protected static SQLiteDatabase db;
@@ -57,6 +63,213 @@ public class SQLiteDatabaseTests {
         testResultSet(resultSet);
     }
 
+    @Test
+    public void batch() throws SQLException {
+        db.update("CREATE TABLE batch_table (test_int INT, test_string VARCHAR(255))");
+
+        try (SQLiteDatabase.Batch batch = db.batch("INSERT INTO batch_table (test_int, test_string) VALUES (?, ?)", 3, 60_000)) {
+            batch.add(1, "One");
+            batch.add(2, "Two");
+            Assert.assertEquals(2, batch.getPendingRows());
+            assertRowCount("batch_table", 0);
+
+            // The third row fills the batch and flushes it
+            batch.add(3, "Three");
+            Assert.assertEquals(0, batch.getPendingRows());
+            assertRowCount("batch_table", 3);
+
+            batch.add(4, "Four");
+            Assert.assertEquals(1, batch.flush());
+            batch.add(5, "Five");
+        }
+
+        // Closing the batch flushes the last row
+        assertRowCount("batch_table", 5);
+        db.update("DROP TABLE batch_table");
+    }
+
+    @Test
+    public void batchFlushesByAge() throws SQLException {
+        db.update("CREATE TABLE aged_batch_table (test_int INT)");
+        MutableClock clock = new MutableClock();
+
+        try (SQLiteDatabase.Batch batch = db.batch("INSERT INTO aged_batch_table (test_int) VALUES (?)", 1000, 50, clock)) {
+            batch.add(1);
+            Assert.assertEquals(0, batch.flushIfDue());
+            assertRowCount("aged_batch_table", 0);
+
+            // With no more rows arriving, only flushIfDue notices that the pending row is old enough
+            clock.advance(Duration.ofMillis(50));
+            Assert.assertEquals(1, batch.flushIfDue());
+            assertRowCount("aged_batch_table", 1);
+
+            // A row added once the oldest pending row is old enough flushes both of them
+            batch.add(2);
+            clock.advance(Duration.ofMillis(50));
+            batch.add(3);
+            Assert.assertEquals(0, batch.getPendingRows());
+            assertRowCount("aged_batch_table", 3);
+        }
+
+        db.update("DROP TABLE aged_batch_table");
+    }
+
+    @Test
+    public void batchIngest() throws SQLException, IOException {
+        // Read the shipped flights through a migrated copy, whatever schema version the original is at
+        Path sourcePath = Files.createTempFile("flight_data", ".sqlite");
+        Files.copy(Path.of("flight_data.sqlite"), sourcePath, StandardCopyOption.REPLACE_EXISTING);
+
+        List<Object[]> rows = new ArrayList<>();
+        try (SQLiteDatabase source = new SQLiteDatabase(sourcePath.toString(), (e) -> Assert.fail(e.getMessage()))) {
+            Assert.assertTrue(FlightSchema.migrate(source));
+            ResultSet resultSet = source.query("SELECT from_city, to_city, from_date, to_date, price, nonstop FROM flight_details");
+            while (resultSet.next()) {
+                rows.add(new Object[] {
+                        resultSet.getString(1), resultSet.getString(2),
+                        resultSet.getString(3), resultSet.getString(4),
+                        resultSet.getDouble(5), resultSet.getBoolean(6)
+                });
+            }
+            resultSet.getStatement().close();
+        } finally {
+            Files.deleteIfExists(sourcePath);
+        }
+
+        db.update("CREATE TABLE ingest_table (from_city TEXT, to_city TEXT, from_date TEXT, to_date TEXT, price REAL, nonstop INTEGER)");
+        String insert = "INSERT INTO ingest_table (from_city, to_city, from_date, to_date, price, nonstop) VALUES (?, ?, ?, ?, ?, ?)";
+
+        // Per-row inserts commit once per row, so only a sample of them is written. How much faster batches are
+        // depends on the machine, so IngestBenchmark in bench/ compares them instead
+        int sampleSize = Math.min(500, rows.size());
+        for (Object[] row : rows.subList(0, sampleSize)) {
+            db.updatePrepared(insert, row);
+        }
+
+        int flushes = 0;
+        try (SQLiteDatabase.Batch batch = db.batch(insert, 1000, 60_000)) {
+            for (Object[] row : rows) {
+                batch.add(row);
+                if (batch.getPendingRows() == 0) {
+                    flushes++;
+                }
+            }
+        }
+
+        assertRowCount("ingest_table", sampleSize + rows.size());
+        // One commit per 1000 rows rather than per row
+        Assert.assertEquals(rows.size() / 1000, flushes);
+        db.update("DROP TABLE ingest_table");
+    }
+
+    @Test
+    public void transaction() throws SQLException {
+        db.update("CREATE TABLE transaction_table (test_int INT PRIMARY KEY)");
+
+        Assert.assertTrue(db.transaction(() -> {
+            db.updatePrepared("INSERT INTO transaction_table (test_int) VALUES (?)", 1);
+            db.updatePrepared("INSERT INTO transaction_table (test_int) VALUES (?)", 2);
+        }));
+        assertRowCount("transaction_table", 2);
+
+        // A failing statement rolls back everything else in the transaction
+        List<SQLException> errors = new ArrayList<>();
+        try (SQLiteDatabase failingDb = new SQLiteDatabase("test.db", errors::add)) {
+            Assert.assertFalse(failingDb.transaction(() -> {
+                failingDb.updatePrepared("INSERT INTO transaction_table (test_int) VALUES (?)", 3);
+                failingDb.updatePrepared("INSERT INTO transaction_table (test_int) VALUES (?)", 1);
+            }));
+        }
+        Assert.assertEquals(1, errors.size());
+        assertRowCount("transaction_table", 2);
+
+        db.update("DROP TABLE transaction_table");
+    }
+
+    @Test
+    public void statementCache() throws SQLException {
+        try (SQLiteDatabase cachedDb = new SQLiteDatabase("test.db", (e) -> Assert.fail(e.getMessage()), 2)) {
+            cachedDb.update("CREATE TABLE cache_table (test_int INT, test_string VARCHAR(255))");
+            String insert = "INSERT INTO cache_table (test_int, test_string) VALUES (?, ?)";
+
+            cachedDb.updatePrepared(insert, 1, "One");
+            cachedDb.updatePrepared(insert, 2, null);
+            Assert.assertEquals(1, cachedDb.getStatementCacheMisses());
+            Assert.assertEquals(1, cachedDb.getStatementCacheHits());
+
+            // Parameters from the previous use must not leak into the next one, which binds fewer of them
+            String select = "SELECT test_string FROM cache_table WHERE test_int = ? OR test_string = ?";
+            ResultSet resultSet = cachedDb.queryPrepared(select, 3, "One");
+            Assert.assertTrue(resultSet.next());
+            Assert.assertEquals("One", resultSet.getString(1));
+            resultSet.close();
+            resultSet = cachedDb.queryPrepared(select, 2);
+            Assert.assertTrue(resultSet.next());
+            Assert.assertNull(resultSet.getString(1));
+            Assert.assertFalse(resultSet.next());
+            resultSet.close();
+
+            // A third distinct statement evicts the least recently used one (the insert)
+            cachedDb.queryPrepared("SELECT COUNT(*) FROM cache_table").close();
+            Assert.assertEquals(3, cachedDb.getStatementCacheMisses());
+            Assert.assertEquals(1, cachedDb.getStatementCacheEvictions());
+
+            cachedDb.updatePrepared(insert, 3, "Three");
+            Assert.assertEquals(4, cachedDb.getStatementCacheMisses());
+
+            // Closing a cached statement is allowed, it just gets prepared again
+            resultSet = cachedDb.queryPrepared("SELECT COUNT(*) FROM cache_table");
+            Assert.assertTrue(resultSet.next());
+            Assert.assertEquals(3, resultSet.getInt(1));
+            resultSet.getStatement().close();
+            resultSet = cachedDb.queryPrepared("SELECT COUNT(*) FROM cache_table");
+            Assert.assertTrue(resultSet.next());
+            resultSet.close();
+            Assert.assertEquals(5, cachedDb.getStatementCacheMisses());
+
+            cachedDb.update("DROP TABLE cache_table");
+        }
+    }
+
+    @Test
+    public void statementCachePinsOpenResults() throws SQLException {
+        try (SQLiteDatabase cachedDb = new SQLiteDatabase("test.db", (e) -> Assert.fail(e.getMessage()), 1)) {
+            cachedDb.update("CREATE TABLE pinned_table (test_int INT)");
+            cachedDb.update("INSERT INTO pinned_table (test_int) VALUES (1), (2), (3)");
+            String select = "SELECT test_int FROM pinned_table WHERE test_int >= ? ORDER BY test_int";
+
+            // Running the same SQL again while its ResultSet is open gets a separate statement
+            ResultSet outer = cachedDb.queryPrepared(select, 1);
+            Assert.assertTrue(outer.next());
+            try (ResultSet inner = cachedDb.queryPrepared(select, 3)) {
+                Assert.assertTrue(inner.next());
+                Assert.assertEquals(3, inner.getInt(1));
+                Assert.assertFalse(inner.next());
+                Assert.assertTrue(inner.getStatement().isCloseOnCompletion());
+            }
+            Assert.assertTrue(outer.next());
+            Assert.assertEquals(2, outer.getInt(1));
+
+            // Evicting the statement leaves it open until its ResultSet is closed
+            cachedDb.queryPrepared("SELECT COUNT(*) FROM pinned_table").close();
+            Assert.assertEquals(1, cachedDb.getStatementCacheEvictions());
+            Assert.assertTrue(outer.next());
+            Assert.assertEquals(3, outer.getInt(1));
+            Statement outerStatement = outer.getStatement();
+            outer.close();
+            Assert.assertTrue(outerStatement.isClosed());
+
+            cachedDb.update("DROP TABLE pinned_table");
+        }
+    }
+
+    private void assertRowCount(String table, int expected) throws SQLException {
+        ResultSet resultSet = db.query("SELECT COUNT(*) FROM " + table);
+        Assert.assertTrue(resultSet.next());
+        Assert.assertEquals(expected, resultSet.getInt(1));
+        resultSet.getStatement().close();
+    }
+
     private void testResultSet(ResultSet resultSet) throws SQLException {
         int[] expectedInts = {3, 44, 11, 4, 45, 12};
         String[] expectedStrings = {"Test String", "Test Data", "Test 2", "Test String", "Test Data", "Test 2"};
@@ -73,6 +286,45 @@ public class SQLiteDatabaseTests {
         resultSet.getStatement().close();
     }
 
+    @Test
+    public void stream() throws SQLException {
+        String numbers = "WITH RECURSIVE n(x) AS (SELECT 1 UNION ALL SELECT x + 1 FROM n WHERE x < ?) SELECT x FROM n";
+        List<Statement> statements = new ArrayList<>();
+
+        // A million rows are summed one at a time without ever being held in memory together
+        long sum = db.stream(numbers, resultSet -> {
+            if (statements.isEmpty()) {
+                statements.add(resultSet.getStatement());
+            }
+            return resultSet.getLong(1);
+        }, 1_000_000).mapToLong(Long::longValue).sum();
+        Assert.assertEquals(1_000_000L * 1_000_001 / 2, sum);
+        Assert.assertTrue(statements.getFirst().isClosed());
+
+        // Stopping early closes the statement along with the stream
+        statements.clear();
+        try (Stream<Long> rows = db.stream(numbers, resultSet -> {
+            statements.add(resultSet.getStatement());
+            return resultSet.getLong(1);
+        }, 1_000_000)) {
+            Assert.assertEquals(List.of(1L, 2L, 3L), rows.limit(3).toList());
+            Assert.assertFalse(statements.getFirst().isClosed());
+        }
+        Assert.assertTrue(statements.getFirst().isClosed());
+    }
+
+    @Test
+    public void streamReportsErrors() {
+        List<SQLException> errors = new ArrayList<>();
+        try (SQLiteDatabase database = new SQLiteDatabase("test.db", errors::add)) {
+            Assert.assertEquals(0, database.stream("SELECT * FROM missing_table", resultSet -> resultSet.getInt(1)).count());
+            Assert.assertEquals(1, errors.size());
+
+            Assert.assertEquals(0, database.stream("SELECT 1", resultSet -> resultSet.getInt("missing_column")).count());
+            Assert.assertEquals(2, errors.size());
+        }
+    }
+
     @Test
     public void close() {
         db.close();
@@ -0,0 +1,167 @@
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class ScrapeCacheTests {
+    private static final String dbFilePath = "scrape_cache_test.db";
+    private static final LocalDate fromDate = LocalDate.of(2025, 5, 1), toDate = LocalDate.of(2025, 5, 8);
+
+    private PooledSQLiteDatabase db;
+    private MutableClock clock;
+
+    @Before
+    public void setUp() throws IOException {
+        deleteFiles();
+        db = new PooledSQLiteDatabase(dbFilePath, (e) -> Assert.fail(e.getMessage()), 2);
+        Assert.assertTrue(db.write(FlightSchema::migrate));
+        clock = new MutableClock();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        db.close();
+        deleteFiles();
+    }
+
+    private static void deleteFiles() throws IOException {
+        for (String suffix : new String[] { "", "-wal", "-shm" }) {
+            Files.deleteIfExists(Path.of(dbFilePath + suffix));
+        }
+    }
+
+    private static String url(String toCity) {
+        return FlightDataAPI.buildUrl("Atlanta", toCity, fromDate, toDate, "");
+    }
+
+    // Stores are queued for the writer thread, and all queued writes run in order
+    private void waitForStores() {
+        db.writeAsync(d -> null).join();
+    }
+
+    private static List<Flight> lookup(ScrapeCache cache, String toCity) {
+        return cache.get(url(toCity), "Atlanta", toCity, fromDate, toDate);
+    }
+
+    @Test
+    public void storesAndExpiresResults() {
+        ScrapeCache cache = new ScrapeCache(db, Duration.ofHours(1), 100, clock);
+        Assert.assertNull(lookup(cache, "Paris"));
+
+        cache.put(url("Paris"), List.of(
+                new Flight("Atlanta", "Paris", fromDate, toDate, 812.37, true),
+                new Flight("Atlanta", "Paris", fromDate, toDate, 655.0, false)
+        )).join();
+        cache.put(url("Rome"), List.of()).join();
+
+        List<Flight> flights = lookup(cache, "Paris");
+        Assert.assertEquals(2, flights.size());
+        Assert.assertEquals(812.37, flights.get(0).getPrice(), 0);
+        Assert.assertTrue(flights.get(0).isNonstop());
+        Assert.assertFalse(flights.get(1).isNonstop());
+        Assert.assertEquals(toDate, flights.get(1).getToDate());
+
+        // An empty result is still a result
+        Assert.assertEquals(List.of(), lookup(cache, "Rome"));
+
+        clock.advance(Duration.ofMinutes(61));
+        Assert.assertNull(lookup(cache, "Paris"));
+        Assert.assertEquals(2, cache.getHits());
+        Assert.assertEquals(2, cache.getMisses());
+        Assert.assertEquals(1, cache.getExpired());
+        Assert.assertEquals(0.5, cache.getHitRatio(), 0);
+
+        Assert.assertEquals(2, cache.deleteExpired());
+        Assert.assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void evictsOldestWhenFull() {
+        ScrapeCache cache = new ScrapeCache(db, Duration.ofDays(1), 2, clock);
+
+        cache.put(url("Paris"), List.of()).join();
+        clock.advance(Duration.ofSeconds(1));
+        cache.put(url("Rome"), List.of()).join();
+        clock.advance(Duration.ofSeconds(1));
+        cache.put(url("Rome"), List.of()).join();
+        Assert.assertEquals(2, cache.size());
+
+        clock.advance(Duration.ofSeconds(1));
+        cache.put(url("Milan"), List.of()).join();
+
+        Assert.assertEquals(2, cache.size());
+        Assert.assertNull(lookup(cache, "Paris"));
+        Assert.assertNotNull(lookup(cache, "Rome"));
+        Assert.assertNotNull(lookup(cache, "Milan"));
+
+        // The size survives reopening the cache
+        Assert.assertEquals(2, new ScrapeCache(db, Duration.ofDays(1), 2, clock).size());
+    }
+
+    @Test
+    public void cachingSearcherOnlyFetchesMissingResults() {
+        ScrapeCache cache = new ScrapeCache(db, Duration.ofHours(1), 100, clock);
+        AtomicInteger searchersCreated = new AtomicInteger(), pageLoads = new AtomicInteger();
+
+        FlightSearcher stub = new FlightSearcher() {
+            @Override
+            public List<Flight> getRoundTripNonstopEconomyFlights(String fromCity, String toCity, LocalDate fromDate, LocalDate toDate) {
+                pageLoads.incrementAndGet();
+                return List.of();
+            }
+
+            @Override
+            public List<Flight> getRoundTripEconomyFlights(String fromCity, String toCity, LocalDate fromDate, LocalDate toDate) {
+                pageLoads.incrementAndGet();
+                return List.of(new Flight(fromCity, toCity, fromDate, toDate, 400, false));
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+
+        try (CachingFlightSearcher searcher = new CachingFlightSearcher(() -> {
+            searchersCreated.incrementAndGet();
+            return stub;
+        }, cache)) {
+            Assert.assertEquals(List.of(), searcher.getRoundTripNonstopEconomyFlights("Atlanta", "Paris", fromDate, toDate));
+            Assert.assertEquals(1, searcher.getRoundTripEconomyFlights("Atlanta", "Paris", fromDate, toDate).size());
+        }
+        Assert.assertEquals(2, pageLoads.get());
+        waitForStores();
+
+        // A rerun is answered entirely from the cache, without creating a searcher
+        try (CachingFlightSearcher searcher = new CachingFlightSearcher(() -> {
+            searchersCreated.incrementAndGet();
+            return stub;
+        }, cache)) {
+            Assert.assertEquals(List.of(), searcher.getRoundTripNonstopEconomyFlights("Atlanta", "Paris", fromDate, toDate));
+            Assert.assertEquals(400, searcher.getRoundTripEconomyFlights("Atlanta", "Paris", fromDate, toDate).getFirst().getPrice(), 0);
+        }
+        Assert.assertEquals(2, pageLoads.get());
+        Assert.assertEquals(1, searchersCreated.get());
+
+        // The combined search is cached under its own key, since it may combine both pages
+        try (CachingFlightSearcher searcher = new CachingFlightSearcher(() -> stub, cache)) {
+            FlightSearchResult result = searcher.searchRoundTripEconomyFlights("Atlanta", "Paris", fromDate, toDate);
+            Assert.assertFalse(result.cached());
+            Assert.assertEquals(4, pageLoads.get());
+            waitForStores();
+
+            result = searcher.searchRoundTripEconomyFlights("Atlanta", "Paris", fromDate, toDate);
+            Assert.assertTrue(result.cached());
+            Assert.assertFalse(result.hasNonstopFlights());
+            Assert.assertEquals(400, result.getPreferredFlights().getFirst().getPrice(), 0);
+        }
+        Assert.assertEquals(4, pageLoads.get());
+    }
+}
@@ -0,0 +1,268 @@
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+public class ScrapeQueueTests {
+    private static final String dbFilePath = "scrape_queue_test.db";
+    private static final String[] cities = { "Cancun", "Paris", "Rome" };
+
+    private PooledSQLiteDatabase db;
+    private MutableClock clock;
+
+    @Before
+    public void setUp() throws IOException {
+        deleteFiles();
+        db = new PooledSQLiteDatabase(dbFilePath, (e) -> Assert.fail(e.getMessage()), 2);
+        db.write(d -> {
+            Assert.assertTrue(FlightSchema.migrate(d));
+            FlightSchema.addCities(d, "Atlanta");
+            FlightSchema.addCities(d, cities);
+            return null;
+        });
+        clock = new MutableClock();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        db.close();
+        deleteFiles();
+    }
+
+    private static void deleteFiles() throws IOException {
+        for (String suffix : new String[] { "", "-wal", "-shm" }) {
+            Files.deleteIfExists(Path.of(dbFilePath + suffix));
+        }
+    }
+
+    private static List<ScrapeTask> tasks() {
+        return ScrapeTask.grid("Atlanta", cities, LocalDate.of(2025, 5, 1), LocalDate.of(2025, 5, 15), 7);
+    }
+
+    private ScrapeQueue queue(int maxAttempts, Duration baseBackoff, Duration maxBackoff) {
+        return new ScrapeQueue(db, maxAttempts, baseBackoff, maxBackoff, clock, new Random(42));
+    }
+
+    @Test
+    public void handsOutNearTermDeparturesFirst() throws InterruptedException {
+        List<ScrapeTask> tasks = new ArrayList<>(tasks());
+        Collections.reverse(tasks);
+        ScrapeQueue queue = queue(3, Duration.ofMinutes(1), Duration.ofMinutes(10));
+        queue.enqueue(tasks);
+        // Queuing the same tasks again changes nothing
+        queue.enqueue(tasks);
+        Assert.assertEquals(tasks.size(), queue.size());
+
+        List<ScrapeTask> handedOut = new ArrayList<>();
+        ScrapeTask task;
+        while ((task = queue.poll()) != null) {
+            handedOut.add(task);
+        }
+
+        Assert.assertEquals(tasks.size(), handedOut.size());
+        Assert.assertEquals(LocalDate.of(2025, 5, 1), handedOut.getFirst().fromDate());
+        for (int i = 1; i < handedOut.size(); i++) {
+            Assert.assertFalse(handedOut.get(i).fromDate().isBefore(handedOut.get(i - 1).fromDate()));
+        }
+
+        // Completed tasks leave the queue, handed out ones stay until then
+        handedOut.forEach(queue::complete);
+        Assert.assertEquals(0, queue.size());
+        Assert.assertNull(queue.take());
+    }
+
+    @Test
+    public void backsOffFailedTasks() throws InterruptedException {
+        ScrapeQueue queue = queue(5, Duration.ofMinutes(1), Duration.ofMinutes(10));
+        queue.enqueue(tasks());
+
+        ScrapeTask first = queue.poll();
+        Assert.assertTrue(queue.fail(first, "HTTP 429"));
+        Assert.assertEquals(tasks().size(), queue.size());
+
+        // The failed task is not due until its backoff has passed, even though it has the highest priority
+        List<ScrapeTask> handedOut = new ArrayList<>();
+        ScrapeTask task;
+        while ((task = queue.poll()) != null) {
+            handedOut.add(task);
+        }
+        Assert.assertFalse(handedOut.contains(first));
+        handedOut.forEach(queue::complete);
+
+        clock.advance(Duration.ofMinutes(1));
+        Assert.assertEquals(first, queue.poll());
+        Assert.assertEquals("HTTP 429", lastError(first));
+    }
+
+    @Test
+    public void backoffGrowsExponentiallyWithJitter() {
+        ScrapeQueue queue = queue(20, Duration.ofSeconds(10), Duration.ofMinutes(5));
+        long[] fullBackoffs = { 10_000, 20_000, 40_000, 80_000, 160_000, 300_000, 300_000 };
+        boolean jittered = false;
+
+        for (int attempts = 1; attempts <= fullBackoffs.length; attempts++) {
+            long full = fullBackoffs[attempts - 1];
+            for (int i = 0; i < 100; i++) {
+                long backoff = queue.getBackoffMillis(attempts);
+                Assert.assertTrue(backoff >= full / 2 && backoff <= full);
+                jittered |= backoff != full / 2 && backoff != full;
+            }
+        }
+
+        Assert.assertTrue(jittered);
+        // Huge attempt counts do not overflow past the maximum
+        Assert.assertTrue(queue.getBackoffMillis(100) <= 300_000);
+    }
+
+    @Test
+    public void deadLettersTasksThatKeepFailing() throws InterruptedException {
+        ScrapeQueue queue = queue(2, Duration.ZERO, Duration.ZERO);
+        List<ScrapeTask> tasks = tasks();
+        queue.enqueue(tasks);
+
+        ScrapeTask task = queue.poll();
+        Assert.assertTrue(queue.fail(task, "Simulated driver crash"));
+        // With no backoff the task is due straight away, after the untried tasks departing the same day
+        List<ScrapeTask> sameDay = List.of(queue.poll(), queue.poll(), queue.poll());
+        Assert.assertEquals(task, sameDay.getLast());
+        Assert.assertFalse(queue.fail(task, "NumberFormatException: For input string: \"\""));
+
+        Assert.assertEquals(List.of(task), queue.getDeadLetters());
+        Assert.assertEquals(tasks.size() - 1, queue.size());
+        Assert.assertEquals(2, deadLetterAttempts(task));
+
+        // A dead letter is not queued again by a later run
+        queue.enqueue(tasks);
+        Assert.assertEquals(tasks.size() - 1, queue.size());
+        Assert.assertNotEquals(task, queue.poll());
+    }
+
+    @Test
+    public void keepsQueueAcrossRuns() throws InterruptedException {
+        ScrapeQueue queue = queue(3, Duration.ofMinutes(1), Duration.ofMinutes(10));
+        queue.enqueue(tasks());
+        ScrapeTask first = queue.poll(), second = queue.poll();
+        queue.complete(first);
+        Assert.assertTrue(queue.fail(second, "Timed out"));
+
+        // A new run hands out what was left, and the failed task is still backing off
+        ScrapeQueue resumed = queue(3, Duration.ofMinutes(1), Duration.ofMinutes(10));
+        Assert.assertEquals(tasks().size() - 1, resumed.size());
+        ScrapeTask next = resumed.poll();
+        Assert.assertNotEquals(first, next);
+        Assert.assertNotEquals(second, next);
+    }
+
+    @Test
+    public void takeWaitsForBackoff() throws InterruptedException {
+        ScrapeQueue queue = new ScrapeQueue(db, 3, Duration.ofMillis(100), Duration.ofMillis(100));
+        ScrapeTask task = tasks().getFirst();
+        queue.enqueue(List.of(task));
+
+        Assert.assertEquals(task, queue.take());
+        Assert.assertTrue(queue.fail(task, "HTTP 503"));
+
+        long start = System.nanoTime();
+        Assert.assertEquals(task, queue.take());
+        Assert.assertTrue(System.nanoTime() - start >= 45_000_000);
+
+        queue.complete(task);
+        Assert.assertNull(queue.take());
+    }
+
+    @Test
+    public void handsOutTasksWithoutTouchingTheDatabase() throws InterruptedException {
+        ScrapeQueue queue = queue(3, Duration.ofMinutes(1), Duration.ofMinutes(10));
+        queue.enqueue(tasks());
+        CountDownLatch writing = new CountDownLatch(1), handedOut = new CountDownLatch(1);
+
+        // Hold the writer connection while tasks are handed out, which only waits if the queue needs it
+        Thread writer = new Thread(() -> db.write(d -> {
+            writing.countDown();
+            try {
+                handedOut.await(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return null;
+        }));
+        writer.start();
+
+        try {
+            Assert.assertTrue(writing.await(10, TimeUnit.SECONDS));
+            Assert.assertNotNull(queue.poll());
+            Assert.assertNotNull(queue.take());
+            Assert.assertEquals(tasks().size(), queue.size());
+        } finally {
+            handedOut.countDown();
+            writer.join();
+        }
+    }
+
+    @Test
+    public void rejectsTasksThatWereNotHandedOut() {
+        ScrapeQueue queue = queue(3, Duration.ofMinutes(1), Duration.ofMinutes(10));
+        queue.enqueue(tasks());
+        Assert.assertThrows(IllegalArgumentException.class, () -> queue.complete(tasks().getFirst()));
+        Assert.assertThrows(IllegalArgumentException.class, () -> queue.fail(tasks().getFirst(), "HTTP 500"));
+    }
+
+    @Test
+    public void keepsInMemoryQueueWithoutDatabase() throws InterruptedException {
+        ScrapeQueue queue = ScrapeQueue.inMemory(tasks(), 2);
+        Assert.assertEquals(tasks().size(), queue.size());
+
+        // Failed tasks are retried straight away, after the untried tasks departing the same day
+        ScrapeTask task = queue.take();
+        Assert.assertEquals(LocalDate.of(2025, 5, 1), task.fromDate());
+        Assert.assertTrue(queue.fail(task, "Simulated driver crash"));
+        List<ScrapeTask> sameDay = List.of(queue.take(), queue.take(), queue.take());
+        Assert.assertEquals(task, sameDay.getLast());
+        Assert.assertFalse(queue.fail(task, "Simulated driver crash"));
+        Assert.assertEquals(List.of(task), queue.getDeadLetters());
+
+        sameDay.subList(0, 2).forEach(queue::complete);
+        ScrapeTask next;
+        while ((next = queue.poll()) != null) {
+            queue.complete(next);
+        }
+        Assert.assertEquals(0, queue.size());
+        Assert.assertNull(queue.take());
+    }
+
+    private String lastError(ScrapeTask task) {
+        return db.write(d -> {
+            try (ResultSet resultSet = d.queryPrepared("SELECT last_error FROM scrape_queue WHERE from_date = ? AND to_date = ? " +
+                    "AND to_city_id = (SELECT id FROM cities WHERE name = ?)", task.fromDate().toEpochDay(), task.toDate().toEpochDay(), task.toCity())) {
+                return resultSet.next() ? resultSet.getString(1) : null;
+            } catch (SQLException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+    }
+
+    private int deadLetterAttempts(ScrapeTask task) {
+        return db.write(d -> {
+            try (ResultSet resultSet = d.queryPrepared("SELECT attempts FROM scrape_dead_letters WHERE from_date = ? AND to_date = ? " +
+                    "AND to_city_id = (SELECT id FROM cities WHERE name = ?)", task.fromDate().toEpochDay(), task.toDate().toEpochDay(), task.toCity())) {
+                return resultSet.next() ? resultSet.getInt(1) : 0;
+            } catch (SQLException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+    }
+}
@@ -0,0 +1,300 @@
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class ScrapeSchedulerTests {
+    private static final String[] cities = { "Cancun", "Paris", "Rome" };
+
+    /**
+     * A <code>FlightSearcher</code> that sleeps instead of loading a page and returns
+     * one canned flight per search.
+     */
+    private static class StubSearcher implements FlightSearcher {
+        private static final AtomicInteger inFlight = new AtomicInteger();
+        private static final AtomicInteger maxInFlight = new AtomicInteger();
+        private static final AtomicInteger created = new AtomicInteger();
+        private static final AtomicInteger pageLoads = new AtomicInteger();
+        private static final Set<String> crashedSearches = ConcurrentHashMap.newKeySet();
+        private final long pageLoadMillis;
+        private final boolean nonstop;
+        private final int failEvery;
+        private int searches = 0;
+
+        StubSearcher(long pageLoadMillis, boolean nonstop, int failEvery) {
+            this.pageLoadMillis = pageLoadMillis;
+            this.nonstop = nonstop;
+            this.failEvery = failEvery;
+            created.incrementAndGet();
+        }
+
+        static void reset() {
+            inFlight.set(0);
+            maxInFlight.set(0);
+            created.set(0);
+            pageLoads.set(0);
+            crashedSearches.clear();
+        }
+
+        private List<Flight> load(String fromCity, String toCity, LocalDate fromDate, LocalDate toDate, boolean nonstopOnly) {
+            pageLoads.incrementAndGet();
+            int current = inFlight.incrementAndGet();
+            maxInFlight.accumulateAndGet(current, Math::max);
+            try {
+                Thread.sleep(pageLoadMillis);
+                // A search only crashes once, so a retried task cannot keep landing on a crash and be given up on
+                if (failEvery > 0 && ++searches % failEvery == 0 && (failEvery == 1 || crashedSearches.add(toCity + fromDate))) {
+                    throw new IllegalStateException("Simulated driver crash");
+                }
+                if (nonstopOnly && !nonstop) {
+                    return List.of();
+                }
+                return List.of(new Flight(fromCity, toCity, fromDate, toDate, 100, nonstop));
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            } finally {
+                inFlight.decrementAndGet();
+            }
+        }
+
+        @Override
+        public List<Flight> getRoundTripNonstopEconomyFlights(String fromCity, String toCity, LocalDate fromDate, LocalDate toDate) {
+            return load(fromCity, toCity, fromDate, toDate, true);
+        }
+
+        @Override
+        public List<Flight> getRoundTripEconomyFlights(String fromCity, String toCity, LocalDate fromDate, LocalDate toDate) {
+            return load(fromCity, toCity, fromDate, toDate, false);
+        }
+
+        @Override
+        public FlightSearchResult searchRoundTripEconomyFlights(String fromCity, String toCity, LocalDate fromDate, LocalDate toDate) {
+            return FlightSearchResult.of(load(fromCity, toCity, fromDate, toDate, false));
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    private static List<ScrapeTask> tasks() {
+        return ScrapeTask.grid("Atlanta", cities, LocalDate.of(2025, 5, 1), LocalDate.of(2025, 5, 15), 7);
+    }
+
+    @Test
+    public void grid() {
+        List<ScrapeTask> tasks = tasks();
+        // May 1st through May 8th are the only departures that return by May 15th
+        Assert.assertEquals(cities.length * 8, tasks.size());
+        Assert.assertEquals(new ScrapeTask("Atlanta", "Cancun", LocalDate.of(2025, 5, 1), LocalDate.of(2025, 5, 8)), tasks.getFirst());
+        Assert.assertEquals(new ScrapeTask("Atlanta", "Rome", LocalDate.of(2025, 5, 8), LocalDate.of(2025, 5, 15)), tasks.getLast());
+
+        // Each trip length gets its own departures, so shorter trips can leave later
+        List<ScrapeTask> weekends = ScrapeTask.grid("Atlanta", new String[] { "Rome" }, LocalDate.of(2025, 5, 1), LocalDate.of(2025, 5, 15), 7, 2);
+        Assert.assertEquals(8 + 13, weekends.size());
+        Assert.assertEquals(new ScrapeTask("Atlanta", "Rome", LocalDate.of(2025, 5, 13), LocalDate.of(2025, 5, 15)), weekends.getLast());
+    }
+
+    @Test
+    public void runsEveryTaskOnce() throws InterruptedException {
+        StubSearcher.reset();
+        List<ScrapeTask> tasks = tasks();
+        List<ScrapeTask> seen = Collections.synchronizedList(new ArrayList<>());
+        List<Flight> results = Collections.synchronizedList(new ArrayList<>());
+
+        ScrapeScheduler scheduler = new ScrapeScheduler(() -> new StubSearcher(5, true, 0), 4, 4, 1);
+        List<ScrapeTask> failed = scheduler.run(tasks, (task, flights) -> {
+            seen.add(task);
+            results.addAll(flights);
+        });
+
+        Assert.assertTrue(failed.isEmpty());
+        Assert.assertEquals(tasks.size(), seen.size());
+        Assert.assertEquals(Set.copyOf(tasks), Set.copyOf(seen));
+        Assert.assertEquals(tasks.size(), results.size());
+        Assert.assertEquals(4, StubSearcher.created.get());
+    }
+
+    @Test
+    public void fallsBackToFlightsWithStops() throws InterruptedException {
+        StubSearcher.reset();
+        List<Flight> results = Collections.synchronizedList(new ArrayList<>());
+
+        new ScrapeScheduler(() -> new StubSearcher(1, false, 0), 2, 2, 1).run(tasks(), (task, flights) -> results.addAll(flights));
+
+        Assert.assertEquals(tasks().size(), results.size());
+        Assert.assertTrue(results.stream().noneMatch(Flight::isNonstop));
+        // The combined search finds flights with stops without loading a second page
+        Assert.assertEquals(tasks().size(), StubSearcher.pageLoads.get());
+    }
+
+    @Test
+    public void capsConcurrentPageLoads() throws InterruptedException {
+        StubSearcher.reset();
+        new ScrapeScheduler(() -> new StubSearcher(10, true, 0), 6, 2, 1).run(tasks(), (task, flights) -> { });
+        Assert.assertTrue(StubSearcher.maxInFlight.get() <= 2);
+    }
+
+    @Test
+    public void restartsWorkerAfterFailure() throws InterruptedException {
+        StubSearcher.reset();
+        Set<ScrapeTask> seen = ConcurrentHashMap.newKeySet();
+
+        // Every searcher crashes on its third search, so each worker has to be restarted repeatedly
+        List<ScrapeTask> failed = new ScrapeScheduler(() -> new StubSearcher(1, true, 3), 2, 2, 3)
+                .run(tasks(), (task, flights) -> seen.add(task));
+
+        Assert.assertTrue(failed.isEmpty());
+        Assert.assertEquals(tasks().size(), seen.size());
+        Assert.assertTrue(StubSearcher.created.get() > 2);
+    }
+
+    @Test
+    public void givesUpAfterMaxAttempts() throws InterruptedException {
+        StubSearcher.reset();
+        AtomicInteger saved = new AtomicInteger();
+        List<ScrapeTask> failed = new ScrapeScheduler(() -> new StubSearcher(0, true, 1), 2, 2, 2)
+                .run(tasks(), (task, flights) -> saved.incrementAndGet());
+
+        Assert.assertEquals(0, saved.get());
+        Assert.assertEquals(tasks().size(), failed.size());
+    }
+
+    @Test
+    public void isolatesFailuresToTheirTasks() throws InterruptedException, IOException {
+        StubSearcher.reset();
+        String dbFilePath = "scrape_scheduler_test.db";
+        deleteFiles(dbFilePath);
+        PooledSQLiteDatabase db = new PooledSQLiteDatabase(dbFilePath, (e) -> Assert.fail(e.getMessage()), 1);
+
+        try {
+            db.write(d -> {
+                Assert.assertTrue(FlightSchema.migrate(d));
+                FlightSchema.addCities(d, "Atlanta");
+                FlightSchema.addCities(d, cities);
+                return null;
+            });
+            ScrapeQueue queue = new ScrapeQueue(db, 3, Duration.ofMillis(2), Duration.ofMillis(10));
+            queue.enqueue(tasks());
+            Set<ScrapeTask> seen = ConcurrentHashMap.newKeySet();
+            MetricsRegistry metrics = new MetricsRegistry();
+
+            // Every searcher crashes on its third search, which is retried, while saving Rome's results always fails
+            List<ScrapeTask> failed = new ScrapeScheduler(() -> new StubSearcher(1, true, 3), 2, 2, 1, metrics).run(queue, (task, flights) -> {
+                if (task.toCity().equals("Rome")) {
+                    throw new IllegalStateException("Simulated write failure");
+                }
+                seen.add(task);
+            });
+
+            List<ScrapeTask> rome = tasks().stream().filter(task -> task.toCity().equals("Rome")).toList();
+            Assert.assertEquals(tasks().size() - rome.size(), seen.size());
+            Assert.assertEquals(Set.copyOf(rome), Set.copyOf(failed));
+            Assert.assertEquals(Set.copyOf(rome), Set.copyOf(queue.getDeadLetters()));
+            Assert.assertEquals(0, queue.size());
+
+            String text = metrics.toPrometheus();
+            Assert.assertTrue(text, text.contains("scrape_tasks_total{result=\"completed\"} " + seen.size() + "\n"));
+            Assert.assertTrue(text, text.contains("scrape_tasks_total{result=\"failed\"} " + rome.size() + "\n"));
+            Assert.assertTrue(text, text.contains("scrape_search_seconds_count " + StubSearcher.pageLoads.get() + "\n"));
+            Assert.assertTrue(text, text.contains("scrape_errors_total{type=\"IllegalStateException\"}"));
+        } finally {
+            db.close();
+            deleteFiles(dbFilePath);
+        }
+    }
+
+    private static void deleteFiles(String dbFilePath) throws IOException {
+        for (String suffix : new String[] { "", "-wal", "-shm" }) {
+            Files.deleteIfExists(Path.of(dbFilePath + suffix));
+        }
+    }
+
+    @Test
+    public void savesWhileNextPageLoads() throws InterruptedException {
+        StubSearcher.reset();
+        AtomicInteger saving = new AtomicInteger();
+        AtomicInteger maxSaving = new AtomicInteger();
+        AtomicInteger searchesDuringSaves = new AtomicInteger();
+
+        // A single worker, where loading a page and saving its results take about as long as each other
+        List<ScrapeTask> failed = new ScrapeScheduler(() -> new StubSearcher(20, true, 0), 1, 1, 1).run(tasks(), (task, flights) -> {
+            maxSaving.accumulateAndGet(saving.incrementAndGet(), Math::max);
+            try {
+                Thread.sleep(20);
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+            if (StubSearcher.inFlight.get() > 0) {
+                searchesDuringSaves.incrementAndGet();
+            }
+            saving.decrementAndGet();
+        });
+
+        Assert.assertTrue(failed.isEmpty());
+        Assert.assertEquals(1, maxSaving.get());
+        // Run one after the other, no page would be loading while results are saved
+        Assert.assertTrue(searchesDuringSaves.get() > tasks().size() / 2);
+    }
+
+    @Test
+    public void completesTasksOnlyOnceSaved() throws InterruptedException {
+        StubSearcher.reset();
+        MetricsRegistry metrics = new MetricsRegistry();
+        List<ScrapeTask> saved = Collections.synchronizedList(new ArrayList<>());
+
+        // Saves finish on another thread after the handler returns, and Paris's saves always fail
+        List<ScrapeTask> failed = new ScrapeScheduler(() -> new StubSearcher(0, true, 0), 2, 2, 1, metrics).run(
+                ScrapeQueue.inMemory(tasks(), 1), (task, flights, cached) -> CompletableFuture.runAsync(() -> {
+                    if (task.toCity().equals("Paris")) {
+                        throw new IllegalStateException("Simulated rollback");
+                    }
+                    saved.add(task);
+                }, CompletableFuture.delayedExecutor(10, TimeUnit.MILLISECONDS)));
+
+        List<ScrapeTask> paris = tasks().stream().filter(task -> task.toCity().equals("Paris")).toList();
+        Assert.assertEquals(Set.copyOf(paris), Set.copyOf(failed));
+        Assert.assertEquals(tasks().size() - paris.size(), saved.size());
+
+        // Every save finished before the run returned
+        String text = metrics.toPrometheus();
+        Assert.assertTrue(text, text.contains("scrape_tasks_total{result=\"completed\"} " + saved.size() + "\n"));
+        Assert.assertTrue(text, text.contains("scrape_tasks_total{result=\"failed\"} " + paris.size() + "\n"));
+        Assert.assertTrue(text, text.contains("scrape_save_seconds_count " + tasks().size() + "\n"));
+    }
+
+    @Test
+    public void givesUpOnTasksThatCannotBeSaved() throws InterruptedException {
+        StubSearcher.reset();
+        List<ScrapeTask> failed = new ScrapeScheduler(() -> new StubSearcher(0, true, 0), 2, 2, 1).run(tasks(), (task, flights) -> {
+            if (task.toCity().equals("Paris")) {
+                throw new IllegalStateException("Simulated write failure");
+            }
+        });
+
+        Assert.assertEquals(Set.copyOf(tasks().stream().filter(task -> task.toCity().equals("Paris")).toList()), Set.copyOf(failed));
+    }
+
+    @Test
+    public void scalesWithPoolSize() throws InterruptedException {
+        StubSearcher.reset();
+        new ScrapeScheduler(() -> new StubSearcher(20, true, 0), 1, 1, 1).run(tasks(), (task, flights) -> { });
+        Assert.assertEquals(1, StubSearcher.maxInFlight.get());
+
+        StubSearcher.reset();
+        new ScrapeScheduler(() -> new StubSearcher(20, true, 0), 4, 4, 1).run(tasks(), (task, flights) -> { });
+        Assert.assertTrue("Expected a pool of 4 to load pages concurrently", StubSearcher.maxInFlight.get() > 1);
+    }
+}
@@ -0,0 +1,191 @@
+import org.junit.Assert;
+import org.junit.Test;
+import org.openqa.selenium.By;
+import org.openqa.selenium.JavascriptExecutor;
+import org.openqa.selenium.TimeoutException;
+import org.openqa.selenium.WebDriver;
+import org.openqa.selenium.WebElement;
+
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Tests the readiness waits and instrumentation of <code>SeleniumBackend</code> against a fake browser
+ * whose page becomes ready after a given delay.
+ */
+public class SeleniumBackendTests {
+    private static final Duration readyTimeout = Duration.ofMillis(500), pollInterval = Duration.ofMillis(10);
+    private static final String url = FlightDataAPI.buildUrl("Atlanta", "Paris", LocalDate.of(2025, 5, 1), LocalDate.of(2025, 5, 8), FlightDataAPI.NONSTOP_FILTER);
+
+    private static class FakeBrowser implements WebDriver, JavascriptExecutor {
+        private final String readyState;
+        private final long readyAfterMillis;
+        private final Object payload;
+        private long loadedAt;
+
+        FakeBrowser(String readyState, long readyAfterMillis, Object payload) {
+            this.readyState = readyState;
+            this.readyAfterMillis = readyAfterMillis;
+            this.payload = payload;
+        }
+
+        @Override
+        public void get(String url) {
+            loadedAt = System.currentTimeMillis();
+        }
+
+        @Override
+        public Object executeScript(String script, Object... args) {
+            if (script.equals(SeleniumBackend.READY_STATE_SCRIPT)) {
+                return System.currentTimeMillis() - loadedAt >= readyAfterMillis ? readyState : null;
+            }
+            if (script.equals(ResultCardParser.EXTRACT_SCRIPT)) {
+                return payload;
+            }
+            throw new IllegalArgumentException("Unexpected script");
+        }
+
+        @Override
+        public Object executeAsyncScript(String script, Object... args) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public String getCurrentUrl() {
+            return url;
+        }
+
+        @Override
+        public String getTitle() {
+            return "";
+        }
+
+        @Override
+        public List<WebElement> findElements(By by) {
+            throw new UnsupportedOperationException("Pages should be read with scripts");
+        }
+
+        @Override
+        public WebElement findElement(By by) {
+            throw new UnsupportedOperationException("Pages should be read with scripts");
+        }
+
+        @Override
+        public String getPageSource() {
+            return "";
+        }
+
+        @Override
+        public void close() {
+        }
+
+        @Override
+        public void quit() {
+        }
+
+        @Override
+        public Set<String> getWindowHandles() {
+            return Set.of();
+        }
+
+        @Override
+        public String getWindowHandle() {
+            return "";
+        }
+
+        @Override
+        public TargetLocator switchTo() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Navigation navigate() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Options manage() {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+    private static final Object payload = Map.of(
+            "noDirectFlights", false,
+            "cards", List.of(List.of("$812.37", "Direct", "Direct"), List.of("$901", "Direct", "Direct"))
+    );
+
+    @Test
+    public void returnsAsSoonAsResultsAppear() {
+        FetchMetrics metrics = new FetchMetrics();
+        try (SeleniumBackend backend = new SeleniumBackend(new FakeBrowser("results", 50, payload), readyTimeout, pollInterval, metrics)) {
+            long start = System.nanoTime();
+            SearchPage page = backend.fetch(url);
+            long millis = (System.nanoTime() - start) / 1_000_000;
+
+            Assert.assertEquals(List.of(new FareCard(812.37, 0, 0), new FareCard(901, 0, 0)), page.cards());
+            Assert.assertTrue("Took " + millis + " ms", millis < readyTimeout.toMillis());
+        }
+
+        Assert.assertEquals(1, metrics.getCount(FetchMetrics.Outcome.RESULTS));
+        for (FetchMetrics.Phase phase : FetchMetrics.Phase.values()) {
+            Assert.assertEquals(phase.name(), 1, metrics.getHistogram(phase).getCount());
+        }
+        Assert.assertTrue(metrics.getHistogram(FetchMetrics.Phase.WAIT).getMaxNanos() >= 50_000_000L);
+        Assert.assertEquals(1, metrics.getCardsPerPage().getCount());
+        Assert.assertEquals(2, metrics.getCardsPerPage().getMax());
+    }
+
+    @Test
+    public void returnsEmptyPageWhenThereAreNoResults() {
+        FetchMetrics metrics = new FetchMetrics();
+        try (SeleniumBackend backend = new SeleniumBackend(new FakeBrowser("no_results", 0, null), readyTimeout, pollInterval, metrics)) {
+            SearchPage page = backend.fetch(url);
+            Assert.assertTrue(page.cards().isEmpty());
+            Assert.assertFalse(page.noDirectFlights());
+        }
+
+        Assert.assertEquals(1, metrics.getCount(FetchMetrics.Outcome.NO_RESULTS));
+        Assert.assertEquals(0, metrics.getHistogram(FetchMetrics.Phase.PARSE).getCount());
+    }
+
+    @Test
+    public void treatsLoadedPageWithoutCardsAsEmpty() {
+        FetchMetrics metrics = new FetchMetrics();
+        try (SeleniumBackend backend = new SeleniumBackend(new FakeBrowser("loaded", 0, null), readyTimeout, pollInterval, metrics)) {
+            SearchPage page = backend.fetch(url);
+            Assert.assertTrue(page.cards().isEmpty());
+        }
+
+        // Answered after settling for a tenth of the timeout, not by timing out
+        Assert.assertEquals(1, metrics.getCount(FetchMetrics.Outcome.NO_RESULTS));
+        Assert.assertEquals(0, metrics.getCount(FetchMetrics.Outcome.TIMEOUT));
+        Assert.assertTrue(metrics.getHistogram(FetchMetrics.Phase.WAIT).getMaxNanos() >= readyTimeout.toNanos() / 10);
+    }
+
+    @Test
+    public void failsOnErrorPage() {
+        FetchMetrics metrics = new FetchMetrics();
+        try (SeleniumBackend backend = new SeleniumBackend(new FakeBrowser("error", 0, null), readyTimeout, pollInterval, metrics)) {
+            backend.fetch(url);
+            Assert.fail("Expected an error page to fail");
+        } catch (IllegalStateException e) {
+            Assert.assertEquals(1, metrics.getCount(FetchMetrics.Outcome.ERROR_PAGE));
+        }
+    }
+
+    @Test
+    public void timesOutAfterBudget() {
+        FetchMetrics metrics = new FetchMetrics();
+        try (SeleniumBackend backend = new SeleniumBackend(new FakeBrowser("results", Long.MAX_VALUE, payload), readyTimeout, pollInterval, metrics)) {
+            backend.fetch(url);
+            Assert.fail("Expected a page that never loads to time out");
+        } catch (TimeoutException e) {
+            Assert.assertEquals(1, metrics.getCount(FetchMetrics.Outcome.TIMEOUT));
+            Assert.assertEquals(1, metrics.getHistogram(FetchMetrics.Phase.TOTAL).getCount());
+            Assert.assertTrue(metrics.getHistogram(FetchMetrics.Phase.TOTAL).getMaxNanos() >= readyTimeout.toNanos());
+        }
+    }
+}
@@ -0,0 +1,35 @@
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+
+public class VarintsTests {
+    @Test
+    public void zigzagRoundTrip() {
+        long[] values = { 0, 1, -1, 63, -64, 64, 86_400, -123_456_789, Long.MAX_VALUE, Long.MIN_VALUE };
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        for (long value : values) {
+            Varints.writeZigzag(output, value);
+        }
+
+        byte[] data = output.toByteArray();
+        int[] position = { 0 };
+        for (long value : values) {
+            Assert.assertEquals(value, Varints.readZigzag(data, position));
+        }
+        Assert.assertEquals(data.length, position[0]);
+    }
+
+    @Test
+    public void smallValuesTakeOneByte() {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        Varints.writeZigzag(output, 63);
+        Varints.writeZigzag(output, -64);
+        Assert.assertEquals(2, output.size());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void truncatedValue() {
+        Varints.readZigzag(new byte[] { (byte) 0x80 }, new int[] { 0 });
+    }
+}